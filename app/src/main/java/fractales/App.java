@@ -1,9 +1,26 @@
 package fractales;
 
 import fractales.model.*;
+import fractales.utils.BatchRenderer;
+import fractales.utils.BuddhabrotRenderer;
+import fractales.utils.CheckpointRenderer;
+import fractales.utils.DeadlineRenderer;
+import fractales.utils.DistanceRenderer;
+import fractales.utils.FloatVerification;
 import fractales.utils.FractalImage;
+import fractales.utils.FractalFile;
 import fractales.utils.FractalText;
+import fractales.utils.IterationBudget;
+import fractales.utils.JuliaAtlas;
+import fractales.utils.JuliaOutline;
+import fractales.utils.JuliaSweep;
+import fractales.utils.LogPolarZoom;
+import fractales.utils.RenderEngines;
+import fractales.utils.ZoomAnimation;
 import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.function.DoubleFunction;
 import javafx.application.Application;
 import javafx.stage.Stage;
 import javafx.scene.*;
@@ -44,7 +61,7 @@ public class App extends Application {
 	Option.builder("xMin")
 	.hasArg()
 	.valueSeparator()
-	.argName("int")
+	.argName("decimal")
 	.desc("Sets the minimal value along the x-axis")
 	.build();
 
@@ -71,7 +88,7 @@ public class App extends Application {
 	Option.builder("yMax")
 	.hasArg()
 	.valueSeparator()
-	.argName("int")
+	.argName("decimal")
 	.desc("Sets the maximal value along the y-axis")
 	.build();
 
@@ -128,6 +145,18 @@ public class App extends Application {
 	.desc("Mandelbrot generation")
 	.build();
 
+    // Buddhabrot option
+    private static final Option BUDDHABROT_OPT =
+	Option.builder("buddhabrot")
+	.hasArg()
+	.optionalArg(true)
+	.argName("int")
+	.desc("With -mandelbrot, renders the density of the escaping orbits " +
+	      "over the view instead. Takes the number of orbits sampled per " +
+	      "pixel as optional argument, " + Buddhabrot.SAMPLES_PER_PIXEL +
+	      " by default")
+	.build();
+
     // Julia options only
     private static final Option COMPLEX_CST_OPT =
 	Option.builder("constant")
@@ -152,14 +181,272 @@ public class App extends Application {
 	      + " by a ';' the format in the end will be <double;double;double;double>")
 	.build();
 
+    // Julia and Mandelbrot formula option
+    private static final Option FORMULA_OPT =
+	Option.builder("formula")
+	.hasArg()
+	.argName("String")
+	.desc("Iterates the given formula f(z, c) instead of the iteration " +
+	      "function, with the operators + - * / ^n, the variables z and " +
+	      "c, i and the functions re, im, abs and conj, such as " +
+	      "<z^3 + c> or <(abs(re(z)) + i * abs(im(z)))^2 + c>. " +
+	      "The orbits of -mandelbrot start from 0")
+	.build();
+
     // Build from file option
     private static final Option BUILD_FROM_FILE_OPT =
 	Option.builder("buildFrom")
 	.longOpt("buildFromFile")
 	.hasArg()
 	.argName("String")
-	.desc("Builds an image from a text file. Takes the filename on /tmp/ " +
-	      "as argument (without the extension '.txt'")
+	.desc("Builds an image from a .frac file, or from the .txt file of the " +
+	      "same name when there is none. " +
+	      "Takes the filename on /tmp/ as argument (without the extension)")
+	.build();
+
+    // Keep orbits option
+    private static final Option KEEP_ORBITS_OPT =
+	Option.builder("keepOrbits")
+	.desc("Keeps the orbits of the pixels that reach the maximal number " +
+	      "of iterations in /tmp/<filename>.orbits, so that a later render " +
+	      "of the same fractal with a higher maxIteration only continues them")
+	.build();
+
+    // Automatic iteration budget option
+    private static final Option AUTO_ITER_OPT =
+	Option.builder("autoIter")
+	.longOpt("autoIteration")
+	.desc("Chooses the maximal number of iterations from a low resolution " +
+	      "sample of the view and only raises it in the parts of the image " +
+	      "that need it. The chosen value is saved in the text file")
+	.build();
+
+    // Deadline option
+    private static final Option DEADLINE_OPT =
+	Option.builder("deadline")
+	.hasArg()
+	.argName("int")
+	.desc("Renders the best image possible in the given time in " +
+	      "milliseconds, by progressive passes of increasing resolution")
+	.build();
+
+    // float verification option
+    private static final Option VERIFY_FLOAT_OPT =
+	Option.builder("verifyFloat")
+	.desc("Computes the fractal with floats and with doubles and " +
+	      "reports the pixels whose divergence index differs")
+	.build();
+
+    // resumable render option
+    private static final Option RESUME_OPT =
+	Option.builder("resume")
+	.desc("Renders tile by tile and keeps the finished tiles in " +
+	      "/tmp/<filename>.journal, so that the same command continues " +
+	      "an interrupted render instead of starting again")
+	.build();
+
+    // partial image option
+    private static final Option PREVIEW_OPT =
+	Option.builder("preview")
+	.hasArg()
+	.argName("int")
+	.desc("With -resume, saves the finished tiles in " +
+	      "/tmp/<filename>.preview.png every given number of seconds, " +
+	      "with -buddhabrot the density of the orbits sampled so far")
+	.build();
+
+    // batch option
+    private static final Option BATCH_OPT =
+	Option.builder("batch")
+	.hasArg()
+	.argName("path")
+	.desc("Renders every .frac and .txt file of a directory, or every " +
+	      "file listed in a manifest, and writes a report of the renders " +
+	      "in /tmp/batch-report.txt")
+	.build();
+
+    // concurrent renders option
+    private static final Option BATCH_JOBS_OPT =
+	Option.builder("batchJobs")
+	.hasArg()
+	.argName("int")
+	.desc("With -batch, the maximal number of fractals rendered at the " +
+	      "same time, the number of threads by default")
+	.build();
+
+    // memory budget option
+    private static final Option BATCH_MEMORY_OPT =
+	Option.builder("batchMemory")
+	.hasArg()
+	.argName("int")
+	.desc("With -batch, the memory in megabytes shared by the images " +
+	      "rendered at the same time, half of the maximal heap by default")
+	.build();
+
+    // threads option
+    private static final Option THREADS_OPT =
+	Option.builder("threads")
+	.hasArg()
+	.argName("int")
+	.desc("The number of threads computing the fractals, the number of " +
+	      "cores by default")
+	.build();
+
+    // cache option
+    private static final Option CACHE_OPT =
+	Option.builder("cache")
+	.hasArg()
+	.argName("int")
+	.desc("The size in megabytes of the cache of divergence indices in " +
+	      "/tmp/fractales-cache, 0 to turn it off, 512 by default")
+	.build();
+
+    // render engine option
+    private static final Option ENGINE_OPT =
+	Option.builder("engine")
+	.hasArg()
+	.argName("String")
+	.desc("Forces the engine that computes the Julia and Mandelbrot " +
+	      "sets, one of " + RenderEngines.getEngineNames() + ", the " +
+	      "exact engine of lowest estimated cost by default, " +
+	      "subdivision being only used when forced")
+	.build();
+
+    // zoom animation options
+    private static final Option ZOOM_TO_OPT =
+	Option.builder("zoomTo")
+	.hasArg()
+	.numberOfArgs(2)
+	.valueSeparator(';')
+	.argName("Complex")
+	.desc("Renders the frames of a zoom from the view toward the given " +
+	      "point, as /tmp/<filename>-0000.png, /tmp/<filename>-0001.png... " +
+	      "Complex format is <double;double>")
+	.build();
+
+    private static final Option FRAMES_OPT =
+	Option.builder("frames")
+	.hasArg()
+	.argName("int")
+	.desc("With -zoomTo, -sweepCircle or -sweepLine, the number of " +
+	      "frames, 100 by default")
+	.build();
+
+    private static final Option ZOOM_DEPTH_OPT =
+	Option.builder("zoomDepth")
+	.hasArg()
+	.argName("double")
+	.desc("With -zoomTo, the magnification of the last frame, 1000 by " +
+	      "default")
+	.build();
+
+    private static final Option LOG_POLAR_OPT =
+	Option.builder("logPolar")
+	.desc("With -zoomTo, centers the frames on the point and reprojects " +
+	      "them from a single log-polar strip instead of computing them")
+	.build();
+
+    // Julia sweep options
+    private static final Option SWEEP_CIRCLE_OPT =
+	Option.builder("sweepCircle")
+	.hasArg()
+	.numberOfArgs(3)
+	.valueSeparator(';')
+	.argName("double;double;double")
+	.desc("With -julia, renders a looping animation whose complex " +
+	      "constant goes around the circle of the given center and radius, " +
+	      "as /tmp/<filename>-0000.png, /tmp/<filename>-0001.png...")
+	.build();
+
+    private static final Option SWEEP_LINE_OPT =
+	Option.builder("sweepLine")
+	.hasArg()
+	.numberOfArgs(4)
+	.valueSeparator(';')
+	.argName("Complex;Complex")
+	.desc("With -julia, renders an animation whose complex constant goes " +
+	      "from the first to the second complex number")
+	.build();
+
+    private static final Option SWEEP_FUN_OPT =
+	Option.builder("sweepIterFun")
+	.hasArg()
+	.numberOfArgs(4)
+	.valueSeparator(';')
+	.argName("Complex;Complex")
+	.desc("With -sweepCircle or -sweepLine, moves the factors of the " +
+	      "iteration function from the ones of -iterFun to these ones")
+	.build();
+
+    // Distance estimation option
+    private static final Option DISTANCE_OPT =
+	Option.builder("distance")
+	.desc("Colors the pixels by their estimated distance to the set, " +
+	      "drawing the filaments thinner than a pixel and skipping the " +
+	      "pixels proven far from the set")
+	.build();
+
+    // Julia outline option
+    private static final Option OUTLINE_OPT =
+	Option.builder("outline")
+	.desc("With -julia, draws only the boundary of the Julia set by " +
+	      "inverse iteration, a preview in a fraction of the time of the " +
+	      "full render")
+	.build();
+
+    // Julia atlas options
+    private static final Option ATLAS_OPT =
+	Option.builder("atlas")
+	.hasArg()
+	.numberOfArgs(2)
+	.valueSeparator(';')
+	.argName("int;int")
+	.desc("With -julia, renders a grid of the given number of columns and " +
+	      "rows of Julia sets, whose constants sample the region of " +
+	      "-atlasRegion, each in the view given by the other options")
+	.build();
+
+    private static final Option ATLAS_REGION_OPT =
+	Option.builder("atlasRegion")
+	.hasArg()
+	.numberOfArgs(4)
+	.valueSeparator(';')
+	.argName("double;double;double;double")
+	.desc("With -atlas, the minimal and maximal real parts then the " +
+	      "minimal and maximal imaginary parts of the constants, " +
+	      "<-2;1;-1.5;1.5> by default")
+	.build();
+
+    // options that only render the Julia sets
+    private static final String[] JULIA_OPTIONS =
+	{"atlas", "atlasRegion", "outline", "sweepCircle", "sweepIterFun",
+	 "sweepLine"};
+
+    // options that only render the Mandelbrot set
+    private static final String[] MANDELBROT_OPTIONS = {"buddhabrot"};
+
+    // options that compute the pixels one by one, which a Buddhabrot
+    // loaded from a file cannot take
+    private static final String[] PER_PIXEL_OPTIONS =
+	{"antiAlias", "autoIter", "deadline", "keepOrbits", "resume",
+	 "verifyFloat"};
+
+    // Anti-aliasing option
+    private static final Option ANTI_ALIAS_OPT =
+	Option.builder("antiAlias")
+	.hasArg()
+	.argName("int")
+	.desc("Averages the colors of n x n sub-pixels for the pixels on the " +
+	      "edges, whose index differs from the one of a neighbour by " +
+	      "more than " + FractalImage.DEFAULT_THRESHOLD + ", instead of " +
+	      "supersampling the whole image")
+	.build();
+
+    // Histogram equalization option
+    private static final Option EQUALIZE_OPT =
+	Option.builder("equalize")
+	.desc("Spreads the colors evenly over the pixels instead of the " +
+	      "iterations, so that deep zooms keep their contrast")
 	.build();
 
     @Override
@@ -192,9 +479,36 @@ public class App extends Application {
 	options.addOption(COLOR_FUN_OPT);
 	options.addOption(JULIA_OPT);
 	options.addOption(MANDELBROT_OPT);
+	options.addOption(BUDDHABROT_OPT);
 	options.addOption(COMPLEX_CST_OPT);
 	options.addOption(ITER_FUN_OPT);
+	options.addOption(FORMULA_OPT);
 	options.addOption(BUILD_FROM_FILE_OPT);
+	options.addOption(KEEP_ORBITS_OPT);
+	options.addOption(AUTO_ITER_OPT);
+	options.addOption(DEADLINE_OPT);
+	options.addOption(VERIFY_FLOAT_OPT);
+	options.addOption(RESUME_OPT);
+	options.addOption(PREVIEW_OPT);
+	options.addOption(BATCH_OPT);
+	options.addOption(BATCH_JOBS_OPT);
+	options.addOption(BATCH_MEMORY_OPT);
+	options.addOption(THREADS_OPT);
+	options.addOption(CACHE_OPT);
+	options.addOption(ENGINE_OPT);
+	options.addOption(ZOOM_TO_OPT);
+	options.addOption(FRAMES_OPT);
+	options.addOption(ZOOM_DEPTH_OPT);
+	options.addOption(LOG_POLAR_OPT);
+	options.addOption(SWEEP_CIRCLE_OPT);
+	options.addOption(SWEEP_LINE_OPT);
+	options.addOption(SWEEP_FUN_OPT);
+	options.addOption(DISTANCE_OPT);
+	options.addOption(OUTLINE_OPT);
+	options.addOption(ATLAS_OPT);
+	options.addOption(ATLAS_REGION_OPT);
+	options.addOption(ANTI_ALIAS_OPT);
+	options.addOption(EQUALIZE_OPT);
 
 	String set = "";
 
@@ -209,16 +523,55 @@ public class App extends Application {
 	    // parsing the commandline
 	    commandLine = parser.parse(options, args);
 
+	    // must be set before the first computation creates the threads
+	    if(commandLine.hasOption("threads"))
+		System.setProperty("fractales.threads",
+				   commandLine.getOptionValue("threads"));
+	    if(commandLine.hasOption("cache"))
+		System.setProperty("fractales.cache",
+				   commandLine.getOptionValue("cache"));
+	    if(commandLine.hasOption("engine"))
+		System.setProperty(RenderEngines.PROPERTY,
+				   RenderEngines.getEngine
+				   (commandLine.getOptionValue("engine"))
+				   .getName());
+
 	    // if -gui or --graphics is present, launch gui version
 	    if(commandLine.hasOption("gui")){
 		launch(args);
+	    } else if(commandLine.hasOption("batch")){
+		// renders many descriptors in this process
+		int jobs = commandLine.hasOption("batchJobs")
+		    ? Integer.parseInt(commandLine.getOptionValue("batchJobs"))
+		    : Integer.getInteger("fractales.threads", Runtime.getRuntime()
+					 .availableProcessors());
+		long memory = commandLine.hasOption("batchMemory")
+		    ? Long.parseLong(commandLine.getOptionValue("batchMemory"))
+		    << 20
+		    : Runtime.getRuntime().maxMemory() / 2;
+		BatchRenderer.Report report =
+		    new BatchRenderer(jobs, memory)
+		    .render(BatchRenderer.listDescriptors
+			    (Paths.get(commandLine
+						     .getOptionValue("batch"))));
+		report.saveFile(Paths.get("/tmp/batch-report.txt"));
+		System.out.print(report);
+		System.exit(report.getFailures() == 0 ? 0 : 1);
 	    } else if(commandLine.hasOption("buildFrom")){
-		// builds an image from a text file
-		String path = "/tmp/" + commandLine.getOptionValue("buildFrom")+ ".txt";
-		Fractal fractal = FractalText.textToImage(path);
+		// builds an image from a .frac file, or from a legacy text file
+		String name = commandLine.getOptionValue("buildFrom");
+		FractalFile file = FractalFile.openIfExists(name);
+		if(file != null && file.hasField()){
+		    checkPerPixelOptions(file.getFractal(), commandLine);
+		    // the indices are saved with the fractal
+		    imageOf(file.getFractal(), commandLine)
+			.saveFile(file.readMatrix());
+		    System.exit(0);
+		}
+		Fractal fractal = file != null ? file.getFractal()
+		    : FractalText.textToImage("/tmp/" + name + ".txt");
 		if(fractal != null){
-		    FractalImage fractalImage = FractalImage.of(fractal);
-		    fractalImage.saveFile();
+		    saveFractal(fractal, commandLine);
 		    System.exit(0);
 		} else {
 		    System.out.println("Invalid file");
@@ -232,6 +585,16 @@ public class App extends Application {
 		    helper.printHelp(" ", options);
 		    System.exit(0);
 		}
+		if(commandLine.hasOption("mandelbrot"))
+		    for(String option : JULIA_OPTIONS)
+			if(commandLine.hasOption(option))
+			    throw new IllegalArgumentException
+				("-" + option + " needs -julia");
+		if(commandLine.hasOption("julia"))
+		    for(String option : MANDELBROT_OPTIONS)
+			if(commandLine.hasOption(option))
+			    throw new IllegalArgumentException
+				("-" + option + " needs -mandelbrot");
 
 		// user wants Julia fractal
 		if(commandLine.hasOption("julia")){
@@ -280,6 +643,17 @@ public class App extends Application {
 		    set = "mandelbrot";
 		}
 
+		// parse formula input
+		if(commandLine.hasOption("formula")){
+		    Formula formula =
+			Formula.of(commandLine.getOptionValue("formula"));
+		    if(set.equals("julia")){
+			juliaBuilder.formula(formula);
+		    } else if(set.equals("mandelbrot")){
+			mandelbrotBuilder.formula(formula);
+		    }
+		}
+
 		// parse iteration input
 		if(commandLine.hasOption("maxIter")){
 		    int maxIter =
@@ -314,8 +688,9 @@ public class App extends Application {
 
 		// parse xMin input
 		if(commandLine.hasOption("xMin")){
-		    int xMin =
-			Integer.parseInt(commandLine.getOptionValue("xMin"));
+		    // all the digits are kept for deep zooms
+		    BigDecimal xMin =
+			new BigDecimal(commandLine.getOptionValue("xMin"));
 		    if(set.equals("julia")){
 			juliaBuilder.xMin(xMin);
 		    } else if(set.equals("mandelbrot")){
@@ -347,8 +722,9 @@ public class App extends Application {
 
 		// parse yMax input
 		if(commandLine.hasOption("yMax")){
-		    int yMax =
-			Integer.parseInt(commandLine.getOptionValue("yMax"));
+		    // all the digits are kept for deep zooms
+		    BigDecimal yMax =
+			new BigDecimal(commandLine.getOptionValue("yMax"));
 		    if(set.equals("julia")){
 			juliaBuilder.yMax(yMax);
 		    } else if(set.equals("mandelbrot")){
@@ -418,18 +794,242 @@ public class App extends Application {
 		    fractal = mandelbrotBuilder.build();
 		}
 
+		if(fractal instanceof Mandelbrot
+		   && commandLine.hasOption("buddhabrot")){
+		    Buddhabrot.Builder builder =
+			new Buddhabrot.Builder().view(fractal);
+		    if(commandLine.hasOption("name"))
+			builder.fileName(fractal.getFileName());
+		    if(commandLine.getOptionValue("buddhabrot") != null)
+			builder.samples(Long.parseLong(commandLine
+						       .getOptionValue("buddhabrot"))
+					* fractal.getWidth() * fractal.getHeight());
+		    Buddhabrot buddhabrot = builder.build();
+		    long seconds = commandLine.hasOption("preview")
+			? Long.parseLong(commandLine.getOptionValue("preview")) : 0;
+		    System.out.println("Saving...");
+		    BuddhabrotRenderer renderer = BuddhabrotRenderer.of(buddhabrot);
+		    FractalImage fi = FractalImage.of(buddhabrot);
+		    fi.saveFile(renderer.render(seconds * 1000));
+		    System.out.println(renderer);
+		    System.out.println("Saved at " + fi.getPath());
+		    System.exit(0);
+		}
+
+		if(commandLine.hasOption("distance")){
+		    System.out.println("Saving...");
+		    DistanceRenderer renderer = DistanceRenderer.of(fractal);
+		    String path = renderer.saveFile();
+		    System.out.println(renderer);
+		    System.out.println("Saved at " + path);
+		    System.exit(0);
+		}
+
+		if(fractal instanceof Julia && commandLine.hasOption("outline")){
+		    System.out.println("Saving...");
+		    JuliaOutline outline = JuliaOutline.of((Julia) fractal);
+		    String path = outline.saveFile();
+		    System.out.println(outline);
+		    System.out.println("Saved at " + path);
+		    System.exit(0);
+		}
+
+		if(fractal instanceof Julia && commandLine.hasOption("atlas")){
+		    String[] grid = commandLine.getOptionValues("atlas");
+		    double[] region = {-2, 1, -1.5, 1.5};
+		    if(commandLine.hasOption("atlasRegion")){
+			String[] v = commandLine.getOptionValues("atlasRegion");
+			for(int k = 0; k < region.length; k++)
+			    region[k] = Double.parseDouble(v[k]);
+		    }
+		    System.out.println("Saving...");
+		    JuliaAtlas atlas =
+			new JuliaAtlas((Julia) fractal, region[0], region[1],
+				       region[2], region[3],
+				       Integer.parseInt(grid[0]),
+				       Integer.parseInt(grid[1]));
+		    String path = atlas.saveFile();
+		    System.out.println(atlas);
+		    System.out.println("Saved at " + path);
+		    System.exit(0);
+		}
+
+		if(fractal instanceof Julia
+		   && (commandLine.hasOption("sweepCircle")
+		       || commandLine.hasOption("sweepLine"))){
+		    Julia julia = (Julia) fractal;
+		    boolean loop = commandLine.hasOption("sweepCircle");
+		    DoubleFunction<Complex> constant;
+		    if(loop){
+			String[] v = commandLine.getOptionValues("sweepCircle");
+			constant = JuliaSweep.circle
+			    (Complex.of(Double.parseDouble(v[0]),
+					Double.parseDouble(v[1])),
+			     Double.parseDouble(v[2]));
+		    } else {
+			String[] v = commandLine.getOptionValues("sweepLine");
+			constant = JuliaSweep.line
+			    (Complex.of(Double.parseDouble(v[0]),
+					Double.parseDouble(v[1])),
+			     Complex.of(Double.parseDouble(v[2]),
+					Double.parseDouble(v[3])));
+		    }
+		    DoubleFunction<Complex> alpha = null;
+		    DoubleFunction<Complex> beta = null;
+		    if(commandLine.hasOption("sweepIterFun")){
+			String[] v = commandLine.getOptionValues("sweepIterFun");
+			alpha = JuliaSweep.line
+			    (julia.getAlphaFactor(),
+			     Complex.of(Double.parseDouble(v[0]),
+					Double.parseDouble(v[1])));
+			beta = JuliaSweep.line
+			    (julia.getBetaFactor(),
+			     Complex.of(Double.parseDouble(v[2]),
+					Double.parseDouble(v[3])));
+		    }
+		    int frames = commandLine.hasOption("frames")
+			? Integer.parseInt(commandLine.getOptionValue("frames"))
+			: 100;
+		    System.out.println("Rendering frames...");
+		    JuliaSweep sweep =
+			new JuliaSweep(julia, constant, alpha, beta, frames, loop);
+		    sweep.render();
+		    System.out.println(sweep);
+		    System.exit(0);
+		}
+
+		if(commandLine.hasOption("zoomTo")){
+		    Complex target = Complex.of
+			(Double.parseDouble(commandLine
+					    .getOptionValues("zoomTo")[0]),
+			 Double.parseDouble(commandLine
+					    .getOptionValues("zoomTo")[1]));
+		    int frames = commandLine.hasOption("frames")
+			? Integer.parseInt(commandLine.getOptionValue("frames"))
+			: 100;
+		    double depth = commandLine.hasOption("zoomDepth")
+			? Double.parseDouble(commandLine
+					     .getOptionValue("zoomDepth"))
+			: 1000;
+		    System.out.println("Rendering frames...");
+		    if(commandLine.hasOption("logPolar")){
+			LogPolarZoom zoom =
+			    LogPolarZoom.of(fractal, target, frames, depth);
+			zoom.render();
+			System.out.println(zoom);
+		    } else {
+			ZoomAnimation animation =
+			    ZoomAnimation.of(fractal, target, frames, depth);
+			animation.render();
+			System.out.println(animation);
+		    }
+		    System.exit(0);
+		}
+
 		// saving the file
-		FractalImage fi = FractalImage.of(fractal);
 		System.out.println("Saving...");
-		fi.saveFile();
+		FractalImage fi = saveFractal(fractal, commandLine);
 		System.out.println("Saved at " + fi.getPath());
 		System.out.println("Exiting");
 		System.exit(0);
 	    }
+	} catch(IOException e){
+	    // a file of the command line cannot be read or written
+	    e.printStackTrace();
+	    System.out.println("ERROR ACCESSING FILE");
+	    System.exit(-1);
 	} catch(Exception e){
 	    System.out.println(e.getMessage());
 	    helper.printHelp(" ", options);
 	    System.exit(-1);
 	}
     }
+
+    /**
+     * Saves the image of the fractal according to the rendering options
+     * of the command line
+     */
+    private static FractalImage saveFractal(Fractal fractal,
+					    CommandLine commandLine)
+	throws IOException {
+	checkPerPixelOptions(fractal, commandLine);
+	if(commandLine.hasOption("verifyFloat"))
+	    System.out.println(FloatVerification.of(fractal));
+	if(commandLine.hasOption("deadline")){
+	    long millis = Long.parseLong(commandLine.getOptionValue("deadline"));
+	    DeadlineRenderer.Result result =
+		DeadlineRenderer.render(fractal, millis);
+	    System.out.println("Rendered in " + result.getElapsedMillis()
+			       + " ms with " + result.getPasses() + " passes : "
+			       + "blocks of " + result.getBlockSize()
+			       + " pixels, "
+			       + String.format("%.1f", result.getCoverage() * 100)
+			       + "% of the pixels computed, iteration budget "
+			       + result.getFractal().getMaxIteration());
+	    FractalImage fi = imageOf(result.getFractal(), commandLine);
+	    fi.saveFile(result.getDivergenceIndexMatrix());
+	    return fi;
+	}
+	if(commandLine.hasOption("autoIter")){
+	    fractal = IterationBudget.applyTo(fractal);
+	    System.out.println("Iteration budget : "
+			       + fractal.getMaxIteration());
+	}
+	FractalImage fi = imageOf(fractal, commandLine);
+	if(commandLine.hasOption("resume")){
+	    CheckpointRenderer renderer = CheckpointRenderer.of(fractal);
+	    if(renderer.getResumedTiles() > 0)
+		System.out.println("Resuming : " + renderer.getResumedTiles()
+				   + " of " + renderer.getTileCount()
+				   + " tiles already rendered");
+	    long seconds = commandLine.hasOption("preview")
+		? Long.parseLong(commandLine.getOptionValue("preview")) : 0;
+	    int[][] matrix = null;
+	    try {
+		matrix = renderer.render(seconds * 1000);
+	    } catch(IOException e){
+		e.printStackTrace();
+		System.out.println("ERROR WRITING JOURNAL");
+		System.exit(-1);
+	    }
+	    fi.saveFile(matrix);
+	} else if(commandLine.hasOption("keepOrbits")){
+	    fi.saveFileKeepingOrbits();
+	} else if(commandLine.hasOption("autoIter")){
+	    fi.saveFile(IterationBudget.getDivergenceIndexMatrix(fractal));
+	} else {
+	    if(!(fractal instanceof Buddhabrot))
+		System.out.println("Engine : " + RenderEngines.describe(fractal));
+	    fi.saveFile();
+	}
+	return fi;
+    }
+
+    /**
+     * Rejects the options that compute the pixels of the fractal one by one
+     * when it is a Buddhabrot, whose densities are only given by sampling
+     * its orbits
+     */
+    private static void checkPerPixelOptions(Fractal fractal,
+					     CommandLine commandLine){
+	if(!(fractal instanceof Buddhabrot))
+	    return;
+	for(String option : PER_PIXEL_OPTIONS)
+	    if(commandLine.hasOption(option))
+		throw new IllegalArgumentException("-" + option + " cannot "
+						   + "render a Buddhabrot");
+    }
+
+    /**
+     * Returns the image of the fractal with the coloring options of the
+     * command line
+     */
+    private static FractalImage imageOf(Fractal fractal,
+					CommandLine commandLine){
+	int samples = commandLine.hasOption("antiAlias")
+	    ? Integer.parseInt(commandLine.getOptionValue("antiAlias")) : 1;
+	return FractalImage.of(fractal)
+	    .antiAliasing(samples, FractalImage.DEFAULT_THRESHOLD)
+	    .equalized(commandLine.hasOption("equalize"));
+    }
 }
@@ -6,6 +6,16 @@ import fractales.model.*;
 import fractales.model.Fractal.FractalType;
 import fractales.utils.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.awt.image.BufferedImage;
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.geometry.Point2D;
 import javafx.scene.image.*;
 
 /**
@@ -52,6 +62,9 @@ public class Controller {
     // the imaginary part of the beta factor in the iteration function
     @FXML private TextField betaImPartInput;
 
+    // the formula replacing the iteration function
+    @FXML private TextField formulaInput;
+
     // the real part of the complex constant
     @FXML private TextField cstRealPartInput;
 
@@ -105,6 +118,52 @@ public class Controller {
     // the gamma factor for the color function
     @FXML private TextField gammaColorInput;
 
+    // zoom factor applied to the view for each notch of the mouse wheel
+    private static final double ZOOM_PER_NOTCH = 0.8;
+
+    // the fractal explored with the mouse in the image view
+    private Fractal viewedFractal;
+
+    // the view whose frame is displayed and the view requested by the user
+    private View shownView;
+    private View targetView;
+
+    // position of the mouse and requested view when the drag started
+    private Point2D dragOrigin;
+    private View dragView;
+
+    // frame requests, the most recent one is the only one worth rendering
+    private final AtomicLong frameRequest = new AtomicLong();
+    private long shownFrame;
+
+    // renders the frames of the view outside of the JavaFX thread
+    private final ExecutorService frameRenderer =
+	Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "frame-renderer");
+		thread.setDaemon(true);
+		return thread;
+	    });
+
+    // size and maximal iteration of the Julia previews
+    private static final int PREVIEW_SIZE = 160;
+    private static final int PREVIEW_ITERATION = 200;
+
+    // the Julia set of the point clicked in a Mandelbrot view
+    @FXML private ImageView juliaPreview;
+
+    // preview requests, the most recent one is the only one worth rendering
+    private final AtomicLong previewRequest = new AtomicLong();
+
+    // renders the previews on a lane of their own, so that they never wait
+    // behind the frames nor for the threads of the shared pool
+    private final ExecutorService previewRenderer =
+	Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "julia-preview");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		return thread;
+	    });
+
     /**
      * Initializes the state of the view upon launch.
      */
@@ -119,6 +178,7 @@ public class Controller {
 	zoomInButton.setDisable(true);
   zoomZoneSelection.setDisable(true);
 	buildFromFileButton.setOnAction(e -> buildFromFile());
+	initViewer();
     }
 
     /**
@@ -132,6 +192,17 @@ public class Controller {
 	throw new IllegalArgumentException();
     }
 
+    /**
+     * Tries to read a decimal input, keeping all its digits.
+     */
+    private BigDecimal readDecimalInput(TextField decimalInput)
+	throws IllegalArgumentException {
+	Scanner sc = new Scanner(decimalInput.getText());
+	if(sc.hasNextBigDecimal())
+	    return sc.nextBigDecimal();
+	throw new IllegalArgumentException();
+    }
+
     /**
      * Tries to read an int input.
      */
@@ -160,6 +231,30 @@ public class Controller {
 	alert.showAndWait();
     }
 
+    /**
+     * Saves the image of fractalImage, from the specified divergence
+     * indices when they are not null, and shows an alert if it cannot be
+     * written
+     *
+     * @return true if the image was saved
+     */
+    private boolean saveImage(int[][] divMatrix){
+	try {
+	    if(divMatrix != null)
+		fractalImage.saveFile(divMatrix);
+	    else
+		fractalImage.saveFile();
+	    return true;
+	} catch(IOException e){
+	    e.printStackTrace();
+	    Alert alert = new Alert(Alert.AlertType.ERROR);
+	    alert.setContentText("The image cannot be saved :\n"
+				 + e.getMessage());
+	    alert.showAndWait();
+	    return false;
+	}
+    }
+
     /**
      * Builds the Julia fractal.
      */
@@ -187,6 +282,10 @@ public class Controller {
 		.iterationFunction(Complex.of(ar, ai), Complex.of(br, bi));
 	}
 
+	// read the formula if given
+	if(isInputGiven(formulaInput))
+	    builder = builder.formula(Formula.of(formulaInput.getText()));
+
 	// read iteration if given
 	if(isInputGiven(maxIterationInput)){
 	    int i = readIntInput(maxIterationInput);
@@ -208,10 +307,10 @@ public class Controller {
 	   && isInputGiven(xMaxInput)
 	   && isInputGiven(yMinInput)
 	   && isInputGiven(yMaxInput)){
-	    double xMin = readDoubleInput(xMinInput);
+	    BigDecimal xMin = readDecimalInput(xMinInput);
 	    double xMax = readDoubleInput(xMaxInput);
 	    double yMin = readDoubleInput(yMinInput);
-	    double yMax = readDoubleInput(yMaxInput);
+	    BigDecimal yMax = readDecimalInput(yMaxInput);
 	    builder = builder.xMin(xMin).xMax(xMax).yMin(yMin).yMax(yMax);
 	}
 
@@ -250,6 +349,10 @@ public class Controller {
     private Mandelbrot buildMandelbrotFractal() throws IllegalArgumentException {
 	Mandelbrot.Builder builder = new Mandelbrot.Builder();
 
+	// read the formula if given
+	if(isInputGiven(formulaInput))
+	    builder = builder.formula(Formula.of(formulaInput.getText()));
+
 	// read iteration if given
 	if(isInputGiven(maxIterationInput)){
 	    int i = readIntInput(maxIterationInput);
@@ -271,10 +374,10 @@ public class Controller {
 	   && isInputGiven(xMaxInput)
 	   && isInputGiven(yMinInput)
 	   && isInputGiven(yMaxInput)){
-	    double xMin = readDoubleInput(xMinInput);
+	    BigDecimal xMin = readDecimalInput(xMinInput);
 	    double xMax = readDoubleInput(xMaxInput);
 	    double yMin = readDoubleInput(yMinInput);
-	    double yMax = readDoubleInput(yMaxInput);
+	    BigDecimal yMax = readDecimalInput(yMaxInput);
 	    builder = builder.xMin(xMin).xMax(xMax).yMin(yMin).yMax(yMax);
 	}
 
@@ -329,7 +432,8 @@ public class Controller {
 	    buildButton.setDisable(true);
 	    buildFromFileButton.setDisable(true);
 	    fractalImage = FractalImage.of(fractalToBuild);
-	    fractalImage.saveFile(); // saves the png image
+	    if(!saveImage(null)) // saves the png image
+		return;
 	    displayImage(); // displays it onto the screen
 	    zoomInButton.setDisable(false);
       zoomZoneSelection.setDisable(false);
@@ -349,6 +453,290 @@ public class Controller {
 	fractalDisplay.setPreserveRatio(true);
 	fractalDisplay.setFitWidth(1360);
 	fractalDisplay.setFitHeight(1000);
+	resetView(image);
+    }
+
+    /**
+     * Installs the mouse handlers of the image view : dragging pans the
+     * view, the mouse wheel zooms around the cursor and clicking a
+     * Mandelbrot view previews the Julia set of the clicked point.
+     */
+    private void initViewer(){
+	fractalDisplay.setOnMousePressed(e -> {
+		if(viewedFractal == null)
+		    return;
+		dragOrigin = toViewCoordinates(e.getSceneX(), e.getSceneY());
+		dragView = targetView;
+	    });
+	fractalDisplay.setOnMouseDragged(e -> {
+		if(viewedFractal == null || dragOrigin == null)
+		    return;
+		Point2D p = toViewCoordinates(e.getSceneX(), e.getSceneY());
+		requestFrame(dragView.pan(p.getX() - dragOrigin.getX(),
+					  p.getY() - dragOrigin.getY()));
+	    });
+	fractalDisplay.setOnMouseReleased(e -> dragOrigin = null);
+	fractalDisplay.setOnScroll(e -> {
+		if(viewedFractal == null || e.getDeltaY() == 0)
+		    return;
+		Point2D p = toViewCoordinates(e.getSceneX(), e.getSceneY());
+		requestFrame(targetView.zoom(p.getX(), p.getY(),
+					     e.getDeltaY() > 0 ? 1 : -1));
+	    });
+	// warms the preview lane up, so that the first click is as fast as
+	// the following ones
+	previewRenderer.execute(() -> renderPreview(Complex.of(0, 0),
+						    new Mandelbrot.Builder()
+						    .build()));
+	fractalDisplay.setOnMouseClicked(e -> {
+		if(!(viewedFractal instanceof Mandelbrot)
+		   || !e.isStillSincePress())
+		    return;
+		Point2D p = toViewCoordinates(e.getSceneX(), e.getSceneY());
+		requestPreview(Complex.of
+			       (targetView.xMin.doubleValue()
+				+ targetView.step * p.getX(),
+				targetView.yMax.doubleValue()
+				- targetView.step * p.getY()));
+	    });
+    }
+
+    /**
+     * Fills the complex constant inputs with the specified Complex c and
+     * requests the preview of its Julia set, which is displayed beside the
+     * image once rendered.
+     */
+    private void requestPreview(Complex c){
+	cstRealPartInput.setText(Double.toString(c.getRe()));
+	cstImPartInput.setText(Double.toString(c.getIm()));
+	long request = previewRequest.incrementAndGet();
+	Fractal colors = viewedFractal;
+	previewRenderer.execute(() -> {
+		// skips the requests outdated while waiting in the queue
+		if(request != previewRequest.get())
+		    return;
+		BufferedImage preview = renderPreview(c, colors);
+		Platform.runLater(() -> {
+			if(request == previewRequest.get())
+			    juliaPreview.setImage(SwingFXUtils.toFXImage(preview,
+									 null));
+		    });
+	    });
+    }
+
+    /**
+     * Renders the Julia set of constant c over [-1.6, 1.6] x [-1.6, 1.6],
+     * with the colors of the specified Fractal colors, iterated by its
+     * formula if it is a Mandelbrot set with a formula. The preview is
+     * small enough to be iterated in floats on the calling thread, which
+     * is faster than splitting it in tasks of the shared pool, busy with
+     * the frames.
+     */
+    private static BufferedImage renderPreview(Complex c, Fractal colors){
+	double step = 3.2 / (PREVIEW_SIZE - 1);
+	Julia julia = new Julia.Builder()
+	    .complexConstant(c)
+	    .formula(colors instanceof Mandelbrot
+		     ? ((Mandelbrot) colors).getFormula() : null)
+	    .maxIteration(PREVIEW_ITERATION)
+	    .discreteStep(step)
+	    .xMin(-1.6)
+	    .xMax(1.6)
+	    .yMin(-1.6)
+	    .yMax(1.6)
+	    .imageWidth(PREVIEW_SIZE)
+	    .imageHeight(PREVIEW_SIZE)
+	    .colorFunction(colors.getAlphaColor(), colors.getBetaColor(),
+			   colors.getGammaColor())
+	    .build();
+	int[] rgb = new int[PREVIEW_SIZE * PREVIEW_SIZE];
+	for(int j = 0; j < PREVIEW_SIZE; j++){
+	    float im = (float) (1.6 - step * j);
+	    for(int i = 0; i < PREVIEW_SIZE; i++){
+		float re = (float) (-1.6 + step * i);
+		rgb[j * PREVIEW_SIZE + i] = julia.getColorFromDivergenceIndex
+		    (julia.computeDivergence(re, im));
+	    }
+	}
+	BufferedImage img = new BufferedImage(PREVIEW_SIZE, PREVIEW_SIZE,
+					      BufferedImage.TYPE_INT_RGB);
+	img.setRGB(0, 0, PREVIEW_SIZE, PREVIEW_SIZE, rgb, 0, PREVIEW_SIZE);
+	return img;
+    }
+
+    /**
+     * Returns the position of the scene point (x, y) in the pixel grid of
+     * the view, ignoring the transformation of the placeholder frame.
+     */
+    private Point2D toViewCoordinates(double x, double y){
+	Point2D p = fractalDisplay.getParent().sceneToLocal(x, y);
+	return new Point2D(p.getX() - fractalDisplay.getLayoutX(),
+			   p.getY() - fractalDisplay.getLayoutY());
+    }
+
+    /**
+     * Makes the displayed fractal the one explored with the mouse. The
+     * view covers the pixels of the image view, so frames are rendered at
+     * screen resolution whatever the resolution of the saved image.
+     */
+    private void resetView(Image image){
+	viewedFractal = fractalToBuild;
+	double scale = Math.min(fractalDisplay.getFitWidth() / image.getWidth(),
+				fractalDisplay.getFitHeight() / image.getHeight());
+	shownView =
+	    new View(viewedFractal.getPreciseXMin(),
+		     viewedFractal.getPreciseYMax(),
+		     viewedFractal.getDiscreteStep() / scale,
+		     (int) Math.round(image.getWidth() * scale),
+		     (int) Math.round(image.getHeight() * scale));
+	targetView = shownView;
+	shownFrame = frameRequest.incrementAndGet();
+	showPlaceholder();
+    }
+
+    /**
+     * Requests the rendering of the specified view. Until the frame is
+     * ready, the displayed frame is scaled and moved to fit the new view.
+     */
+    private void requestFrame(View view){
+	targetView = view;
+	showPlaceholder();
+	long request = frameRequest.incrementAndGet();
+	Fractal fractal = view.applyTo(viewedFractal);
+	frameRenderer.execute(() -> {
+		// skips the requests outdated while waiting in the queue
+		if(request != frameRequest.get())
+		    return;
+		BufferedImage frame = FractalImage.of(fractal).createImage();
+		Platform.runLater(() -> showFrame(view, frame, request));
+	    });
+    }
+
+    /**
+     * Displays a rendered frame, unless a more recent one is already shown.
+     */
+    private void showFrame(View view, BufferedImage frame, long request){
+	if(request <= shownFrame)
+	    return;
+	shownFrame = request;
+	shownView = view;
+	fractalDisplay.setImage(SwingFXUtils.toFXImage(frame, null));
+	showPlaceholder();
+	xMinInput.setText(view.xMin.toString());
+	xMaxInput.setText(Double.toString(view.xMax()));
+	yMinInput.setText(Double.toString(view.yMin()));
+	yMaxInput.setText(view.yMax.toString());
+    }
+
+    /**
+     * Transforms the displayed frame so that it matches the requested view.
+     * The transformation is the identity once the requested frame is shown.
+     */
+    private void showPlaceholder(){
+	double scale = shownView.step / targetView.step;
+	// image view transformations are relative to its center
+	double cx = shownView.width / 2.0;
+	double cy = shownView.height / 2.0;
+	double x = shownView.xMin.subtract(targetView.xMin).doubleValue()
+	    / targetView.step;
+	double y = targetView.yMax.subtract(shownView.yMax).doubleValue()
+	    / targetView.step;
+	fractalDisplay.setScaleX(scale);
+	fractalDisplay.setScaleY(scale);
+	fractalDisplay.setTranslateX(x - cx + scale * cx);
+	fractalDisplay.setTranslateY(y - cy + scale * cy);
+    }
+
+    // A rectangle of the complex plane mapped onto a grid of pixels :
+    // the pixel (i, j) represents the complex xMin + step * i
+    // + (yMax - step * j) * i. The corner keeps all its digits so that
+    // deep zooms do not drift.
+    // Views keep their corner on the multiples of their step, and their
+    // step is the one of the first view times a power of ZOOM_PER_NOTCH,
+    // so that views panned or zoomed back share the tiles of TileCache.
+    private static class View {
+	final BigDecimal xMin;
+	final BigDecimal yMax;
+	final double baseStep; // step of the first view
+	final int level; // number of notches zoomed in since the first view
+	final double step;
+	final int width;
+	final int height;
+
+	View(BigDecimal xMin, BigDecimal yMax, double step, int width,
+	     int height){
+	    this(xMin, yMax, step, 0, width, height);
+	}
+
+	View(BigDecimal xMin, BigDecimal yMax, double baseStep, int level,
+	     int width, int height){
+	    this.baseStep = baseStep;
+	    this.level = level;
+	    this.step = stepAt(level);
+	    // a few digits below the step are enough, and keep the corner
+	    // from growing with every move
+	    int scale = 10 - (int) Math.floor(Math.log10(step));
+	    this.xMin = snap(xMin).setScale(scale, RoundingMode.HALF_EVEN);
+	    this.yMax = snap(yMax).setScale(scale, RoundingMode.HALF_EVEN);
+	    this.width = width;
+	    this.height = height;
+	}
+
+	// returns the step of the views zoomed in by level notches, rounded
+	// so that zooming in and out again gives back the same step
+	double stepAt(int level){
+	    return new BigDecimal(baseStep * Math.pow(ZOOM_PER_NOTCH, level))
+		.round(new MathContext(12)).doubleValue();
+	}
+
+	// returns the multiple of the step nearest to value
+	BigDecimal snap(BigDecimal value){
+	    BigDecimal s = new BigDecimal(step);
+	    return value.divide(s, 0, RoundingMode.HALF_EVEN).multiply(s);
+	}
+
+	double xMax(){
+	    return xMin.doubleValue() + step * (width - 1);
+	}
+
+	double yMin(){
+	    return yMax.doubleValue() - step * (height - 1);
+	}
+
+	// moves the content of the view by (dx, dy) pixels, rounded to
+	// whole pixels
+	View pan(double dx, double dy){
+	    return new View(xMin.subtract(offset(Math.rint(dx))),
+			    yMax.add(offset(Math.rint(dy))), baseStep, level,
+			    width, height);
+	}
+
+	// zooms in by the specified number of notches, out if negative, the
+	// complex under pixel (x, y) stays under this pixel
+	View zoom(double x, double y, int notches){
+	    BigDecimal shift = new BigDecimal(step - stepAt(level + notches));
+	    return new View(xMin.add(shift.multiply(new BigDecimal(x))),
+			    yMax.subtract(shift.multiply(new BigDecimal(y))),
+			    baseStep, level + notches, width, height);
+	}
+
+	// returns the exact length of the specified number of pixels
+	BigDecimal offset(double pixels){
+	    return new BigDecimal(pixels).multiply(new BigDecimal(step));
+	}
+
+	// returns a copy of the fractal that covers exactly this view
+	Fractal applyTo(Fractal fractal){
+	    return fractal.toBuilder()
+		.xMin(xMin)
+		.xMax(xMax())
+		.yMin(yMin())
+		.yMax(yMax)
+		.discreteStep(step)
+		.imageWidth(width)
+		.imageHeight(height)
+		.build();
+	}
     }
 
     /**
@@ -401,16 +789,23 @@ public class Controller {
     }
 
     /**
-     * Builds a fractal from a text file.
+     * Builds a fractal from a .frac file, or from the text file of the same
+     * name when there is none.
      */
     private void buildFromFile(){
 	buildFromFileButton.setDisable(true);
 	if(isInputGiven(buildFromFileInput)){
-	    String path = "/tmp/" + buildFromFileInput.getText() + ".txt";
-	    fractalToBuild = FractalText.textToImage(path);
+	    String name = buildFromFileInput.getText();
+	    FractalFile file = FractalFile.openIfExists(name);
+	    fractalToBuild = file != null ? file.getFractal()
+		: FractalText.textToImage("/tmp/" + name + ".txt");
 	    if(fractalToBuild != null){
 		fractalImage = FractalImage.of(fractalToBuild);
-		fractalImage.saveFile();
+		if(!saveImage(file != null && file.hasField()
+			       ? file.readMatrix() : null)){
+		    buildFromFileButton.setDisable(false);
+		    return;
+		}
     if(fractalToBuild instanceof Julia){
       lastFractal = "Julia";
     } else{
@@ -480,6 +875,7 @@ public class Controller {
         builder.iterationFunction(((Julia)fractalToBuild).getAlphaFactor(),
 				  ((Julia)fractalToBuild).getBetaFactor());
         builder.complexConstant(((Julia)fractalToBuild).getComplexConstant());
+	builder.formula(((Julia)fractalToBuild).getFormula());
         builder.colorFunction(fractalToBuild.getAlphaColor(),
           fractalToBuild.getBetaColor(), fractalToBuild.getGammaColor());
 
@@ -517,6 +913,7 @@ public class Controller {
       else if (lastFractal.equals("Mandelbrot")){
 
         Mandelbrot.Builder builder = new Mandelbrot.Builder();
+	builder.formula(((Mandelbrot)fractalToBuild).getFormula());
         builder.imageHeight((int)fractalToBuild.getHeight());
         builder.imageWidth((int)fractalToBuild.getWidth());
         builder.fileName(fractalToBuild.getFileName());
@@ -558,7 +955,8 @@ public class Controller {
 	    fractalSelected.setText("Select a fractal to build");
 	    buildButton.setDisable(true);
 	    fractalImage = FractalImage.of(fractalToBuild);
-	    fractalImage.saveFile(); // saves the png image
+	    if(!saveImage(null)) // saves the png image
+		return;
 	    displayImage(); // displays it onto the screen
 	    stateLabel.setText("Image "
 			       + fractalToBuild.getFileName() + " zoomed !");
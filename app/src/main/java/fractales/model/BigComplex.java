@@ -0,0 +1,123 @@
+package fractales.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * This class encapsulates a complex number whose parts are BigDecimal
+ * numbers rounded to a given number of digits after the decimal point,
+ * its scale. Its precision is only bounded by the scale, at the cost of
+ * much slower operations than the other complex numbers.
+ * This class is immutable.
+ */
+public final class BigComplex implements ComplexNumber<BigComplex> {
+
+    /**
+     * The real part of the complex number.
+     */
+    private final BigDecimal re;
+
+    /**
+     * The imaginary part of the complex number.
+     */
+    private final BigDecimal im;
+
+    /**
+     * The number of digits after the decimal point of the parts.
+     */
+    private final int scale;
+
+    // instantiates a new complex number rounded to scale
+    private BigComplex(BigDecimal re, BigDecimal im, int scale){
+	this.re = re.setScale(scale, RoundingMode.HALF_EVEN);
+	this.im = im.setScale(scale, RoundingMode.HALF_EVEN);
+	this.scale = scale;
+    }
+
+    /**
+     * Gets the factory of the complex numbers with the given number of
+     * digits after the decimal point.
+     * @param scale The number of digits after the decimal point.
+     * @return A factory of complex numbers of this class.
+     */
+    public static Factory<BigComplex> factory(int scale){
+	return new Factory<BigComplex>(){
+	    @Override
+	    public BigComplex of(Complex z){
+		return new BigComplex(new BigDecimal(z.getRe()),
+				      new BigDecimal(z.getIm()), scale);
+	    }
+
+	    @Override
+	    public BigComplex of(BigDecimal realPart, BigDecimal imaginaryPart){
+		return new BigComplex(realPart, imaginaryPart, scale);
+	    }
+	};
+    }
+
+    /**
+     * Gets the number of digits after the decimal point of the parts of
+     * this complex number.
+     * @return The scale of this complex number.
+     */
+    public int getScale(){
+	return scale;
+    }
+
+    /**
+     * Gets the real part of this complex number with all its digits.
+     * @return the real part of this complex number.
+     */
+    public BigDecimal getPreciseRe(){
+	return re;
+    }
+
+    /**
+     * Gets the imaginary part of this complex number with all its digits.
+     * @return the imaginary part of this complex number.
+     */
+    public BigDecimal getPreciseIm(){
+	return im;
+    }
+
+    @Override
+    public BigComplex add(BigComplex addend){
+	return new BigComplex(re.add(addend.re), im.add(addend.im), scale);
+    }
+
+    @Override
+    public BigComplex subtract(BigComplex subtrahend){
+	return new BigComplex(re.subtract(subtrahend.re),
+			      im.subtract(subtrahend.im), scale);
+    }
+
+    @Override
+    public BigComplex multiply(BigComplex factor){
+	return new BigComplex(re.multiply(factor.re)
+			      .subtract(im.multiply(factor.im)),
+			      re.multiply(factor.im)
+			      .add(im.multiply(factor.re)), scale);
+    }
+
+    @Override
+    public double modulusSquared(){
+	double a = re.doubleValue();
+	double b = im.doubleValue();
+	return a * a + b * b;
+    }
+
+    @Override
+    public double getRe(){
+	return re.doubleValue();
+    }
+
+    @Override
+    public double getIm(){
+	return im.doubleValue();
+    }
+
+    @Override
+    public String toString(){
+	return re + " " + im;
+    }
+}
@@ -0,0 +1,542 @@
+package fractales.model;
+
+import java.math.BigDecimal;
+import java.awt.Color;
+import fractales.utils.BuddhabrotRenderer;
+
+/**
+ * This class defines the Buddhabrot of the Mandelbrot set : the density of
+ * the orbits z(n+1) = z(n)*z(n) + c of the parameters c that escape, over
+ * the view. The divergence index of a pixel is its density, from 0 for the
+ * pixels no orbit crosses to maxIteration - 1 for the densest ones.
+ */
+public class Buddhabrot implements Fractal {
+
+    // orbits sampled per pixel when the number of samples is not given
+    public static final int SAMPLES_PER_PIXEL = 20;
+
+    // number of parameters c whose orbits are sampled
+    private final long samples;
+
+    // maximal number of iterations of the function
+    private final int maxIteration;
+
+    // working rectangle of the Complex plane
+    private final double xMin;
+    private final double xMax;
+    private final double yMin;
+    private final double yMax;
+
+    // working rectangle corner with all the digits it was given
+    private final BigDecimal preciseXMin;
+    private final BigDecimal preciseYMax;
+
+    // discrete step
+    private final double discreteStep;
+
+    // image height, width and name
+    private final int imageHeight;
+    private final int imageWidth;
+    private final String fileName;
+
+    // factors for the color function
+    private final float alphaColor;
+    private final float betaColor;
+    private final float gammaColor;
+
+    // the fractal type
+    private final FractalType fractalType = FractalType.BUDDHABROT;
+
+    // Constructs from Buddhabrot builder
+    private Buddhabrot(Builder builder){
+	this.samples = builder.samples;
+	this.maxIteration = builder.maxIteration;
+	this.discreteStep = builder.discreteStep;
+	this.xMin = builder.xMin;
+	this.xMax = builder.xMax;
+	this.yMin = builder.yMin;
+	this.yMax = builder.yMax;
+	this.preciseXMin = builder.preciseXMin;
+	this.preciseYMax = builder.preciseYMax;
+	this.imageHeight = builder.imageHeight;
+	this.imageWidth = builder.imageWidth;
+	this.fileName = builder.fileName;
+	this.alphaColor = builder.alphaColor;
+	this.betaColor = builder.betaColor;
+	this.gammaColor = builder.gammaColor;
+    }
+
+    /**
+     * Builder for Buddhabrot class
+     */
+    public static class Builder implements Fractal.Builder {
+
+	// optionnal parameters for Buddhabrot
+	private long samples = 0;
+	private int maxIteration = 1000;
+	private double discreteStep = 0.003;
+	private double xMin = -2;
+	private double xMax = 1;
+	private double yMin = -1;
+	private double yMax = 1;
+	private BigDecimal preciseXMin = null;
+	private BigDecimal preciseYMax = null;
+	private int imageHeight = 0;
+	private int imageWidth = 0;
+	private String fileName = "Buddhabrot";
+	private float alphaColor = 20.0f;
+	private float betaColor = 1.0f;
+	private float gammaColor = 1.0f;
+
+	/**
+	 * Sets the number of parameters c whose orbits are sampled, by
+	 * default SAMPLES_PER_PIXEL times the number of pixels
+	 *
+	 * @param samples The number of sampled orbits
+	 * @return This Builder instance
+	 */
+	public Builder samples(long samples){
+	    this.samples = samples;
+	    return this;
+	}
+
+	/**
+	 * Sets the view, the maximum iteration value and the color function
+	 * of the specified Fractal fractal, so that the Buddhabrot covers
+	 * the image of fractal
+	 *
+	 * @param fractal A fractal
+	 * @return This Builder instance
+	 */
+	public Builder view(Fractal fractal){
+	    return maxIteration(fractal.getMaxIteration())
+		.discreteStep(fractal.getDiscreteStep())
+		.xMin(fractal.getPreciseXMin())
+		.xMax(fractal.getXMax())
+		.yMin(fractal.getYMin())
+		.yMax(fractal.getPreciseYMax())
+		.imageWidth(fractal.getWidth())
+		.imageHeight(fractal.getHeight())
+		.colorFunction(fractal.getAlphaColor(), fractal.getBetaColor(),
+			       fractal.getGammaColor());
+	}
+
+	/**
+	 * Sets the maximum iteration value for the iteration function
+	 *
+	 * @param maxIteration The maximum iteration value
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder maxIteration(int maxIteration){
+	    this.maxIteration = maxIteration;
+	    return this;
+	}
+
+	/**
+	 * Sets the value of the discrete step
+	 *
+	 * @param discreteStep The value of the discrete step
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder discreteStep(double discreteStep){
+	    this.discreteStep = discreteStep;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the minimum real value of a complex number
+	 *
+	 * @param xMin The value for the minimum real value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder xMin(double xMin){
+	    this.xMin = xMin;
+	    this.preciseXMin = null;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the minimum real value of a complex number,
+	 * keeping all its digits
+	 *
+	 * @param xMin The value for the minimum real value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder xMin(BigDecimal xMin){
+	    this.xMin = xMin.doubleValue();
+	    this.preciseXMin = xMin;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the maximum real value of a complex number
+	 *
+	 * @param xMin The value for the maximum real value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder xMax(double xMax){
+	    this.xMax = xMax;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the minimum imaginary value of a complex number
+	 *
+	 * @param xMin The value for the minimum imaginary value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder yMin(double yMin){
+	    this.yMin = yMin;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the maximum imaginary value of a complex number
+	 *
+	 * @param xMin The value for the maximum imaginary value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder yMax(double yMax){
+	    this.yMax = yMax;
+	    this.preciseYMax = null;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the maximum imaginary value of a complex number,
+	 * keeping all its digits
+	 *
+	 * @param yMax The value for the maximum imaginary value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder yMax(BigDecimal yMax){
+	    this.yMax = yMax.doubleValue();
+	    this.preciseYMax = yMax;
+	    return this;
+	}
+
+	/**
+	 * Sets the height of the image that contains the representation of
+	 * the Buddhabrot
+	 *
+	 * @param imageHeight The height of the image
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder imageHeight(int imageHeight){
+	    this.imageHeight = imageHeight;
+	    return this;
+	}
+
+	/**
+	 * Sets the width of the image that contains the representation of
+	 * the Buddhabrot
+	 *
+	 * @param imageWidth The width of the image
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder imageWidth(int imageWidth){
+	    this.imageWidth = imageWidth;
+	    return this;
+	}
+
+	/**
+	 * Sets the name of the file that contains the image of the Buddhabrot
+	 *
+	 * @param fileName The file name
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder fileName(String fileName){
+	    this.fileName = fileName;
+	    return this;
+	}
+
+	/**
+	 * Sets the factors for the color function.
+	 *
+	 * @param alpha First factor.
+	 * @param beta Second factor.
+	 * @param gamma Third factor.
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder colorFunction(float alpha, float beta, float gamma){
+	    this.alphaColor = alpha;
+	    this.betaColor = beta;
+	    this.gammaColor = gamma;
+	    return this;
+	}
+
+	/**
+	 * Builds a Buddhabrot instance from this builder
+	 *
+	 * @return A new Buddhabrot instance
+	 */
+	@Override
+	public Buddhabrot build(){
+	    if(imageHeight <= 0 || imageWidth <= 0){
+		// assigns each point of the discrete plane to a pixel of
+		// the image
+		imageHeight =
+		    (int) ((Math.abs(yMin)+Math.abs(yMax))/discreteStep + 1.0);
+		imageWidth =
+		    (int) ((Math.abs(xMin)+Math.abs(xMax))/discreteStep + 1.0);
+	    }
+	    if(preciseXMin == null)
+		preciseXMin = BigDecimal.valueOf(xMin);
+	    if(preciseYMax == null)
+		preciseYMax = BigDecimal.valueOf(yMax);
+	    if(samples <= 0)
+		samples = (long) SAMPLES_PER_PIXEL * imageWidth * imageHeight;
+	    return new Buddhabrot(this);
+	}
+
+    }
+
+    /**
+     * Samples the orbits of the parameters c and stores the density of
+     * each pixel of the rectangle delimeted by xMin xMax yMin yMax of the
+     * complex plane in a 2D array
+     *
+     * @return A 2D array containing the density of the corresponding
+     * complex number
+     */
+    public int[][] getDivergenceIndexMatrix(){
+	return BuddhabrotRenderer.of(this).render(0);
+    }
+
+    @Override
+    public Symmetry getSymmetry(){
+	// the orbit of the conjugate of c is the conjugate of the orbit of c
+	return Symmetry.REAL_AXIS;
+    }
+
+    /**
+     * Computes the escape time of the orbit of the parameter Complex z,
+     * which is sampled when it escapes before maxIteration
+     *
+     * @param z A Complex number
+     * @return The escape time of the orbit of z
+     */
+    public int computeDivergence(Complex z){
+	int iteration = 0;
+	Complex zn = Complex.getZERO();
+	while(iteration < maxIteration - 1 && zn.modulus() <= Fractal.RADIUS){
+	    // z(n+1) = z(n)*z(n) + z
+	    zn = zn.multiply(zn).add(z);
+	    iteration++;
+	}
+	return iteration;
+    }
+
+    @Override
+    public int computeDivergence(float re, float im){
+	int iteration = 0;
+	float zRe = 0f;
+	float zIm = 0f;
+	float radius = (float) (Fractal.RADIUS * Fractal.RADIUS);
+	while(iteration < maxIteration - 1 && zRe * zRe + zIm * zIm <= radius){
+	    // z(n+1) = z(n)*z(n) + z
+	    float nextRe = zRe * zRe - zIm * zIm + re;
+	    zIm = 2f * zRe * zIm + im;
+	    zRe = nextRe;
+	    iteration++;
+	}
+	return iteration;
+    }
+
+    @Override
+    public <T extends ComplexNumber<T>> int computeDivergence
+	(T z, ComplexNumber.Factory<T> factory){
+	int iteration = 0;
+	T zn = factory.of(Complex.getZERO());
+	while(iteration < maxIteration - 1
+	      && zn.modulusSquared() <= Fractal.RADIUS * Fractal.RADIUS){
+	    zn = zn.multiply(zn).add(z);
+	    iteration++;
+	}
+	return iteration;
+    }
+
+    @Override
+    public double computeDistance(Complex z){
+	int iteration = 0;
+	double zRe = 0;
+	double zIm = 0;
+	double dRe = 0;
+	double dIm = 0;
+	double radius = Fractal.DISTANCE_RADIUS * Fractal.DISTANCE_RADIUS;
+	while(iteration < maxIteration - 1 && zRe * zRe + zIm * zIm <= radius){
+	    // dz(n+1) = 2*z(n)*dz(n) + 1, the derivative with respect to z
+	    double nextDRe = 2 * (zRe * dRe - zIm * dIm) + 1;
+	    dIm = 2 * (zRe * dIm + zIm * dRe);
+	    dRe = nextDRe;
+	    // z(n+1) = z(n)*z(n) + z
+	    double nextRe = zRe * zRe - zIm * zIm + z.getRe();
+	    zIm = 2 * zRe * zIm + z.getIm();
+	    zRe = nextRe;
+	    iteration++;
+	}
+	double modulus = Math.hypot(zRe, zIm);
+	if(modulus <= Fractal.DISTANCE_RADIUS)
+	    return 0;
+	// half of |z(n)| log |z(n)| / |dz(n)|, the Koebe bound
+	return 0.5 * modulus * Math.log(modulus) / Math.hypot(dRe, dIm);
+    }
+
+    @Override
+    public Precision getPrecision(){
+	// the orbits cross the whole disk of radius RADIUS whatever the
+	// view, so they are sampled in doubles
+	return Precision.DOUBLE;
+    }
+
+    @Override
+    public Complex getOrbitStart(Complex z){
+	return Complex.getZERO();
+    }
+
+    @Override
+    public Complex iterate(Complex zn, Complex z){
+	return zn.multiply(zn).add(z);
+    }
+
+    /**
+     * Returns the width of the image that contains this Fractal
+     *
+     * @return The width in pixels of the image
+     */
+    public int getWidth(){
+	return imageWidth;
+    }
+
+    /**
+     * Returns the height of the image that contains this Fractal
+     *
+     * @return The height in pixels of the image
+     */
+    public int getHeight(){
+	return imageHeight;
+    }
+
+    /**
+     * Returns the name of the file that contains the image of this Fractal
+     *
+     * @return The name of the file that contains the image
+     */
+    public String getFileName(){
+	return fileName;
+    }
+
+    /**
+     * Returns the number of parameters c whose orbits are sampled
+     *
+     * @return The number of sampled orbits
+     */
+    public long getSamples(){
+	return samples;
+    }
+
+    /**
+     * Returns an int in RGB format that represents the color associated
+     * to the specified int divergenceIndex : the pixels no orbit crosses
+     * are black, the denser ones are brighter and less saturated, with
+     * the hue alphaColor in degrees
+     *
+     * @param divergenceIndex A divergence index
+     * @return The color associated to the given int divergence index
+     */
+    public int getColorFromDivergenceIndex(int divergenceIndex){
+	float density = (float)divergenceIndex / (float)(maxIteration - 1);
+	return Color
+	    .HSBtoRGB(alphaColor / 360f,
+		      betaColor * (1f - density),
+		      gammaColor * density);
+    }
+
+    @Override
+    public double getDiscreteStep(){
+	return this.discreteStep;
+    }
+
+    @Override
+    public double getXMin(){
+	return this.xMin;
+    }
+
+    @Override
+    public double getXMax(){
+	return this.xMax;
+    }
+
+    @Override
+    public BigDecimal getPreciseXMin(){
+	return this.preciseXMin;
+    }
+
+    @Override
+    public BigDecimal getPreciseYMax(){
+	return this.preciseYMax;
+    }
+
+    @Override
+    public double getYMin(){
+	return this.yMin;
+    }
+
+    @Override
+    public double getYMax(){
+	return this.yMax;
+    }
+
+    @Override
+    public FractalType getFractalType(){
+	return this.fractalType;
+    }
+
+    @Override
+    public int getMaxIteration(){
+	return this.maxIteration;
+    }
+
+    @Override
+    public float getAlphaColor(){
+	return this.alphaColor;
+    }
+
+    @Override
+    public float getBetaColor(){
+	return this.betaColor;
+    }
+
+    @Override
+    public float getGammaColor(){
+	return this.gammaColor;
+    }
+
+    @Override
+    public Builder toBuilder(){
+	return new Builder()
+	    .samples(samples)
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(preciseXMin)
+	    .xMax(xMax)
+	    .yMin(yMin)
+	    .yMax(preciseYMax)
+	    .imageWidth(imageWidth)
+	    .imageHeight(imageHeight)
+	    .fileName(fileName)
+	    .colorFunction(alphaColor, betaColor, gammaColor);
+    }
+}
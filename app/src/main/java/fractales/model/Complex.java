@@ -1,5 +1,6 @@
 package fractales.model;
 
+import java.math.BigDecimal;
 import java.util.Scanner;
 
 /**
@@ -7,8 +8,10 @@ import java.util.Scanner;
  * It admits algebric representation, addition, substraction and multiplication 
  * operations.
  * This class is immutable.
+ * Its parts are doubles, see DoubleDoubleComplex, FixedPointComplex and
+ * BigComplex for more precise complex numbers.
  */
-public final class Complex{
+public final class Complex implements ComplexNumber<Complex> {
 
     /**
      * The real part of the complex number.
@@ -35,6 +38,22 @@ public final class Complex{
      */
     private final static Complex ZERO = new Complex(0.0, 0.0);
 
+    /**
+     * Creates complex numbers of this precision.
+     */
+    private final static Factory<Complex> FACTORY = new Factory<Complex>(){
+	    @Override
+	    public Complex of(Complex z){
+		return z;
+	    }
+
+	    @Override
+	    public Complex of(BigDecimal realPart, BigDecimal imaginaryPart){
+		return new Complex(realPart.doubleValue(),
+				   imaginaryPart.doubleValue());
+	    }
+	};
+
     /**
      * Instantiates a new Complex number.
      * @param re The real part.
@@ -156,6 +175,14 @@ public final class Complex{
 	return Math.sqrt(Math.pow(re, 2.0) + Math.pow(im, 2.0));
     }
 
+    /**
+     * Returns the square of the modulus of this complex number.
+     * @return The square of the modulus of this complex number.
+     */
+    public double modulusSquared(){
+	return re * re + im * im;
+    }
+
     /**
      * Returns the argument of this complex number.
      * @return The argument of this complex number.
@@ -187,4 +214,12 @@ public final class Complex{
     public static Complex getI(){
 	return I;
     }
+
+    /**
+     * Gets the factory of the complex numbers of double precision.
+     * @return The factory of this class.
+     */
+    public static Factory<Complex> factory(){
+	return FACTORY;
+    }
 }
@@ -0,0 +1,82 @@
+package fractales.model;
+
+import java.math.BigDecimal;
+
+/**
+ * This interface defines a complex number of a given precision.
+ * The operations of a complex number only accept numbers of its own
+ * precision, so that a whole orbit is computed with the same precision.
+ *
+ * @param <T> The type of the complex numbers of this precision
+ */
+public interface ComplexNumber<T extends ComplexNumber<T>> {
+
+    /**
+     * This interface defines the creation of the complex numbers of a
+     * given precision
+     *
+     * @param <T> The type of the complex numbers created
+     */
+    interface Factory<T extends ComplexNumber<T>> {
+
+	/**
+	 * Returns the complex number of this precision nearest to Complex z
+	 *
+	 * @param z A Complex number
+	 * @return A complex number equal to z
+	 */
+	T of(Complex z);
+
+	/**
+	 * Returns the complex number of this precision nearest to
+	 * realPart + i * imaginaryPart
+	 *
+	 * @param realPart The real part of the complex number
+	 * @param imaginaryPart The imaginary part of the complex number
+	 * @return A complex number equal to realPart + i * imaginaryPart
+	 */
+	T of(BigDecimal realPart, BigDecimal imaginaryPart);
+    }
+
+    /**
+     * Returns the sum of this complex number and the given complex number addend.
+     * @param addend The complex number to add to this complex number.
+     * @return A new complex number equal to (this + addend)
+     */
+    T add(T addend);
+
+    /**
+     * Returns the substraction of this complex number and the given
+     * complex number subtrahend.
+     * @param subtrahend The second complex number.
+     * @return A new complex number equal to (this - subtrahend)
+     */
+    T subtract(T subtrahend);
+
+    /**
+     * Returns the multiplication of this complex number and the given
+     * complex number factor.
+     * @param factor The second complex number.
+     * @return A new complex number equal to (this * factor)
+     */
+    T multiply(T factor);
+
+    /**
+     * Returns the square of the modulus of this complex number, rounded
+     * to a double.
+     * @return The square of the modulus of this complex number.
+     */
+    double modulusSquared();
+
+    /**
+     * Gets the real part of this complex number, rounded to a double.
+     * @return the real part of this complex number.
+     */
+    double getRe();
+
+    /**
+     * Gets the imaginary part of this complex number, rounded to a double.
+     * @return the imaginary part of this complex number.
+     */
+    double getIm();
+}
@@ -0,0 +1,140 @@
+package fractales.model;
+
+import java.math.BigDecimal;
+
+/**
+ * This class encapsulates a complex number whose parts are double-double
+ * numbers : each part is the unevaluated sum of two doubles, the second
+ * holding the rounding error of the first, which gives about 32 significant
+ * digits.
+ * This class is immutable.
+ */
+public final class DoubleDoubleComplex
+    implements ComplexNumber<DoubleDoubleComplex> {
+
+    /**
+     * The real part of the complex number.
+     */
+    private final DoubleDouble re;
+
+    /**
+     * The imaginary part of the complex number.
+     */
+    private final DoubleDouble im;
+
+    /**
+     * Creates complex numbers of this precision.
+     */
+    private final static Factory<DoubleDoubleComplex> FACTORY =
+	new Factory<DoubleDoubleComplex>(){
+	    @Override
+	    public DoubleDoubleComplex of(Complex z){
+		return new DoubleDoubleComplex(new DoubleDouble(z.getRe(), 0.0),
+					       new DoubleDouble(z.getIm(), 0.0));
+	    }
+
+	    @Override
+	    public DoubleDoubleComplex of(BigDecimal realPart,
+					  BigDecimal imaginaryPart){
+		return new DoubleDoubleComplex(DoubleDouble.of(realPart),
+					       DoubleDouble.of(imaginaryPart));
+	    }
+	};
+
+    // instantiates a new complex number
+    private DoubleDoubleComplex(DoubleDouble re, DoubleDouble im){
+	this.re = re;
+	this.im = im;
+    }
+
+    /**
+     * Gets the factory of the complex numbers of double-double precision.
+     * @return The factory of this class.
+     */
+    public static Factory<DoubleDoubleComplex> factory(){
+	return FACTORY;
+    }
+
+    @Override
+    public DoubleDoubleComplex add(DoubleDoubleComplex addend){
+	return new DoubleDoubleComplex(re.add(addend.re), im.add(addend.im));
+    }
+
+    @Override
+    public DoubleDoubleComplex subtract(DoubleDoubleComplex subtrahend){
+	return new DoubleDoubleComplex(re.add(subtrahend.re.negate()),
+				       im.add(subtrahend.im.negate()));
+    }
+
+    @Override
+    public DoubleDoubleComplex multiply(DoubleDoubleComplex factor){
+	return new DoubleDoubleComplex
+	    (re.multiply(factor.re).add(im.multiply(factor.im).negate()),
+	     re.multiply(factor.im).add(im.multiply(factor.re)));
+    }
+
+    @Override
+    public double modulusSquared(){
+	return re.hi * re.hi + im.hi * im.hi;
+    }
+
+    @Override
+    public double getRe(){
+	return re.hi;
+    }
+
+    @Override
+    public double getIm(){
+	return im.hi;
+    }
+
+    @Override
+    public String toString(){
+	return new BigDecimal(re.hi).add(new BigDecimal(re.lo)) + " "
+	    + new BigDecimal(im.hi).add(new BigDecimal(im.lo));
+    }
+
+    // a double-double number, hi + lo with |lo| <= ulp(hi) / 2
+    private static final class DoubleDouble {
+	final double hi;
+	final double lo;
+
+	DoubleDouble(double hi, double lo){
+	    this.hi = hi;
+	    this.lo = lo;
+	}
+
+	// returns the double-double nearest to x
+	static DoubleDouble of(BigDecimal x){
+	    double hi = x.doubleValue();
+	    double lo = x.subtract(new BigDecimal(hi)).doubleValue();
+	    return normalize(hi, lo);
+	}
+
+	// returns hi + lo with the error of the sum moved into lo, given
+	// |hi| >= |lo|
+	static DoubleDouble normalize(double hi, double lo){
+	    double s = hi + lo;
+	    return new DoubleDouble(s, lo - (s - hi));
+	}
+
+	DoubleDouble negate(){
+	    return new DoubleDouble(-hi, -lo);
+	}
+
+	DoubleDouble add(DoubleDouble addend){
+	    // exact sum of the high parts (two-sum)
+	    double s = hi + addend.hi;
+	    double v = s - hi;
+	    double e = (hi - (s - v)) + (addend.hi - v);
+	    return normalize(s, e + lo + addend.lo);
+	}
+
+	DoubleDouble multiply(DoubleDouble factor){
+	    // exact product of the high parts, the error is given by fma
+	    double p = hi * factor.hi;
+	    double e = Math.fma(hi, factor.hi, -p);
+	    return normalize(p, e + hi * factor.lo + lo * factor.hi);
+	}
+    }
+}
@@ -0,0 +1,201 @@
+package fractales.model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * This class encapsulates a complex number whose parts are 128-bit fixed
+ * point numbers held in two longs : 7 bits for the integer part and 120
+ * bits for the fractional part. Parts are thus exact to about 1e-36 but
+ * must stay below 128 in absolute value.
+ * This class is immutable.
+ */
+public final class FixedPointComplex
+    implements ComplexNumber<FixedPointComplex> {
+
+    /**
+     * Number of bits of the fractional part.
+     */
+    public static final int FRACTION_BITS = 120;
+
+    /**
+     * Bound of the absolute value of the parts.
+     */
+    public static final double RANGE = 128.0;
+
+    /**
+     * The real part of the complex number.
+     */
+    private final Fixed re;
+
+    /**
+     * The imaginary part of the complex number.
+     */
+    private final Fixed im;
+
+    /**
+     * Creates complex numbers of this precision.
+     */
+    private final static Factory<FixedPointComplex> FACTORY =
+	new Factory<FixedPointComplex>(){
+	    @Override
+	    public FixedPointComplex of(Complex z){
+		return new FixedPointComplex(Fixed.of(new BigDecimal(z.getRe())),
+					     Fixed.of(new BigDecimal(z.getIm())));
+	    }
+
+	    @Override
+	    public FixedPointComplex of(BigDecimal realPart,
+					BigDecimal imaginaryPart){
+		return new FixedPointComplex(Fixed.of(realPart),
+					     Fixed.of(imaginaryPart));
+	    }
+	};
+
+    // instantiates a new complex number
+    private FixedPointComplex(Fixed re, Fixed im){
+	this.re = re;
+	this.im = im;
+    }
+
+    /**
+     * Gets the factory of the complex numbers of fixed point precision.
+     * @return The factory of this class.
+     */
+    public static Factory<FixedPointComplex> factory(){
+	return FACTORY;
+    }
+
+    @Override
+    public FixedPointComplex add(FixedPointComplex addend){
+	return new FixedPointComplex(re.add(addend.re), im.add(addend.im));
+    }
+
+    @Override
+    public FixedPointComplex subtract(FixedPointComplex subtrahend){
+	return new FixedPointComplex(re.add(subtrahend.re.negate()),
+				     im.add(subtrahend.im.negate()));
+    }
+
+    @Override
+    public FixedPointComplex multiply(FixedPointComplex factor){
+	return new FixedPointComplex
+	    (re.multiply(factor.re).add(im.multiply(factor.im).negate()),
+	     re.multiply(factor.im).add(im.multiply(factor.re)));
+    }
+
+    @Override
+    public double modulusSquared(){
+	double a = re.doubleValue();
+	double b = im.doubleValue();
+	return a * a + b * b;
+    }
+
+    @Override
+    public double getRe(){
+	return re.doubleValue();
+    }
+
+    @Override
+    public double getIm(){
+	return im.doubleValue();
+    }
+
+    @Override
+    public String toString(){
+	return re.bigDecimalValue() + " " + im.bigDecimalValue();
+    }
+
+    // a signed 128-bit fixed point number, hi and lo being the high and
+    // low words of its two's complement
+    private static final class Fixed {
+	final long hi;
+	final long lo;
+
+	Fixed(long hi, long lo){
+	    this.hi = hi;
+	    this.lo = lo;
+	}
+
+	// returns the fixed point number nearest to x
+	static Fixed of(BigDecimal x){
+	    BigInteger bits = x.multiply(new BigDecimal(BigInteger.ONE
+							.shiftLeft(FRACTION_BITS)))
+		.setScale(0, RoundingMode.HALF_EVEN).toBigInteger();
+	    return new Fixed(bits.shiftRight(64).longValue(), bits.longValue());
+	}
+
+	BigDecimal bigDecimalValue(){
+	    BigInteger bits = BigInteger.valueOf(hi).shiftLeft(64)
+		.or(new BigInteger(Long.toUnsignedString(lo)));
+	    return new BigDecimal(bits)
+		.divide(new BigDecimal(BigInteger.ONE.shiftLeft(FRACTION_BITS)));
+	}
+
+	double doubleValue(){
+	    // the low word is unsigned
+	    double low = (double) (lo >>> 1) * 2.0 + (lo & 1);
+	    return Math.scalb((double) hi, 64 - FRACTION_BITS)
+		+ Math.scalb(low, -FRACTION_BITS);
+	}
+
+	boolean isNegative(){
+	    return hi < 0;
+	}
+
+	Fixed negate(){
+	    long l = ~lo + 1;
+	    return new Fixed(~hi + (l == 0 ? 1 : 0), l);
+	}
+
+	Fixed add(Fixed addend){
+	    long l = lo + addend.lo;
+	    long carry = Long.compareUnsigned(l, lo) < 0 ? 1 : 0;
+	    return new Fixed(hi + addend.hi + carry, l);
+	}
+
+	Fixed multiply(Fixed factor){
+	    boolean negative = isNegative() != factor.isNegative();
+	    Fixed a = isNegative() ? negate() : this;
+	    Fixed b = factor.isNegative() ? factor.negate() : factor;
+
+	    // words w1, w2 and w3 of the 256-bit product of the magnitudes,
+	    // w0 is only needed for rounding
+	    long ll = unsignedMultiplyHigh(a.lo, b.lo);
+	    long lhLo = a.lo * b.hi;
+	    long lhHi = unsignedMultiplyHigh(a.lo, b.hi);
+	    long hlLo = a.hi * b.lo;
+	    long hlHi = unsignedMultiplyHigh(a.hi, b.lo);
+	    long hhLo = a.hi * b.hi;
+	    long hhHi = unsignedMultiplyHigh(a.hi, b.hi);
+
+	    long w1 = ll + lhLo;
+	    long carry = Long.compareUnsigned(w1, ll) < 0 ? 1 : 0;
+	    long sum = w1 + hlLo;
+	    carry += Long.compareUnsigned(sum, w1) < 0 ? 1 : 0;
+	    w1 = sum;
+
+	    long w2 = lhHi + carry;
+	    long w3 = Long.compareUnsigned(w2, lhHi) < 0 ? 1 : 0;
+	    sum = w2 + hlHi;
+	    w3 += Long.compareUnsigned(sum, w2) < 0 ? 1 : 0;
+	    w2 = sum;
+	    sum = w2 + hhLo;
+	    w3 += Long.compareUnsigned(sum, w2) < 0 ? 1 : 0;
+	    w2 = sum;
+	    w3 += hhHi;
+
+	    // the product has 2 * FRACTION_BITS fractional bits
+	    int shift = FRACTION_BITS - 64;
+	    Fixed product = new Fixed((w3 << (64 - shift)) | (w2 >>> shift),
+				      (w2 << (64 - shift)) | (w1 >>> shift));
+	    return negative ? product.negate() : product;
+	}
+
+	// the high word of the unsigned product of x and y
+	static long unsignedMultiplyHigh(long x, long y){
+	    return Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+	}
+    }
+}
@@ -0,0 +1,488 @@
+package fractales.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * This class represents an iteration function f(z, c) written as a
+ * formula, such as "z^3 + c" or "(abs(re(z)) + i * abs(im(z)))^2 + c".
+ * A formula is made of the variables z and c, the imaginary unit i, real
+ * numbers, the operators +, -, *, / and ^ followed by an integer, the
+ * parentheses and the functions re, im, abs and conj.
+ * The formula is translated into Java code working on the real and
+ * imaginary parts of the numbers as primitive doubles, compiled once, and
+ * loaded as a hidden class, so that it runs as fast as a hand-written
+ * kernel instead of being interpreted for each iteration.
+ */
+public final class Formula {
+
+    // types of the compiled methods, the first one iterating the formula
+    // from z until it escapes, the second one replacing z = { re, im } by
+    // its image
+    private static final MethodType KERNEL_TYPE =
+	MethodType.methodType(int.class, double.class, double.class,
+			      double.class, double.class, int.class);
+    private static final MethodType STEP_TYPE =
+	MethodType.methodType(void.class, double[].class, double.class,
+			      double.class);
+
+    // formulas already compiled, by source
+    private static final Map<String, Formula> COMPILED =
+	new ConcurrentHashMap<>();
+
+    // the formula and its compiled methods
+    private final String source;
+    private final MethodHandle kernel;
+    private final MethodHandle step;
+
+    // instantiates a compiled formula
+    private Formula(String source, MethodHandle kernel, MethodHandle step){
+	this.source = source;
+	this.kernel = kernel;
+	this.step = step;
+    }
+
+    /**
+     * Returns the compiled formula of the specified source. The blanks of
+     * source are ignored, and a formula is compiled only once.
+     *
+     * @param source The formula in z and c
+     * @return The compiled formula
+     * @throws IllegalArgumentException if source is not a valid formula
+     * @throws IllegalStateException if the runtime has no Java compiler
+     */
+    public static Formula of(String source){
+	return COMPILED.computeIfAbsent(source.replaceAll("\\s+", ""),
+					Formula::compile);
+    }
+
+    /**
+     * Computes the divergence index of the orbit of z by this formula with
+     * the parameter c, that is the number of iterations before the
+     * modulus of the orbit exceeds Fractal.RADIUS, at most
+     * maxIteration - 1
+     *
+     * @param zRe The real part of the first term of the orbit
+     * @param zIm The imaginary part of the first term of the orbit
+     * @param cRe The real part of c
+     * @param cIm The imaginary part of c
+     * @param maxIteration The maximal number of iterations
+     * @return The divergence index of z
+     */
+    public int computeDivergence(double zRe, double zIm, double cRe,
+				 double cIm, int maxIteration){
+	try {
+	    // the loop runs in the compiled method, called once per orbit
+	    return (int) kernel.invokeExact(zRe, zIm, cRe, cIm, maxIteration);
+	} catch(RuntimeException | Error e){
+	    throw e;
+	} catch(Throwable e){
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    /**
+     * Returns the image of Complex z by this formula with the parameter c
+     *
+     * @param z A Complex number
+     * @param c The parameter of the formula
+     * @return f(z, c)
+     */
+    public Complex iterate(Complex z, Complex c){
+	double[] zn = { z.getRe(), z.getIm() };
+	try {
+	    step.invokeExact(zn, c.getRe(), c.getIm());
+	} catch(RuntimeException | Error e){
+	    throw e;
+	} catch(Throwable e){
+	    throw new IllegalStateException(e);
+	}
+	return Complex.of(zn[0], zn[1]);
+    }
+
+    /**
+     * Returns the source of this formula, without blanks
+     *
+     * @return The source of this formula
+     */
+    public String getSource(){
+	return source;
+    }
+
+    @Override
+    public String toString(){
+	return source;
+    }
+
+    // parses source and loads the compiled class of its methods
+    private static Formula compile(String source){
+	Parser parser = new Parser(source);
+	Value value = parser.parse();
+	String body = parser.code.toString();
+	String re = value.re == null ? "0.0" : value.re;
+	String im = value.im == null ? "0.0" : value.im;
+	String radius = Double.toString(Fractal.RADIUS * Fractal.RADIUS);
+	String code =
+	    "package fractales.model;\n"
+	    + "final class FormulaKernel {\n"
+	    + "static int computeDivergence(double zRe, double zIm,"
+	    + " double cRe, double cIm, int maxIteration){\n"
+	    + "int iteration = 0;\n"
+	    + "while(iteration < maxIteration - 1"
+	    + " && zRe * zRe + zIm * zIm <= " + radius + "){\n"
+	    + body
+	    + "double nextRe = " + re + ";\n"
+	    + "double nextIm = " + im + ";\n"
+	    + "zRe = nextRe;\n"
+	    + "zIm = nextIm;\n"
+	    + "iteration++;\n"
+	    + "}\n"
+	    + "return iteration;\n"
+	    + "}\n"
+	    + "static void iterate(double[] z, double cRe, double cIm){\n"
+	    + "double zRe = z[0];\n"
+	    + "double zIm = z[1];\n"
+	    + body
+	    + "z[0] = " + re + ";\n"
+	    + "z[1] = " + im + ";\n"
+	    + "}\n"
+	    + "}\n";
+	try {
+	    // the hidden class can only be reached by its lookup, so that
+	    // every formula has its own class of the same name
+	    MethodHandles.Lookup lookup = MethodHandles.lookup()
+		.defineHiddenClass(compileClass(code), true);
+	    return new Formula(source,
+			       lookup.findStatic(lookup.lookupClass(),
+						 "computeDivergence",
+						 KERNEL_TYPE),
+			       lookup.findStatic(lookup.lookupClass(), "iterate",
+						 STEP_TYPE));
+	} catch(ReflectiveOperationException e){
+	    throw new IllegalStateException("Cannot load the formula "
+					    + source, e);
+	}
+    }
+
+    // compiles the code of a class in memory and returns its bytes
+    private static byte[] compileClass(String code){
+	JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+	if(compiler == null)
+	    throw new IllegalStateException("Formulas need a Java compiler, "
+					    + "run the application with a JDK");
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DiagnosticCollector<JavaFileObject> diagnostics =
+	    new DiagnosticCollector<>();
+	JavaFileManager manager = new ForwardingJavaFileManager<JavaFileManager>
+	    (compiler.getStandardFileManager(diagnostics, null, null)){
+		@Override
+		public JavaFileObject getJavaFileForOutput
+		    (Location location, String className, JavaFileObject.Kind kind,
+		     FileObject sibling){
+		    return new SimpleJavaFileObject
+			(URI.create("bytes:///" + className.replace('.', '/')
+				    + kind.extension), kind){
+			    @Override
+			    public OutputStream openOutputStream(){
+				return bytes;
+			    }
+			};
+		}
+	    };
+	JavaFileObject file = new SimpleJavaFileObject
+	    (URI.create("string:///fractales/model/FormulaKernel.java"),
+	     JavaFileObject.Kind.SOURCE){
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors){
+		    return code;
+		}
+	    };
+	boolean compiled = compiler.getTask(null, manager, diagnostics,
+					    List.of("-g:none", "-proc:none"),
+					    null, List.of(file)).call();
+	if(!compiled)
+	    throw new IllegalStateException("Cannot compile the formula : "
+					    + diagnostics.getDiagnostics());
+	return bytes.toByteArray();
+    }
+
+    // the real and imaginary parts of a complex number, as a variable or a
+    // literal, possibly negated, null for a part known to be zero
+    private static final class Value {
+	final String re;
+	final String im;
+
+	Value(String re, String im){
+	    this.re = re;
+	    this.im = im;
+	}
+    }
+
+    // parses a formula by recursive descent, writing the code that
+    // computes each of its terms into local variables
+    private static final class Parser {
+	final String source;
+	final StringBuilder code = new StringBuilder();
+	int position;
+	int variables;
+
+	Parser(String source){
+	    this.source = source;
+	}
+
+	Value parse(){
+	    Value value = sum();
+	    if(position < source.length())
+		throw error();
+	    return value;
+	}
+
+	// sum := product (('+' | '-') product)*
+	Value sum(){
+	    Value value = product();
+	    while(position < source.length()){
+		char op = source.charAt(position);
+		if(op != '+' && op != '-')
+		    break;
+		position++;
+		Value right = product();
+		value = op == '+'
+		    ? new Value(local(add(value.re, right.re)),
+				local(add(value.im, right.im)))
+		    : new Value(local(subtract(value.re, right.re)),
+				local(subtract(value.im, right.im)));
+	    }
+	    return value;
+	}
+
+	// product := unary (('*' | '/') unary)*
+	Value product(){
+	    Value value = unary();
+	    while(position < source.length()){
+		char op = source.charAt(position);
+		if(op != '*' && op != '/')
+		    break;
+		position++;
+		Value right = unary();
+		value = op == '*' ? multiply(value, right)
+		    : divide(value, right);
+	    }
+	    return value;
+	}
+
+	// unary := '-' unary | power
+	Value unary(){
+	    if(accept('-')){
+		Value value = unary();
+		return new Value(negate(value.re), negate(value.im));
+	    }
+	    return power();
+	}
+
+	// power := primary ('^' '-'? integer)?
+	Value power(){
+	    Value value = primary();
+	    if(!accept('^'))
+		return value;
+	    boolean negative = accept('-');
+	    int start = position;
+	    while(position < source.length()
+		  && Character.isDigit(source.charAt(position)))
+		position++;
+	    if(start == position)
+		throw error();
+	    int n = Integer.parseInt(source.substring(start, position));
+	    // binary exponentiation, unrolled
+	    Value result = new Value("1.0", null);
+	    boolean one = true;
+	    for(Value base = value; n > 0; n >>= 1){
+		if((n & 1) != 0){
+		    result = one ? base : multiply(result, base);
+		    one = false;
+		}
+		if(n > 1)
+		    base = square(base);
+	    }
+	    return negative ? divide(new Value("1.0", null), result) : result;
+	}
+
+	// primary := number | 'z' | 'c' | 'i' | function '(' sum ')'
+	//          | '(' sum ')'
+	Value primary(){
+	    if(accept('(')){
+		Value value = sum();
+		expect(')');
+		return value;
+	    }
+	    int start = position;
+	    if(position < source.length()
+	       && (Character.isDigit(source.charAt(position))
+		   || source.charAt(position) == '.')){
+		while(position < source.length()
+		      && (Character.isDigit(source.charAt(position))
+			  || source.charAt(position) == '.'))
+		    position++;
+		try {
+		    return new Value(Double.toString
+				     (Double.parseDouble
+				      (source.substring(start, position))), null);
+		} catch(NumberFormatException e){
+		    position = start;
+		    throw error();
+		}
+	    }
+	    while(position < source.length()
+		  && Character.isLetter(source.charAt(position)))
+		position++;
+	    String name = source.substring(start, position);
+	    switch(name){
+	    case "z":
+		return new Value("zRe", "zIm");
+	    case "c":
+		return new Value("cRe", "cIm");
+	    case "i":
+		return new Value(null, "1.0");
+	    case "re":
+	    case "im":
+	    case "abs":
+	    case "conj":
+		expect('(');
+		Value value = sum();
+		expect(')');
+		return function(name, value);
+	    default:
+		position = start;
+		throw error();
+	    }
+	}
+
+	Value function(String name, Value value){
+	    switch(name){
+	    case "re":
+		return new Value(value.re, null);
+	    case "im":
+		return new Value(value.im, null);
+	    case "conj":
+		return new Value(value.re, negate(value.im));
+	    default:
+		if(value.re == null && value.im == null)
+		    return value;
+		if(value.im == null)
+		    return new Value(local("Math.abs(" + value.re + ")"), null);
+		if(value.re == null)
+		    return new Value(local("Math.abs(" + value.im + ")"), null);
+		return new Value(local("Math.sqrt(" + value.re + " * " + value.re
+				       + " + " + value.im + " * " + value.im
+				       + ")"), null);
+	    }
+	}
+
+	Value multiply(Value a, Value b){
+	    String re = subtract(times(a.re, b.re), times(a.im, b.im));
+	    String im = add(times(a.re, b.im), times(a.im, b.re));
+	    return new Value(local(re), local(im));
+	}
+
+	Value square(Value a){
+	    String re = subtract(times(a.re, a.re), times(a.im, a.im));
+	    String im = a.re == null || a.im == null ? null
+		: "2.0 * " + a.re + " * " + a.im;
+	    return new Value(local(re), local(im));
+	}
+
+	Value divide(Value a, Value b){
+	    if(b.re == null && b.im == null)
+		throw new IllegalArgumentException("Division by zero in the "
+						   + "formula " + source);
+	    if(b.im == null)
+		return new Value(local(over(a.re, b.re)),
+				 local(over(a.im, b.re)));
+	    // a * conj(b) / |b|^2
+	    String d = local(add(times(b.re, b.re), times(b.im, b.im)));
+	    String re = local(add(times(a.re, b.re), times(a.im, b.im)));
+	    String im = local(subtract(times(a.im, b.re), times(a.re, b.im)));
+	    return new Value(local(over(re, d)), local(over(im, d)));
+	}
+
+	// the operations on the parts, null standing for zero
+
+	static String add(String a, String b){
+	    if(a == null)
+		return b;
+	    if(b == null)
+		return a;
+	    return a + " + " + b;
+	}
+
+	static String subtract(String a, String b){
+	    if(b == null)
+		return a;
+	    if(a == null)
+		return negate(b);
+	    return a + " - " + b;
+	}
+
+	static String negate(String a){
+	    if(a == null)
+		return null;
+	    return a.startsWith("-") ? a.substring(1) : "-" + a;
+	}
+
+	static String times(String a, String b){
+	    return a == null || b == null ? null : a + " * " + b;
+	}
+
+	static String over(String a, String b){
+	    return a == null ? null : a + " / " + b;
+	}
+
+	// stores the expression in a new local variable and returns its
+	// name, or returns the expression itself when it is null or a
+	// variable or a literal
+	String local(String expression){
+	    if(expression == null || expression.matches("-?[\\w.]+(E-?\\d+)?"))
+		return expression;
+	    String name = "t" + variables++;
+	    code.append("double ").append(name).append(" = ")
+		.append(expression).append(";\n");
+	    return name;
+	}
+
+	boolean accept(char c){
+	    if(position < source.length() && source.charAt(position) == c){
+		position++;
+		return true;
+	    }
+	    return false;
+	}
+
+	void expect(char c){
+	    if(!accept(c))
+		throw error();
+	}
+
+	IllegalArgumentException error(){
+	    if(position >= source.length())
+		return new IllegalArgumentException("Unexpected end of the "
+						    + "formula " + source);
+	    return new IllegalArgumentException
+		("Unexpected '" + source.charAt(position) + "' at position "
+		 + (position + 1) + " of the formula " + source);
+	}
+    }
+}
@@ -1,12 +1,227 @@
 package fractales.model;
 
+import java.math.BigDecimal;
+
 /**
  * This interface defines a Fractal object.
  */
 public interface Fractal {
 
     public enum FractalType {
-	JULIA, MANDELBROT;
+	JULIA, MANDELBROT, BUDDHABROT;
+    }
+
+    /**
+     * Symmetries of the divergence index over the complex plane
+     */
+    public enum Symmetry {
+	// no known symmetry
+	NONE,
+	// z and its conjugate have the same divergence index
+	REAL_AXIS,
+	// z and -z have the same divergence index
+	ORIGIN;
+    }
+
+    /**
+     * Precisions in which orbits can be computed, from the cheapest to
+     * the most expensive
+     */
+    public enum Precision {
+	// primitive floats, about 7 significant digits
+	FLOAT,
+	// Complex, about 16 significant digits
+	DOUBLE,
+	// DoubleDoubleComplex, about 32 significant digits
+	DOUBLE_DOUBLE,
+	// FixedPointComplex, exact to about 1e-36 below 128
+	FIXED_POINT,
+	// BigComplex, as many digits as the discrete step requires
+	BIG_DECIMAL;
+
+	// smallest step relative to the view that each precision resolves,
+	// leaving some digits for the errors that add up along the orbits
+	private static final double FLOAT_STEP = 1e-4;
+	private static final double DOUBLE_STEP = 1e-12;
+	private static final double DOUBLE_DOUBLE_STEP = 1e-27;
+	private static final double FIXED_POINT_STEP = 1e-31;
+
+	// digits kept after those of the discrete step by BigComplex
+	private static final int EXTRA_DIGITS = 20;
+
+	/**
+	 * Returns the cheapest precision in which the pixels of the
+	 * specified Fractal fractal can be told apart. The step is compared
+	 * to the magnitude of the center of the view, or to 1 near the
+	 * origin since orbits reach the escape radius anyway.
+	 *
+	 * @param fractal A fractal
+	 * @param orbitBound The largest modulus the orbits of fractal reach
+	 * before they are known to diverge
+	 * @return The precision needed to compute fractal
+	 */
+	public static Precision of(Fractal fractal, double orbitBound){
+	    double step = fractal.getDiscreteStep();
+	    double re = fractal.getXMin() + step * (fractal.getWidth() - 1) / 2;
+	    double im = fractal.getYMax() - step * (fractal.getHeight() - 1) / 2;
+	    double magnitude = Math.max(1.0, Math.max(Math.abs(re), Math.abs(im)));
+	    if(step >= FLOAT_STEP * magnitude)
+		return FLOAT;
+	    if(step >= DOUBLE_STEP * magnitude)
+		return DOUBLE;
+	    if(step >= DOUBLE_DOUBLE_STEP * magnitude)
+		return DOUBLE_DOUBLE;
+	    if(step >= FIXED_POINT_STEP * magnitude
+	       && orbitBound < FixedPointComplex.RANGE / 2)
+		return FIXED_POINT;
+	    return BIG_DECIMAL;
+	}
+
+	/**
+	 * Returns true if this precision is finer than the one of doubles
+	 *
+	 * @return true if orbits of this precision are computed with
+	 * ComplexNumber instances other than Complex
+	 */
+	public boolean isExtended(){
+	    return compareTo(DOUBLE) > 0;
+	}
+
+	/**
+	 * Returns the factory of the complex numbers of this precision for
+	 * the specified discrete step. Floats have no complex numbers, they
+	 * share the factory of doubles
+	 *
+	 * @param discreteStep The discrete step of the view to compute
+	 * @return A factory of complex numbers
+	 */
+	public ComplexNumber.Factory<?> factory(double discreteStep){
+	    switch(this){
+	    case DOUBLE_DOUBLE:
+		return DoubleDoubleComplex.factory();
+	    case FIXED_POINT:
+		return FixedPointComplex.factory();
+	    case BIG_DECIMAL:
+		return BigComplex.factory
+		    ((int) Math.ceil(-Math.log10(discreteStep)) + EXTRA_DIGITS);
+	    default:
+		return Complex.factory();
+	    }
+	}
+    }
+
+    /**
+     * This interface defines the parameters shared by the builders of
+     * every Fractal
+     */
+    interface Builder {
+
+	/**
+	 * Sets the maximum iteration value for the iteration function
+	 *
+	 * @param maxIteration The maximum iteration value
+	 * @return This Builder instance
+	 */
+	Builder maxIteration(int maxIteration);
+
+	/**
+	 * Sets the value of the discrete step
+	 *
+	 * @param discreteStep The value of the discrete step
+	 * @return This Builder instance
+	 */
+	Builder discreteStep(double discreteStep);
+
+	/**
+	 * Sets the minimal value along the x-axis
+	 *
+	 * @param xMin The minimal value along the x-axis
+	 * @return This Builder instance
+	 */
+	Builder xMin(double xMin);
+
+	/**
+	 * Sets the maximal value along the x-axis
+	 *
+	 * @param xMax The maximal value along the x-axis
+	 * @return This Builder instance
+	 */
+	Builder xMax(double xMax);
+
+	/**
+	 * Sets the minimal value along the y-axis
+	 *
+	 * @param yMin The minimal value along the y-axis
+	 * @return This Builder instance
+	 */
+	Builder yMin(double yMin);
+
+	/**
+	 * Sets the maximal value along the y-axis
+	 *
+	 * @param yMax The maximal value along the y-axis
+	 * @return This Builder instance
+	 */
+	Builder yMax(double yMax);
+
+	/**
+	 * Sets the minimal value along the x-axis, keeping all the digits of
+	 * the given value for the computations that need them
+	 *
+	 * @param xMin The minimal value along the x-axis
+	 * @return This Builder instance
+	 */
+	Builder xMin(BigDecimal xMin);
+
+	/**
+	 * Sets the maximal value along the y-axis, keeping all the digits of
+	 * the given value for the computations that need them
+	 *
+	 * @param yMax The maximal value along the y-axis
+	 * @return This Builder instance
+	 */
+	Builder yMax(BigDecimal yMax);
+
+	/**
+	 * Sets the height of the image that contains the fractal
+	 *
+	 * @param imageHeight The height of the image
+	 * @return This Builder instance
+	 */
+	Builder imageHeight(int imageHeight);
+
+	/**
+	 * Sets the width of the image that contains the fractal
+	 *
+	 * @param imageWidth The width of the image
+	 * @return This Builder instance
+	 */
+	Builder imageWidth(int imageWidth);
+
+	/**
+	 * Sets the name of the file that contains the image of the fractal
+	 *
+	 * @param fileName The file name
+	 * @return This Builder instance
+	 */
+	Builder fileName(String fileName);
+
+	/**
+	 * Sets the factors for the color function.
+	 *
+	 * @param alpha First factor
+	 * @param beta Second factor
+	 * @param gamma Third factor
+	 * @return This Builder instance
+	 */
+	Builder colorFunction(float alpha, float beta, float gamma);
+
+	/**
+	 * Builds a Fractal instance from this builder
+	 *
+	 * @return A new Fractal instance
+	 */
+	Fractal build();
     }
 
     /**
@@ -14,6 +229,13 @@ public interface Fractal {
      */
     double RADIUS = 2.0;
 
+    /**
+     * Radius beyond which the orbits followed by computeDistance are known
+     * to diverge, large enough for the estimate of the distance to be
+     * accurate
+     */
+    double DISTANCE_RADIUS = 1000.0;
+
     /**
      * Computes the divergence index of each complex in the
      * rectangle delimeted by xMin xMax yMin yMax of the complex plane
@@ -32,6 +254,77 @@ public interface Fractal {
      */
     int computeDivergence(Complex z);
 
+    /**
+     * Computes the divergence index of the complex number re + i * im
+     * with floats. It gives the same index as computeDivergence as long
+     * as floats resolve the distance between pixels
+     *
+     * @param re The real part of a complex number
+     * @param im The imaginary part of a complex number
+     * @return The divergence index of re + i * im
+     */
+    int computeDivergence(float re, float im);
+
+    /**
+     * Computes the divergence index of the complex number z, with the
+     * precision of z
+     *
+     * @param z A complex number
+     * @param factory The factory of the complex numbers of the precision
+     * of z
+     * @return The divergence index of z
+     */
+    <T extends ComplexNumber<T>> int computeDivergence
+	(T z, ComplexNumber.Factory<T> factory);
+
+    /**
+     * Estimates the distance from Complex z to the boundary of the set,
+     * from the derivative of the orbit of z. The estimate is a lower
+     * bound : the disc of this radius around z lies outside the set
+     *
+     * @param z A Complex number
+     * @return The estimated distance from z to the set, or 0 if the orbit
+     * of z does not escape within maxIteration
+     * @throws IllegalArgumentException if the fractal is iterated by a
+     * formula, whose derivatives are not known
+     */
+    double computeDistance(Complex z);
+
+    /**
+     * Returns the cheapest precision in which the pixels of this Fractal
+     * can be told apart
+     *
+     * @return The precision of the computation of this Fractal
+     */
+    Precision getPrecision();
+
+    /**
+     * Returns the first term of the orbit of Complex z, that is the term
+     * from which the iteration function is applied to compute the
+     * divergence index of z
+     *
+     * @param z A Complex number
+     * @return The first term of the orbit of z
+     */
+    Complex getOrbitStart(Complex z);
+
+    /**
+     * Returns the term that follows zn in the orbit of Complex z
+     *
+     * @param zn A term of the orbit of z
+     * @param z A Complex number
+     * @return The image of zn by the iteration function
+     */
+    Complex iterate(Complex zn, Complex z);
+
+    /**
+     * Returns the symmetry of the divergence index of this Fractal, so that
+     * only one half of a symmetric view needs to be computed
+     *
+     * @return The symmetry of the divergence index
+     */
+    Symmetry getSymmetry();
+
     /**
      * Returns the width of the image that contains this Fractal
      *
@@ -75,6 +368,22 @@ public interface Fractal {
      */
     double getXMax();
 
+    /**
+     * Returns the minimal value along the x-axis with all the digits it
+     * was given
+     *
+     * @return The minimal value along the x-axis
+     */
+    BigDecimal getPreciseXMin();
+
+    /**
+     * Returns the maximal value along the y-axis with all the digits it
+     * was given
+     *
+     * @return The maximal value along the y-axis
+     */
+    BigDecimal getPreciseYMax();
+
     /**
      * Returns the minimal value along the y-axis
      *
@@ -132,4 +441,11 @@ public interface Fractal {
      * @return The color associated to the given int divergence index
      */
     int getColorFromDivergenceIndex(int divergenceIndex);
+
+    /**
+     * Returns a Builder initialized with the parameters of this Fractal
+     *
+     * @return A Builder that builds a copy of this Fractal
+     */
+    Builder toBuilder();
 }
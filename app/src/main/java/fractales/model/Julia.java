@@ -1,9 +1,9 @@
 package fractales.model;
 
+import java.math.BigDecimal;
 import java.util.function.Function;
 import java.awt.Color;
-import java.util.concurrent.*;
-import fractales.utils.DivergenceIndexMatrixCalculator;
+import fractales.utils.RenderEngines;
 
 /**
  * This class encapsulates a Julia set
@@ -19,6 +19,10 @@ public class Julia implements Fractal {
     private final double yMin;
     private final double yMax;
 
+    // working rectangle corner with all the digits it was given
+    private final BigDecimal preciseXMin;
+    private final BigDecimal preciseYMax;
+
     // discrete step
     private final double discreteStep;
 
@@ -33,6 +37,9 @@ public class Julia implements Fractal {
     private final Function <Complex,Complex> iterationFunction;
     private final Complex complexConstant;
 
+    // formula replacing the iteration function, or null
+    private final Formula formula;
+
     // factors for the color function
     private final float alphaColor;
     private final float betaColor;
@@ -50,9 +57,12 @@ public class Julia implements Fractal {
 	this.xMax = builder.xMax;
 	this.yMin = builder.yMin;
 	this.yMax = builder.yMax;
+	this.preciseXMin = builder.preciseXMin;
+	this.preciseYMax = builder.preciseYMax;
 	this.alphaFactor = builder.alphaFactor;
 	this.betaFactor = builder.betaFactor;
 	this.iterationFunction = builder.iterationFunction;
+	this.formula = builder.formula;
 	this.imageHeight = builder.imageHeight;
 	this.imageWidth = builder.imageWidth;
 	this.fileName = builder.fileName;
@@ -64,7 +74,7 @@ public class Julia implements Fractal {
     /**
      * Builder for Julia class
      */
-    public static class Builder {
+    public static class Builder implements Fractal.Builder {
 
 	private Complex complexConstant = Complex.getZERO();
 	private int maxIteration = 1000;
@@ -73,6 +83,8 @@ public class Julia implements Fractal {
 	private double xMax = 1;
 	private double yMin = -1;
 	private double yMax = 1;
+	private BigDecimal preciseXMin = null;
+	private BigDecimal preciseYMax = null;
 	private int imageHeight = 0;
 	private int imageWidth = 0;
 	private String fileName = "Julia";
@@ -84,6 +96,7 @@ public class Julia implements Fractal {
 	    .add(z.multiply(betaFactor))
 	    .add(complexConstant);
 	};
+	private Formula formula = null;
 	private float alphaColor = 20.0f;
 	private float betaColor = 1.0f;
 	private float gammaColor = 1.0f;
@@ -115,12 +128,26 @@ public class Julia implements Fractal {
 	    return this;
 	}
 
+	/**
+	 * Sets a formula f(z, c) that replaces the iteration function, c
+	 * being the complex constant. The orbits of formulas are computed
+	 * with doubles whatever the discrete step.
+	 *
+	 * @param formula The formula, or null for the iteration function
+	 * @return This Builder instance
+	 */
+	public Builder formula(Formula formula){
+	    this.formula = formula;
+	    return this;
+	}
+
 	/**
 	 * Sets the maximum iteration value for the iteration function
 	 *
 	 * @param maxIteration The maximum iteration value
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder maxIteration(int maxIteration){
 	    this.maxIteration = maxIteration;
 	    return this;
@@ -132,6 +159,7 @@ public class Julia implements Fractal {
 	 * @param discreteStep The value of the discrete step
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder discreteStep(double discreteStep){
 	    this.discreteStep = discreteStep;
 	    return this;
@@ -143,8 +171,24 @@ public class Julia implements Fractal {
 	 * @param xMin The value for the minimum real value of a complex number
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder xMin(double xMin){
 	    this.xMin = xMin;
+	    this.preciseXMin = null;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the minimum real value of a complex number,
+	 * keeping all its digits
+	 *
+	 * @param xMin The value for the minimum real value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder xMin(BigDecimal xMin){
+	    this.xMin = xMin.doubleValue();
+	    this.preciseXMin = xMin;
 	    return this;
 	}
 
@@ -154,6 +198,7 @@ public class Julia implements Fractal {
 	 * @param xMin The value for the maximum real value of a complex number
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder xMax(double xMax){
 	    this.xMax = xMax;
 	    return this;
@@ -165,6 +210,7 @@ public class Julia implements Fractal {
 	 * @param xMin The value for the minimum imaginary value of a complex number
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder yMin(double yMin){
 	    this.yMin = yMin;
 	    return this;
@@ -176,8 +222,24 @@ public class Julia implements Fractal {
 	 * @param xMin The value for the maximum imaginary value of a complex number
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder yMax(double yMax){
 	    this.yMax = yMax;
+	    this.preciseYMax = null;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the maximum imaginary value of a complex number,
+	 * keeping all its digits
+	 *
+	 * @param yMax The value for the maximum imaginary value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder yMax(BigDecimal yMax){
+	    this.yMax = yMax.doubleValue();
+	    this.preciseYMax = yMax;
 	    return this;
 	}
 
@@ -188,6 +250,7 @@ public class Julia implements Fractal {
 	 * @param imageHeight The height of the image
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder imageHeight(int imageHeight){
 	    this.imageHeight = imageHeight;
 	    return this;
@@ -200,6 +263,7 @@ public class Julia implements Fractal {
 	 * @param imageWidth The width of the image
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder imageWidth(int imageWidth){
 	    this.imageWidth = imageWidth;
 	    return this;
@@ -211,6 +275,7 @@ public class Julia implements Fractal {
 	 * @param fileName The file name
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder fileName(String fileName){
 	    this.fileName = fileName;
 	    return this;
@@ -224,6 +289,7 @@ public class Julia implements Fractal {
 	 * @param gamma Third factor
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder colorFunction(float alpha, float beta, float gamma){
 	    this.alphaColor = alpha;
 	    this.betaColor = beta;
@@ -236,6 +302,7 @@ public class Julia implements Fractal {
 	 *
 	 * @return A new Julia instance
 	 */
+	@Override
 	public Julia build(){
 	    if(imageHeight <= 0 || imageWidth <= 0){
 		// assigns each point of the discrete plane to a pixel of
@@ -245,6 +312,10 @@ public class Julia implements Fractal {
 		imageWidth =
 		    (int) ((Math.abs(xMin)+Math.abs(xMax))/discreteStep + 1.0);
 	    }
+	    if(preciseXMin == null)
+		preciseXMin = BigDecimal.valueOf(xMin);
+	    if(preciseYMax == null)
+		preciseYMax = BigDecimal.valueOf(yMax);
 	    return new Julia(this);
 	}
     }
@@ -257,6 +328,10 @@ public class Julia implements Fractal {
      */
     @Override
     public int computeDivergence(Complex z){
+	if(formula != null)
+	    return formula.computeDivergence(z.getRe(), z.getIm(),
+					     complexConstant.getRe(),
+					     complexConstant.getIm(), maxIteration);
 	int iteration = 0;
 	Complex zn = z;
 	while(iteration < maxIteration - 1 && zn.modulus() <= Fractal.RADIUS){
@@ -266,6 +341,122 @@ public class Julia implements Fractal {
 	return iteration;
     }
 
+    @Override
+    public int computeDivergence(float re, float im){
+	if(formula != null)
+	    return computeDivergence(Complex.of(re, im));
+	float aRe = (float) alphaFactor.getRe();
+	float aIm = (float) alphaFactor.getIm();
+	float bRe = (float) betaFactor.getRe();
+	float bIm = (float) betaFactor.getIm();
+	float cRe = (float) complexConstant.getRe();
+	float cIm = (float) complexConstant.getIm();
+	float radius = (float) (Fractal.RADIUS * Fractal.RADIUS);
+	int iteration = 0;
+	float zRe = re;
+	float zIm = im;
+	while(iteration < maxIteration - 1 && zRe * zRe + zIm * zIm <= radius){
+	    // alpha * z * z + beta * z + constant
+	    float sqRe = zRe * zRe - zIm * zIm;
+	    float sqIm = 2f * zRe * zIm;
+	    float nextRe = aRe * sqRe - aIm * sqIm + bRe * zRe - bIm * zIm + cRe;
+	    zIm = aRe * sqIm + aIm * sqRe + bRe * zIm + bIm * zRe + cIm;
+	    zRe = nextRe;
+	    iteration++;
+	}
+	return iteration;
+    }
+
+    @Override
+    public double computeDistance(Complex z){
+	if(formula != null)
+	    // the derivatives of the orbits are only known for z * z + c
+	    throw new IllegalArgumentException("No distance estimation for "
+					       + "formulas");
+	double aRe = alphaFactor.getRe();
+	double aIm = alphaFactor.getIm();
+	double bRe = betaFactor.getRe();
+	double bIm = betaFactor.getIm();
+	double cRe = complexConstant.getRe();
+	double cIm = complexConstant.getIm();
+	double alpha = Math.hypot(aRe, aIm);
+	if(alpha == 0)
+	    return 0;
+	int iteration = 0;
+	double zRe = z.getRe();
+	double zIm = z.getIm();
+	double dRe = 1;
+	double dIm = 0;
+	double radius = Fractal.DISTANCE_RADIUS * Fractal.DISTANCE_RADIUS;
+	while(iteration < maxIteration - 1 && zRe * zRe + zIm * zIm <= radius){
+	    // dz(n+1) = (2 * alpha * z(n) + beta) * dz(n)
+	    double fRe = 2 * (aRe * zRe - aIm * zIm) + bRe;
+	    double fIm = 2 * (aRe * zIm + aIm * zRe) + bIm;
+	    double nextDRe = fRe * dRe - fIm * dIm;
+	    dIm = fRe * dIm + fIm * dRe;
+	    dRe = nextDRe;
+	    // alpha * z * z + beta * z + constant
+	    double sqRe = zRe * zRe - zIm * zIm;
+	    double sqIm = 2 * zRe * zIm;
+	    double nextRe = aRe * sqRe - aIm * sqIm + bRe * zRe - bIm * zIm + cRe;
+	    zIm = aRe * sqIm + aIm * sqRe + bRe * zIm + bIm * zRe + cIm;
+	    zRe = nextRe;
+	    iteration++;
+	}
+	double modulus = Math.hypot(zRe, zIm);
+	if(modulus <= Fractal.DISTANCE_RADIUS)
+	    return 0;
+	// half of |z(n)| log |alpha z(n)| / |dz(n)|, the Koebe bound, the
+	// Green function growing as log |alpha z(n)| / 2^n
+	return 0.5 * modulus * Math.log(alpha * modulus)
+	    / Math.hypot(dRe, dIm);
+    }
+
+    @Override
+    public <T extends ComplexNumber<T>> int computeDivergence
+	(T z, ComplexNumber.Factory<T> factory){
+	if(formula != null)
+	    return computeDivergence(Complex.of(z.getRe(), z.getIm()));
+	T alpha = factory.of(alphaFactor);
+	T beta = factory.of(betaFactor);
+	T constant = factory.of(complexConstant);
+	int iteration = 0;
+	T zn = z;
+	while(iteration < maxIteration - 1
+	      && zn.modulusSquared() <= Fractal.RADIUS * Fractal.RADIUS){
+	    zn = alpha.multiply(zn.multiply(zn)).add(zn.multiply(beta))
+		.add(constant);
+	    iteration++;
+	}
+	return iteration;
+    }
+
+    @Override
+    public Precision getPrecision(){
+	// formulas are compiled for doubles only
+	if(formula != null)
+	    return Precision.DOUBLE;
+	// the first term is the pixel, the following ones are the image of
+	// a term whose modulus is at most RADIUS
+	double view = Math.hypot(Math.max(Math.abs(xMin), Math.abs(xMax)),
+				 Math.max(Math.abs(yMin), Math.abs(yMax)));
+	double image = alphaFactor.modulus() * Fractal.RADIUS * Fractal.RADIUS
+	    + betaFactor.modulus() * Fractal.RADIUS + complexConstant.modulus();
+	return Precision.of(this, Math.max(view, image));
+    }
+
+    @Override
+    public Complex getOrbitStart(Complex z){
+	return z;
+    }
+
+    @Override
+    public Complex iterate(Complex zn, Complex z){
+	if(formula != null)
+	    return formula.iterate(zn, complexConstant);
+	return iterationFunction.apply(zn);
+    }
+
     /**
      * Computes the divergence index of each complex in the
      * rectangle delimeted by xMin xMax yMin yMax of the complex plane
@@ -276,13 +467,22 @@ public class Julia implements Fractal {
      */
     @Override
     public int[][] getDivergenceIndexMatrix(){
-    	int[][] arrayDivergence = new int[imageWidth][imageHeight];
-	DivergenceIndexMatrixCalculator work =
-	    new DivergenceIndexMatrixCalculator(0, this.getWidth() - 1,
-						arrayDivergence, this);
-	ForkJoinPool pool = new ForkJoinPool();
-	pool.invoke(work);
-	return arrayDivergence;
+	return RenderEngines.computeMatrix(this);
+    }
+
+    @Override
+    public Symmetry getSymmetry(){
+	// the symmetries of formulas are unknown
+	if(formula != null)
+	    return Symmetry.NONE;
+	// f(-z) = f(z) when beta is zero, so z and -z share their orbit
+	if(betaFactor.getRe() == 0.0 && betaFactor.getIm() == 0.0)
+	    return Symmetry.ORIGIN;
+	// f commutes with the conjugation when every factor is real
+	if(alphaFactor.getIm() == 0.0 && betaFactor.getIm() == 0.0
+	   && complexConstant.getIm() == 0.0)
+	    return Symmetry.REAL_AXIS;
+	return Symmetry.NONE;
     }
 
     /**
@@ -347,6 +547,16 @@ public class Julia implements Fractal {
 	return this.xMax;
     }
 
+    @Override
+    public BigDecimal getPreciseXMin(){
+	return this.preciseXMin;
+    }
+
+    @Override
+    public BigDecimal getPreciseYMax(){
+	return this.preciseYMax;
+    }
+
     @Override
     public double getYMin(){
 	return this.yMin;
@@ -376,6 +586,15 @@ public class Julia implements Fractal {
 	return this.complexConstant;
     }
 
+    /**
+     * Returns the formula that replaces the iteration function
+     *
+     * @return The formula, or null if the iteration function is used
+     */
+    public Formula getFormula(){
+	return this.formula;
+    }
+
     /**
      * Returns the alpha factor of the iteration function
      *
@@ -408,4 +627,22 @@ public class Julia implements Fractal {
     public float getGammaColor(){
 	return this.gammaColor;
     }
+
+    @Override
+    public Builder toBuilder(){
+	return new Builder()
+	    .complexConstant(complexConstant)
+	    .iterationFunction(alphaFactor, betaFactor)
+	    .formula(formula)
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(preciseXMin)
+	    .xMax(xMax)
+	    .yMin(yMin)
+	    .yMax(preciseYMax)
+	    .imageWidth(imageWidth)
+	    .imageHeight(imageHeight)
+	    .fileName(fileName)
+	    .colorFunction(alphaColor, betaColor, gammaColor);
+    }
 }
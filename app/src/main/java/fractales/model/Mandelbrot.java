@@ -1,8 +1,8 @@
 package fractales.model;
 
+import java.math.BigDecimal;
 import java.awt.Color;
-import java.util.concurrent.*;
-import fractales.utils.DivergenceIndexMatrixCalculator;
+import fractales.utils.RenderEngines;
 
 public class Mandelbrot implements Fractal {
 
@@ -15,6 +15,10 @@ public class Mandelbrot implements Fractal {
     private final double yMin;
     private final double yMax;
 
+    // working rectangle corner with all the digits it was given
+    private final BigDecimal preciseXMin;
+    private final BigDecimal preciseYMax;
+
     // discrete step
     private final double discreteStep;
 
@@ -23,6 +27,9 @@ public class Mandelbrot implements Fractal {
     private final int imageWidth;
     private final String fileName;
 
+    // formula replacing z(n)*z(n) + z, or null
+    private final Formula formula;
+
     // factors for the color function
     private final float alphaColor;
     private final float betaColor;
@@ -39,9 +46,12 @@ public class Mandelbrot implements Fractal {
 	this.xMax = builder.xMax;
 	this.yMin = builder.yMin;
 	this.yMax = builder.yMax;
+	this.preciseXMin = builder.preciseXMin;
+	this.preciseYMax = builder.preciseYMax;
 	this.imageHeight = builder.imageHeight;
 	this.imageWidth = builder.imageWidth;
 	this.fileName = builder.fileName;
+	this.formula = builder.formula;
 	this.alphaColor = builder.alphaColor;
 	this.betaColor = builder.betaColor;
 	this.gammaColor = builder.gammaColor;
@@ -50,7 +60,7 @@ public class Mandelbrot implements Fractal {
     /**
      * Builder for Mandelbrot class
      */
-    public static class Builder {
+    public static class Builder implements Fractal.Builder {
 
 	// optionnal parameters for Mandelbrot
 	private int maxIteration = 1000;
@@ -59,19 +69,23 @@ public class Mandelbrot implements Fractal {
 	private double xMax = 1;
 	private double yMin = -1;
 	private double yMax = 1;
+	private BigDecimal preciseXMin = null;
+	private BigDecimal preciseYMax = null;
 	private int imageHeight = 0;
 	private int imageWidth = 0;
 	private String fileName = "Mandelbrot";
+	private Formula formula = null;
 	private float alphaColor = 20.0f;
 	private float betaColor = 1.0f;
 	private float gammaColor = 1.0f;
-	
+
 	/**
 	 * Sets the maximum iteration value for the iteration function
 	 *
 	 * @param maxIteration The maximum iteration value
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder maxIteration(int maxIteration){
 	    this.maxIteration = maxIteration;
 	    return this;
@@ -83,6 +97,7 @@ public class Mandelbrot implements Fractal {
 	 * @param discreteStep The value of the discrete step
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder discreteStep(double discreteStep){
 	    this.discreteStep = discreteStep;
 	    return this;
@@ -94,8 +109,24 @@ public class Mandelbrot implements Fractal {
 	 * @param xMin The value for the minimum real value of a complex number
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder xMin(double xMin){
 	    this.xMin = xMin;
+	    this.preciseXMin = null;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the minimum real value of a complex number,
+	 * keeping all its digits
+	 *
+	 * @param xMin The value for the minimum real value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder xMin(BigDecimal xMin){
+	    this.xMin = xMin.doubleValue();
+	    this.preciseXMin = xMin;
 	    return this;
 	}
 
@@ -105,6 +136,7 @@ public class Mandelbrot implements Fractal {
 	 * @param xMin The value for the maximum real value of a complex number
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder xMax(double xMax){
 	    this.xMax = xMax;
 	    return this;
@@ -116,6 +148,7 @@ public class Mandelbrot implements Fractal {
 	 * @param xMin The value for the minimum imaginary value of a complex number
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder yMin(double yMin){
 	    this.yMin = yMin;
 	    return this;
@@ -127,8 +160,24 @@ public class Mandelbrot implements Fractal {
 	 * @param xMin The value for the maximum imaginary value of a complex number
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder yMax(double yMax){
 	    this.yMax = yMax;
+	    this.preciseYMax = null;
+	    return this;
+	}
+
+	/**
+	 * Sets the value for the maximum imaginary value of a complex number,
+	 * keeping all its digits
+	 *
+	 * @param yMax The value for the maximum imaginary value of a complex number
+	 * @return This Builder instance
+	 */
+	@Override
+	public Builder yMax(BigDecimal yMax){
+	    this.yMax = yMax.doubleValue();
+	    this.preciseYMax = yMax;
 	    return this;
 	}
 
@@ -139,6 +188,7 @@ public class Mandelbrot implements Fractal {
 	 * @param imageHeight The height of the image
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder imageHeight(int imageHeight){
 	    this.imageHeight = imageHeight;
 	    return this;
@@ -151,6 +201,7 @@ public class Mandelbrot implements Fractal {
 	 * @param imageWidth The width of the image
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder imageWidth(int imageWidth){
 	    this.imageWidth = imageWidth;
 	    return this;
@@ -162,6 +213,7 @@ public class Mandelbrot implements Fractal {
 	 * @param fileName The file name
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder fileName(String fileName){
 	    this.fileName = fileName;
 	    return this;
@@ -175,18 +227,33 @@ public class Mandelbrot implements Fractal {
 	 * @param gamma Third factor.
 	 * @return This Builder instance
 	 */
+	@Override
 	public Builder colorFunction(float alpha, float beta, float gamma){
 	    this.alphaColor = alpha;
 	    this.betaColor = beta;
 	    this.gammaColor = gamma;
 	    return this;
 	}
-	
+
+	/**
+	 * Sets a formula f(z, c) that replaces z * z + c, c being the
+	 * point of the plane and the orbit starting from 0. The orbits of
+	 * formulas are computed with doubles whatever the discrete step.
+	 *
+	 * @param formula The formula, or null for z * z + c
+	 * @return This Builder instance
+	 */
+	public Builder formula(Formula formula){
+	    this.formula = formula;
+	    return this;
+	}
+
 	/**
 	 * Builds a Mandelbrot instance from this builder
 	 *
 	 * @return A new Mandelbrot instance
 	 */
+	@Override
 	public Mandelbrot build(){
 	    if(imageHeight <= 0 || imageWidth <= 0){
 		// assigns each point of the discrete plane to a pixel of
@@ -196,6 +263,10 @@ public class Mandelbrot implements Fractal {
 		imageWidth =
 		    (int) ((Math.abs(xMin)+Math.abs(xMax))/discreteStep + 1.0);
 	    }
+	    if(preciseXMin == null)
+		preciseXMin = BigDecimal.valueOf(xMin);
+	    if(preciseYMax == null)
+		preciseYMax = BigDecimal.valueOf(yMax);
 	    return new Mandelbrot(this);
 	}
 
@@ -210,13 +281,16 @@ public class Mandelbrot implements Fractal {
      * corresponding complex number
      */
     public int[][] getDivergenceIndexMatrix(){
-	int[][] arrayDivergence = new int[imageWidth][imageHeight];
-	DivergenceIndexMatrixCalculator work =
-	    new DivergenceIndexMatrixCalculator(0, this.getWidth() -1,
-						arrayDivergence, this);
-	ForkJoinPool pool = new ForkJoinPool();
-	pool.invoke(work);
-	return arrayDivergence;
+	return RenderEngines.computeMatrix(this);
+    }
+
+    @Override
+    public Symmetry getSymmetry(){
+	// the symmetries of formulas are unknown
+	if(formula != null)
+	    return Symmetry.NONE;
+	// the orbit of the conjugate of z is the conjugate of the orbit of z
+	return Symmetry.REAL_AXIS;
     }
 
     /**
@@ -226,6 +300,9 @@ public class Mandelbrot implements Fractal {
      * @return The divergence index of z
      */
     public int computeDivergence(Complex z){
+	if(formula != null)
+	    return formula.computeDivergence(0, 0, z.getRe(), z.getIm(),
+					     maxIteration);
 	int iteration = 0;
 	Complex zn = Complex.getZERO();
 	while(iteration < maxIteration - 1 && zn.modulus() <= Fractal.RADIUS){
@@ -236,6 +313,92 @@ public class Mandelbrot implements Fractal {
 	return iteration;
     }
 
+    @Override
+    public int computeDivergence(float re, float im){
+	if(formula != null)
+	    return computeDivergence(Complex.of(re, im));
+	int iteration = 0;
+	float zRe = 0f;
+	float zIm = 0f;
+	float radius = (float) (Fractal.RADIUS * Fractal.RADIUS);
+	while(iteration < maxIteration - 1 && zRe * zRe + zIm * zIm <= radius){
+	    // z(n+1) = z(n)*z(n) + z
+	    float nextRe = zRe * zRe - zIm * zIm + re;
+	    zIm = 2f * zRe * zIm + im;
+	    zRe = nextRe;
+	    iteration++;
+	}
+	return iteration;
+    }
+
+    @Override
+    public <T extends ComplexNumber<T>> int computeDivergence
+	(T z, ComplexNumber.Factory<T> factory){
+	if(formula != null)
+	    return computeDivergence(Complex.of(z.getRe(), z.getIm()));
+	int iteration = 0;
+	T zn = factory.of(Complex.getZERO());
+	while(iteration < maxIteration - 1
+	      && zn.modulusSquared() <= Fractal.RADIUS * Fractal.RADIUS){
+	    zn = zn.multiply(zn).add(z);
+	    iteration++;
+	}
+	return iteration;
+    }
+
+    @Override
+    public double computeDistance(Complex z){
+	if(formula != null)
+	    // the derivatives of the orbits are only known for z * z + c
+	    throw new IllegalArgumentException("No distance estimation for "
+					       + "formulas");
+	int iteration = 0;
+	double zRe = 0;
+	double zIm = 0;
+	double dRe = 0;
+	double dIm = 0;
+	double radius = Fractal.DISTANCE_RADIUS * Fractal.DISTANCE_RADIUS;
+	while(iteration < maxIteration - 1 && zRe * zRe + zIm * zIm <= radius){
+	    // dz(n+1) = 2*z(n)*dz(n) + 1, the derivative with respect to z
+	    double nextDRe = 2 * (zRe * dRe - zIm * dIm) + 1;
+	    dIm = 2 * (zRe * dIm + zIm * dRe);
+	    dRe = nextDRe;
+	    // z(n+1) = z(n)*z(n) + z
+	    double nextRe = zRe * zRe - zIm * zIm + z.getRe();
+	    zIm = 2 * zRe * zIm + z.getIm();
+	    zRe = nextRe;
+	    iteration++;
+	}
+	double modulus = Math.hypot(zRe, zIm);
+	if(modulus <= Fractal.DISTANCE_RADIUS)
+	    return 0;
+	// half of |z(n)| log |z(n)| / |dz(n)|, the Koebe bound
+	return 0.5 * modulus * Math.log(modulus) / Math.hypot(dRe, dIm);
+    }
+
+    @Override
+    public Precision getPrecision(){
+	// formulas are compiled for doubles only
+	if(formula != null)
+	    return Precision.DOUBLE;
+	// z(n+1) = z(n)*z(n) + z with the modulus of z(n) at most RADIUS
+	double view = Math.hypot(Math.max(Math.abs(xMin), Math.abs(xMax)),
+				 Math.max(Math.abs(yMin), Math.abs(yMax)));
+	return Precision.of(this, Fractal.RADIUS * Fractal.RADIUS + view);
+    }
+
+    @Override
+    public Complex getOrbitStart(Complex z){
+	return Complex.getZERO();
+    }
+
+    @Override
+    public Complex iterate(Complex zn, Complex z){
+	if(formula != null)
+	    return formula.iterate(zn, z);
+	return zn.multiply(zn).add(z);
+    }
+
     /**
      * Returns the width of the image that contains this Fractal
      *
@@ -294,6 +457,16 @@ public class Mandelbrot implements Fractal {
 	return this.xMax;
     }
 
+    @Override
+    public BigDecimal getPreciseXMin(){
+	return this.preciseXMin;
+    }
+
+    @Override
+    public BigDecimal getPreciseYMax(){
+	return this.preciseYMax;
+    }
+
     @Override
     public double getYMin(){
 	return this.yMin;
@@ -314,6 +487,15 @@ public class Mandelbrot implements Fractal {
 	return this.maxIteration;
     }
 
+    /**
+     * Returns the formula that replaces z * z + c
+     *
+     * @return The formula, or null if z * z + c is used
+     */
+    public Formula getFormula(){
+	return this.formula;
+    }
+
     @Override
     public float getAlphaColor(){
 	return this.alphaColor;
@@ -328,4 +510,20 @@ public class Mandelbrot implements Fractal {
     public float getGammaColor(){
 	return this.gammaColor;
     }
+
+    @Override
+    public Builder toBuilder(){
+	return new Builder()
+	    .formula(formula)
+	    .maxIteration(maxIteration)
+	    .discreteStep(discreteStep)
+	    .xMin(preciseXMin)
+	    .xMax(xMax)
+	    .yMin(yMin)
+	    .yMax(preciseYMax)
+	    .imageWidth(imageWidth)
+	    .imageHeight(imageHeight)
+	    .fileName(fileName)
+	    .colorFunction(alphaColor, betaColor, gammaColor);
+    }
 }
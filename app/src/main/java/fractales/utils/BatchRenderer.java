@@ -0,0 +1,309 @@
+package fractales.utils;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import fractales.model.*;
+
+/**
+ * This class renders many fractals in one process, so that they share the
+ * threads, the caches and the compiled code of the application. The
+ * fractals are read from .frac or .txt files, listed in a manifest or
+ * found in a directory. Several fractals are rendered at the same time,
+ * within a number of concurrent renders and a memory budget : a render
+ * waits until the memory needed by its image is available. A descriptor
+ * whose images would overwrite those of a previous descriptor is
+ * rejected.
+ */
+public class BatchRenderer {
+
+    // bytes needed by each pixel while its image is saved : its divergence
+    // index, its copy in the DiskCache, its color and the raster of the
+    // BufferedImage
+    private static final long BYTES_PER_PIXEL = 4 * Integer.BYTES;
+
+    // maximal number of concurrent renders and memory budget in bytes
+    private final int jobs;
+    private final long memory;
+
+    /**
+     * Instantiates a renderer running at most the specified number of
+     * renders at the same time, within the specified memory budget
+     *
+     * @param jobs The maximal number of concurrent renders
+     * @param memory The memory budget in bytes of the images being rendered
+     */
+    public BatchRenderer(int jobs, long memory){
+	this.jobs = Math.max(1, jobs);
+	this.memory = Math.max(1, memory);
+    }
+
+    /**
+     * Returns the descriptor files of the specified Path source : the .frac
+     * and .txt files of a directory, in the order of their names, or the
+     * files listed in a manifest, one per line. A line of a manifest is
+     * either a path to a file or a name on /tmp/ without extension, as
+     * with -buildFrom. Empty lines and lines starting with '#' are
+     * ignored. A .txt file is skipped when the .frac file of the same name
+     * is listed.
+     *
+     * @param source A directory or a manifest
+     * @return The paths of the descriptor files
+     * @throws IOException if source cannot be read
+     */
+    public static List<Path> listDescriptors(Path source) throws IOException {
+	List<Path> paths = new ArrayList<>();
+	if(Files.isDirectory(source)){
+	    try(Stream<Path> files = Files.list(source)){
+		files.filter(p -> p.toString().endsWith(".frac")
+			     || p.toString().endsWith(".txt"))
+		    .sorted()
+		    .forEach(paths::add);
+	    }
+	} else {
+	    for(String line : Files.readAllLines(source)){
+		line = line.trim();
+		if(line.isEmpty() || line.startsWith("#"))
+		    continue;
+		if(line.endsWith(".frac") || line.endsWith(".txt")){
+		    paths.add(Paths.get(line));
+		} else {
+		    Path frac = Paths.get("/tmp/" + line + ".frac");
+		    paths.add(Files.exists(frac) ? frac
+			      : Paths.get("/tmp/" + line + ".txt"));
+		}
+	    }
+	}
+	paths.removeIf(p -> p.toString().endsWith(".txt")
+		       && paths.contains(Paths.get(p.toString()
+						   .replaceAll("\\.txt$",
+							       ".frac"))));
+	return paths;
+    }
+
+    /**
+     * Renders the fractals of the specified descriptor files and saves
+     * their images as FractalImage does. The .frac files that hold the
+     * divergence indices of their fractal are only colored again. A
+     * descriptor that cannot be read, rendered or saved, or whose fractal
+     * has the file name of the fractal of a previous descriptor, is
+     * reported as failed without stopping the others.
+     *
+     * @param descriptors The paths of the descriptor files
+     * @return The report of the renders, in the order of descriptors
+     */
+    public Report render(List<Path> descriptors){
+	long start = System.currentTimeMillis();
+	Semaphore budget = new Semaphore((int) Math.min(Integer.MAX_VALUE,
+						       toPermits(memory)));
+	ExecutorService executor = Executors.newFixedThreadPool(jobs);
+	List<Future<Job>> futures = new ArrayList<>();
+	// the descriptors are read in their order, so that the first one of
+	// the descriptors that share a file name is rendered
+	Map<String, Path> names = new HashMap<>();
+	for(Path path : descriptors){
+	    FractalFile file = null;
+	    Fractal fractal = null;
+	    Exception error = null;
+	    try {
+		if(path.toString().endsWith(".frac")){
+		    file = FractalFile.open(path);
+		    fractal = file.getFractal();
+		} else {
+		    fractal = FractalText.textToImage(path.toString());
+		    if(fractal == null)
+			throw new IOException("Invalid file " + path);
+		}
+		Path previous = names.putIfAbsent(fractal.getFileName(), path);
+		if(previous != null)
+		    throw new IOException("Same images /tmp/"
+					  + fractal.getFileName() + " as "
+					  + previous);
+	    } catch(Exception e){
+		error = e;
+	    }
+	    if(error != null){
+		futures.add(CompletableFuture.completedFuture
+			    (new Job(path, fractal, 0, error)));
+	    } else {
+		FractalFile read = file;
+		Fractal parsed = fractal;
+		futures.add(executor.submit(() -> renderJob(path, read, parsed,
+							    budget)));
+	    }
+	}
+	executor.shutdown();
+
+	List<Job> results = new ArrayList<>();
+	for(int k = 0; k < futures.size(); k++){
+	    try {
+		results.add(futures.get(k).get());
+	    } catch(Exception e){
+		results.add(new Job(descriptors.get(k), null, 0, e));
+	    }
+	}
+	return new Report(results, System.currentTimeMillis() - start);
+    }
+
+    // renders the fractal of the descriptor path, read from file when it is
+    // a .frac file, once its memory is available
+    private Job renderJob(Path path, FractalFile file, Fractal fractal,
+			  Semaphore budget){
+	long start = System.currentTimeMillis();
+	try {
+	    // an image larger than the budget is rendered alone
+	    int permits = (int) Math.min(toPermits(memory),
+					 toPermits(BYTES_PER_PIXEL
+						   * fractal.getWidth()
+						   * fractal.getHeight()));
+	    budget.acquire(permits);
+	    try {
+		start = System.currentTimeMillis();
+		FractalImage image = FractalImage.of(fractal);
+		if(file != null && file.hasField())
+		    image.saveFile(file.readMatrix());
+		else
+		    image.saveFile();
+	    } finally {
+		budget.release(permits);
+	    }
+	    return new Job(path, fractal, System.currentTimeMillis() - start,
+			   null);
+	} catch(Exception e){
+	    return new Job(path, fractal, System.currentTimeMillis() - start, e);
+	}
+    }
+
+    // returns the number of permits, of one kilobyte each, of bytes
+    private static long toPermits(long bytes){
+	return Math.max(1, (bytes + 1023) / 1024);
+    }
+
+    /**
+     * This class holds the result of the render of one descriptor.
+     */
+    public static class Job {
+
+	// the descriptor, its fractal and the result of the render
+	private final Path path;
+	private final Fractal fractal;
+	private final long millis;
+	private final Exception error;
+
+	// instantiates a result
+	private Job(Path path, Fractal fractal, long millis, Exception error){
+	    this.path = path;
+	    this.fractal = fractal;
+	    this.millis = millis;
+	    this.error = error;
+	}
+
+	/**
+	 * Returns the path of the descriptor
+	 *
+	 * @return The path of the descriptor
+	 */
+	public Path getPath(){
+	    return path;
+	}
+
+	/**
+	 * Returns the time spent on the render, without the time spent
+	 * waiting for memory
+	 *
+	 * @return The time spent, in milliseconds
+	 */
+	public long getMillis(){
+	    return millis;
+	}
+
+	/**
+	 * Returns true if the image was saved
+	 *
+	 * @return true if the render succeeded
+	 */
+	public boolean isSuccess(){
+	    return error == null;
+	}
+
+	@Override
+	public String toString(){
+	    String name = path.getFileName().toString();
+	    if(error != null)
+		return String.format("%-32s FAILED %s", name, error);
+	    return String.format("%-32s %5d x %-5d %8d ms  /tmp/%s.png", name,
+				 fractal.getWidth(), fractal.getHeight(),
+				 millis, fractal.getFileName());
+	}
+    }
+
+    /**
+     * This class holds the results of a batch of renders.
+     */
+    public static class Report {
+
+	// the renders and the total time
+	private final List<Job> jobs;
+	private final long millis;
+
+	// instantiates a report
+	private Report(List<Job> jobs, long millis){
+	    this.jobs = jobs;
+	    this.millis = millis;
+	}
+
+	/**
+	 * Returns the results of the renders, in the order of the
+	 * descriptors
+	 *
+	 * @return The results of the renders
+	 */
+	public List<Job> getJobs(){
+	    return jobs;
+	}
+
+	/**
+	 * Returns the number of renders that failed
+	 *
+	 * @return The number of failures
+	 */
+	public int getFailures(){
+	    int failures = 0;
+	    for(Job job : jobs)
+		if(!job.isSuccess())
+		    failures++;
+	    return failures;
+	}
+
+	/**
+	 * Saves this report in the text file of the specified Path path
+	 *
+	 * @param path The path of the report
+	 */
+	public void saveFile(Path path){
+	    try {
+		Files.writeString(path, toString());
+	    } catch(Exception e){
+		e.printStackTrace();
+		System.out.println("ERROR SAVING REPORT");
+	    }
+	}
+
+	@Override
+	public String toString(){
+	    StringBuilder sb = new StringBuilder();
+	    long rendering = 0;
+	    for(Job job : jobs){
+		sb.append(job).append('\n');
+		rendering += job.getMillis();
+	    }
+	    sb.append(jobs.size()).append(" descriptors, ")
+		.append(getFailures()).append(" failed, ")
+		.append(millis).append(" ms in total, ")
+		.append(rendering).append(" ms of rendering\n");
+	    return sb.toString();
+	}
+    }
+}
@@ -0,0 +1,369 @@
+package fractales.utils;
+
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+import fractales.model.*;
+
+/**
+ * This class renders a Buddhabrot by sampling parameters c at random and
+ * accumulating the points of the orbits that escape in a histogram of the
+ * pixels of the view.
+ * The parameters are drawn from a low resolution probe of the Mandelbrot
+ * set : the cells of the parameter plane whose orbits cross the view are
+ * sampled more often, every cell keeping a floor of probability, and the
+ * orbits of a cell are weighted by the inverse of its probability, so that
+ * the expected density is the one of uniform sampling. A cell the probe
+ * misses is still sampled, though with a higher variance.
+ * Each task of the shared pool accumulates in a histogram of its own, the
+ * histograms being only summed when an image is needed, so that threads
+ * never write to the same pixels.
+ * The samples are drawn in passes of growing size, the density after each
+ * pass being the one of all the samples drawn so far.
+ */
+public class BuddhabrotRenderer {
+
+    // cells of the probe along each axis of the parameter plane
+    private static final int PROBE_SIZE = 256;
+
+    // the parameters are drawn in [-2, 2] x [0, 2], their orbits being
+    // mirrored by the real axis
+    private static final double RE_MIN = -2.0;
+    private static final double CELL = 4.0 / PROBE_SIZE;
+    private static final int PROBE_ROWS = PROBE_SIZE / 2;
+
+    // share of the probability spread evenly over all the cells, so that
+    // the cells the probe misses are sampled anyway
+    private static final double UNIFORM_SHARE = 0.1;
+
+    // proportion of the pixels below the density given the highest index
+    private static final double BRIGHTEST = 0.999;
+
+    // samples of the first pass per pixel, doubled by each following pass
+    private static final double FIRST_PASS_PER_PIXEL = 0.25;
+
+    // the Buddhabrot and the inverse of its step
+    private final Buddhabrot fractal;
+    private final double scale;
+
+    // cumulative probabilities and orbit weights of the cells, row after row
+    private final double[] cumulative;
+    private final float[] weights;
+
+    // a histogram per task of a pass, indexed as i * height + j
+    private final float[][] histograms;
+
+    // path of the preview image
+    private final Path preview;
+
+    // metrics
+    private long sampled;
+    private int passes;
+    private final AtomicLong kept = new AtomicLong();
+    private long elapsedMillis;
+
+    // instantiates a renderer of fractal
+    private BuddhabrotRenderer(Buddhabrot fractal){
+	this.fractal = fractal;
+	this.scale = 1.0 / fractal.getDiscreteStep();
+	this.cumulative = new double[PROBE_SIZE * PROBE_ROWS];
+	this.weights = new float[PROBE_SIZE * PROBE_ROWS];
+	this.histograms = new float[DivergenceIndexMatrixCalculator.getPool()
+				    .getParallelism()][];
+	this.preview = Paths.get("/tmp/" + fractal.getFileName()
+				 + ".preview.png");
+    }
+
+    /**
+     * Returns a renderer of the specified Buddhabrot fractal, whose
+     * parameters are distributed after a probe of the Mandelbrot set
+     *
+     * @param fractal The Buddhabrot to render
+     * @return A renderer of fractal
+     */
+    public static BuddhabrotRenderer of(Buddhabrot fractal){
+	BuddhabrotRenderer renderer = new BuddhabrotRenderer(fractal);
+	renderer.probe();
+	return renderer;
+    }
+
+    // distributes the probability of the cells after the number of pixels
+    // of the view that the orbits of their corners cross, every cell
+    // keeping a uniform floor
+    private void probe(){
+	int[] hits = new int[(PROBE_SIZE + 1) * (PROBE_ROWS + 1)];
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new ProbeCalculator(0, PROBE_ROWS + 1, hits));
+	double[] scores = new double[cumulative.length];
+	double total = 0;
+	for(int b = 0; b < PROBE_ROWS; b++){
+	    for(int a = 0; a < PROBE_SIZE; a++){
+		int corner = b * (PROBE_SIZE + 1) + a;
+		int[] corners = {hits[corner], hits[corner + 1],
+				 hits[corner + PROBE_SIZE + 1],
+				 hits[corner + PROBE_SIZE + 2]};
+		double score = 0;
+		// the corners whose orbits stay bounded cross no pixel
+		for(int h : corners)
+		    if(h > 0)
+			score += h / 4.0;
+		scores[b * PROBE_SIZE + a] = score;
+		total += score;
+	    }
+	}
+	int cells = scores.length;
+	double uniform = total > 0 ? UNIFORM_SHARE : 1;
+	double sum = 0;
+	for(int k = 0; k < cells; k++){
+	    double p = uniform / cells
+		+ (total > 0 ? (1 - uniform) * scores[k] / total : 0);
+	    sum += p;
+	    cumulative[k] = sum;
+	    // relative to drawing every cell as often
+	    weights[k] = (float) (1.0 / (p * cells));
+	}
+    }
+
+    /**
+     * Draws the samples of the Buddhabrot in passes of growing size and
+     * returns its density. The density of the samples drawn so far is saved
+     * in /tmp/&lt;filename&gt;.preview.png after the passes that end at least
+     * previewMillis after the last saved preview, and deleted at the end.
+     *
+     * @param previewMillis The interval between two previews, or 0 for no
+     * preview
+     * @return The density of each pixel
+     */
+    public int[][] render(long previewMillis){
+	long begin = System.currentTimeMillis();
+	long lastPreview = begin;
+	long pixels = (long) fractal.getWidth() * fractal.getHeight();
+	long size = Math.max(histograms.length,
+			     (long) (FIRST_PASS_PER_PIXEL * pixels));
+	while(sampled < fractal.getSamples()){
+	    long pass = Math.min(size, fractal.getSamples() - sampled);
+	    sample(pass);
+	    sampled += pass;
+	    passes++;
+	    size *= 2;
+	    if(previewMillis > 0 && sampled < fractal.getSamples()
+	       && System.currentTimeMillis() - lastPreview >= previewMillis){
+		savePreview();
+		lastPreview = System.currentTimeMillis();
+	    }
+	}
+	int[][] matrix = getDivergenceIndexMatrix();
+	try {
+	    Files.deleteIfExists(preview);
+	} catch(Exception e){
+	    e.printStackTrace();
+	}
+	elapsedMillis = System.currentTimeMillis() - begin;
+	return matrix;
+    }
+
+    // draws the specified number of samples, split among the histograms
+    private void sample(long count){
+	List<ForkJoinTask<?>> tasks = new ArrayList<>();
+	for(int t = 0; t < histograms.length; t++){
+	    long share = count / histograms.length
+		+ (t < count % histograms.length ? 1 : 0);
+	    tasks.add(new SampleCalculator(t, share,
+					   new SplittableRandom(passes * 7919L
+								+ t)));
+	}
+	ForkJoinTask<?> pass = DivergenceIndexMatrixCalculator.getPool()
+	    .submit(() -> ForkJoinTask.invokeAll(tasks));
+	pass.join();
+    }
+
+    /**
+     * Returns the density of the samples drawn so far : the sum of the
+     * histograms, mapped to divergence indices by its square root so that
+     * the faint orbits remain visible. The densest pixels, beyond the
+     * proportion BRIGHTEST of the pixels, share the highest index
+     *
+     * @return The density of each pixel, from 0 to maxIteration - 1
+     */
+    public int[][] getDivergenceIndexMatrix(){
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	float[] sum = new float[w * h];
+	for(float[] histogram : histograms)
+	    if(histogram != null)
+		for(int k = 0; k < sum.length; k++)
+		    sum[k] += histogram[k];
+	// a few points where many orbits meet would darken the others
+	float[] sorted = sum.clone();
+	Arrays.sort(sorted);
+	float max = sorted[(int) (BRIGHTEST * (sorted.length - 1))];
+	if(max == 0)
+	    max = sorted[sorted.length - 1];
+	int top = fractal.getMaxIteration() - 1;
+	int[][] matrix = new int[w][h];
+	if(max == 0)
+	    return matrix;
+	for(int i = 0; i < w; i++)
+	    for(int j = 0; j < h; j++)
+		matrix[i][j] = (int) Math.round
+		    (top * Math.min(1.0, Math.sqrt(sum[i * h + j] / max)));
+	return matrix;
+    }
+
+    /**
+     * Saves the image of the density of the samples drawn so far
+     */
+    public void savePreview(){
+	FractalImage image = FractalImage.of(fractal);
+	try {
+	    // written under another name so that a viewer never reads a
+	    // partial image
+	    Path temporary = preview.resolveSibling(preview.getFileName()
+						     + ".tmp");
+	    ImageIO.write(image.createImage(getDivergenceIndexMatrix()), "PNG",
+			  temporary.toFile());
+	    Files.move(temporary, preview, StandardCopyOption.REPLACE_EXISTING,
+		       StandardCopyOption.ATOMIC_MOVE);
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR SAVING PREVIEW");
+	}
+    }
+
+    @Override
+    public String toString(){
+	return sampled + " orbits sampled in " + passes + " passes, "
+	    + kept.get() + " escaping, rendered in " + elapsedMillis + " ms";
+    }
+
+    // returns true if the parameter c is in the main cardioid or in the
+    // period 2 bulb, whose orbits never escape
+    private static boolean isInMainComponents(double re, double im){
+	double q = (re - 0.25) * (re - 0.25) + im * im;
+	if(q * (q + (re - 0.25)) <= 0.25 * im * im)
+	    return true;
+	return (re + 1) * (re + 1) + im * im <= 0.0625;
+    }
+
+    // iterates the orbit of c = re + i * im and adds its points to the
+    // histogram with the specified weight if it escapes, or only counts
+    // them if histogram is null. Returns the number of points of the
+    // orbit in the view, or -1 if it does not escape
+    private int addOrbit(double re, double im, float weight, float[] histogram,
+			 double[] orbitRe, double[] orbitIm){
+	if(isInMainComponents(re, im))
+	    return -1;
+	int maxIteration = fractal.getMaxIteration();
+	double radius = Fractal.RADIUS * Fractal.RADIUS;
+	int n = 0;
+	double zRe = 0;
+	double zIm = 0;
+	while(n < maxIteration - 1 && zRe * zRe + zIm * zIm <= radius){
+	    // z(n+1) = z(n)*z(n) + c
+	    double nextRe = zRe * zRe - zIm * zIm + re;
+	    zIm = 2 * zRe * zIm + im;
+	    zRe = nextRe;
+	    orbitRe[n] = zRe;
+	    orbitIm[n] = zIm;
+	    n++;
+	}
+	if(zRe * zRe + zIm * zIm <= radius)
+	    return -1;
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	double xMin = fractal.getXMin();
+	double yMax = fractal.getYMax();
+	int hits = 0;
+	for(int k = 0; k < n; k++){
+	    int i = (int) Math.floor((orbitRe[k] - xMin) * scale + 0.5);
+	    if(i < 0 || i >= w)
+		continue;
+	    // the point and its conjugate, the orbit of the conjugate of c
+	    int j = (int) Math.floor((yMax - orbitIm[k]) * scale + 0.5);
+	    if(j >= 0 && j < h){
+		hits++;
+		if(histogram != null)
+		    histogram[i * h + j] += weight;
+	    }
+	    j = (int) Math.floor((yMax + orbitIm[k]) * scale + 0.5);
+	    if(j >= 0 && j < h){
+		hits++;
+		if(histogram != null)
+		    histogram[i * h + j] += weight;
+	    }
+	}
+	return hits;
+    }
+
+    // probes the corners of the cells from row from to row to
+    private class ProbeCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	int[] hits; // resulting points in the view, or -1
+
+	ProbeCalculator(int from, int to, int[] hits){
+	    this.from = from;
+	    this.to = to;
+	    this.hits = hits;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= 4){
+		double[] orbitRe = new double[fractal.getMaxIteration()];
+		double[] orbitIm = new double[fractal.getMaxIteration()];
+		for(int b = from; b < to; b++)
+		    for(int a = 0; a <= PROBE_SIZE; a++)
+			hits[b * (PROBE_SIZE + 1) + a] =
+			    addOrbit(RE_MIN + a * CELL, b * CELL, 0f, null,
+				     orbitRe, orbitIm);
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new ProbeCalculator(from, middle, hits),
+		      new ProbeCalculator(middle, to, hits));
+	}
+    }
+
+    // draws samples into the histogram of index t
+    private class SampleCalculator extends RecursiveAction {
+	int t; // index of the histogram
+	long count; // number of samples
+	SplittableRandom random; // source of the parameters
+
+	SampleCalculator(int t, long count, SplittableRandom random){
+	    this.t = t;
+	    this.count = count;
+	    this.random = random;
+	}
+
+	@Override
+	protected void compute(){
+	    if(histograms[t] == null)
+		histograms[t] = new float[fractal.getWidth() * fractal.getHeight()];
+	    float[] histogram = histograms[t];
+	    double[] orbitRe = new double[fractal.getMaxIteration()];
+	    double[] orbitIm = new double[fractal.getMaxIteration()];
+	    double total = cumulative[cumulative.length - 1];
+	    long escaping = 0;
+	    for(long s = 0; s < count; s++){
+		int cell = Arrays.binarySearch(cumulative,
+					       random.nextDouble() * total);
+		if(cell < 0)
+		    cell = -cell - 1;
+		double re = RE_MIN + (cell % PROBE_SIZE + random.nextDouble())
+		    * CELL;
+		double im = (cell / PROBE_SIZE + random.nextDouble()) * CELL;
+		if(addOrbit(re, im, weights[cell], histogram, orbitRe,
+			    orbitIm) >= 0)
+		    escaping++;
+	    }
+	    kept.addAndGet(escaping);
+	}
+    }
+}
@@ -0,0 +1,334 @@
+package fractales.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+import fractales.model.*;
+
+/**
+ * This class renders a fractal tile by tile and appends every finished
+ * tile to a journal file, so that a render interrupted by the end of the
+ * process is continued by the next render of the same fractal instead of
+ * starting again. A partial image of the finished tiles can be saved
+ * periodically to follow the progress of long renders.
+ * Each record of the journal ends with a checksum : a record cut by a
+ * crash is dropped, and only its tile is computed again.
+ * The tiles are computed as the engine of the whole view computes them,
+ * the pixels it mirrors at the coordinates of their mirror, so that a
+ * resumed render gives the indices of a render of the whole view,
+ * whichever tiles were interrupted.
+ */
+public class CheckpointRenderer {
+
+    // identifies the files of this class
+    private static final int MAGIC = 0x4a524e4c;
+
+    // side in pixels of the tiles
+    private static final int TILE_SIZE = 128;
+
+    // the fractal to render and its divergence indices
+    private final Fractal fractal;
+    private final int[][] results;
+
+    // paths of the journal and of the partial image
+    private final Path journal;
+    private final Path preview;
+
+    // name of the engine of a render of the whole image, and the whole
+    // image when this engine does not compute regions
+    private final String engine;
+    private int[][] whole;
+
+    // true for the tiles read from the journal or computed
+    private final boolean[] done;
+
+    // number of tiles read from the journal
+    private int resumed;
+
+    // instantiates a renderer
+    private CheckpointRenderer(Fractal fractal, Path journal, Path preview){
+	this.fractal = fractal;
+	this.results = new int[fractal.getWidth()][fractal.getHeight()];
+	this.journal = journal;
+	this.preview = preview;
+	this.engine = RenderEngines.describe(fractal);
+	this.done = new boolean[getTileColumns() * getTileRows()];
+    }
+
+    /**
+     * Returns a renderer of the specified Fractal fractal whose journal is
+     * /tmp/&lt;filename&gt;.journal and whose partial image is
+     * /tmp/&lt;filename&gt;.preview.png. The tiles of the journal are read
+     * if it was written by a render of the same fractal.
+     *
+     * @param fractal The fractal to render
+     * @return A renderer of fractal
+     * @throws IllegalArgumentException if fractal is a Buddhabrot, whose
+     * pixels are not computed one by one, or in the cases of
+     * RenderEngines.select
+     */
+    public static CheckpointRenderer of(Fractal fractal){
+	if(fractal instanceof Buddhabrot)
+	    throw new IllegalArgumentException("No checkpoints of the "
+					       + "Buddhabrot");
+	String path = "/tmp/" + fractal.getFileName();
+	CheckpointRenderer renderer =
+	    new CheckpointRenderer(fractal, Paths.get(path + ".journal"),
+				   Paths.get(path + ".preview.png"));
+	renderer.readJournal();
+	return renderer;
+    }
+
+    /**
+     * Returns the number of tiles of the image
+     *
+     * @return The number of tiles
+     */
+    public int getTileCount(){
+	return done.length;
+    }
+
+    /**
+     * Returns the number of tiles read from the journal of a previous
+     * render instead of being computed
+     *
+     * @return The number of resumed tiles
+     */
+    public int getResumedTiles(){
+	return resumed;
+    }
+
+    /**
+     * Computes the tiles missing from the journal, appending each of them
+     * to the journal once finished, and saves the partial image every
+     * given number of milliseconds. The journal and the partial image are
+     * deleted once every tile is computed.
+     *
+     * @param previewMillis The time between two partial images, in
+     * milliseconds, or 0 for no partial image
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     * @throws IOException if the journal cannot be written
+     */
+    public int[][] render(long previewMillis) throws IOException {
+	try(FileChannel channel = FileChannel.open(journal,
+						   StandardOpenOption.CREATE,
+						   StandardOpenOption.WRITE)){
+	    if(channel.size() == 0)
+		writeHeader(channel);
+	    channel.position(channel.size());
+	    long lastPreview = System.currentTimeMillis();
+	    int rows = getTileRows();
+	    for(int t = 0; t < done.length; t++){
+		if(done[t])
+		    continue;
+		int[][] tile = computeTile(t / rows, t % rows);
+		place(t / rows, t % rows, tile);
+		appendRecord(channel, t / rows, t % rows, tile);
+		done[t] = true;
+		if(previewMillis > 0
+		   && System.currentTimeMillis() - lastPreview >= previewMillis){
+		    savePreview();
+		    lastPreview = System.currentTimeMillis();
+		}
+	    }
+	}
+	Files.deleteIfExists(journal);
+	Files.deleteIfExists(preview);
+	return results;
+    }
+
+    /**
+     * Saves the image of the finished tiles, the other tiles being black
+     */
+    public void savePreview(){
+	FractalImage image = FractalImage.of(fractal);
+	try {
+	    // written under another name so that a viewer never reads a
+	    // partial image
+	    Path temporary = preview.resolveSibling(preview.getFileName()
+						     + ".tmp");
+	    ImageIO.write(image.createImage(results), "PNG", temporary.toFile());
+	    Files.move(temporary, preview, StandardCopyOption.REPLACE_EXISTING,
+		       StandardCopyOption.ATOMIC_MOVE);
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR SAVING PREVIEW");
+	}
+    }
+
+    // returns the number of columns of tiles
+    private int getTileColumns(){
+	return (fractal.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    // returns the number of rows of tiles
+    private int getTileRows(){
+	return (fractal.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    // computes the divergence indices of the tile of column tc and row tr
+    // as the engine of the whole image does, mirrors included, so that the
+    // tiles match a render of the whole image. The engines that do not
+    // compute regions compute the whole image once, its tiles being then
+    // journaled one by one
+    private int[][] computeTile(int tc, int tr){
+	int x = tc * TILE_SIZE;
+	int y = tr * TILE_SIZE;
+	int w = Math.min(TILE_SIZE, fractal.getWidth() - x);
+	int h = Math.min(TILE_SIZE, fractal.getHeight() - y);
+	if(engine.equals("scalar"))
+	    return DivergenceIndexMatrixCalculator
+		.computeMirroredRegion(fractal, fractal.getPrecision(), x, y,
+				       w, h);
+	if(engine.equals("primitive"))
+	    return DivergenceIndexMatrixCalculator
+		.computeMirroredRegion(fractal,
+				       PrimitiveEngine.kernelOf(fractal), x,
+				       y, w, h);
+	// the lanes engine computes every pixel with the primitive kernel
+	if(engine.equals("lanes"))
+	    return DivergenceIndexMatrixCalculator
+		.computeRegion(fractal, PrimitiveEngine.kernelOf(fractal), x,
+			       y, w, h);
+	if(whole == null)
+	    whole = RenderEngines.computeMatrix(fractal);
+	int[][] tile = new int[w][];
+	for(int k = 0; k < w; k++)
+	    tile[k] = Arrays.copyOfRange(whole[x + k], y, y + h);
+	return tile;
+    }
+
+    // copies the tile of column tc and row tr into the results
+    private void place(int tc, int tr, int[][] tile){
+	for(int k = 0; k < tile.length; k++)
+	    System.arraycopy(tile[k], 0, results[tc * TILE_SIZE + k],
+			     tr * TILE_SIZE, tile[k].length);
+    }
+
+    // writes the header identifying the fractal of the journal
+    private void writeHeader(FileChannel channel) throws IOException {
+	byte[] key = DiskCache.keyOf(fractal).getBytes(StandardCharsets.UTF_8);
+	ByteBuffer buffer = ByteBuffer.allocate(3 * Integer.BYTES + key.length);
+	buffer.putInt(MAGIC);
+	buffer.putInt(TILE_SIZE);
+	buffer.putInt(key.length);
+	buffer.put(key);
+	buffer.flip();
+	while(buffer.hasRemaining())
+	    channel.write(buffer);
+    }
+
+    // appends the tile of column tc and row tr to the journal, and waits
+    // until it is on the disk
+    private void appendRecord(FileChannel channel, int tc, int tr,
+			      int[][] tile) throws IOException {
+	int w = tile.length;
+	int h = tile[0].length;
+	ByteBuffer buffer =
+	    ByteBuffer.allocate((3 + w * h) * Integer.BYTES + Long.BYTES);
+	buffer.putInt(tc);
+	buffer.putInt(tr);
+	buffer.putInt(w * h);
+	for(int[] column : tile)
+	    for(int index : column)
+		buffer.putInt(index);
+	CRC32 crc = new CRC32();
+	crc.update(buffer.array(), 0, buffer.position());
+	buffer.putLong(crc.getValue());
+	buffer.flip();
+	while(buffer.hasRemaining())
+	    channel.write(buffer);
+	channel.force(false);
+    }
+
+    // reads the tiles of the journal if it belongs to the fractal, cuts
+    // the records left incomplete by a crash, and deletes the journal of
+    // another fractal
+    private void readJournal(){
+	if(!Files.exists(journal))
+	    return;
+	try {
+	    long valid = 0;
+	    try(FileChannel channel = FileChannel.open(journal,
+						       StandardOpenOption.READ)){
+		ByteBuffer buffer =
+		    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		byte[] key =
+		    DiskCache.keyOf(fractal).getBytes(StandardCharsets.UTF_8);
+		if(buffer.remaining() < 3 * Integer.BYTES
+		   || buffer.getInt() != MAGIC
+		   || buffer.getInt() != TILE_SIZE
+		   || buffer.getInt() != key.length
+		   || buffer.remaining() < key.length)
+		    throw new IOException("Journal of another fractal");
+		byte[] read = new byte[key.length];
+		buffer.get(read);
+		if(!Arrays.equals(key, read))
+		    throw new IOException("Journal of another fractal");
+		valid = buffer.position();
+		while(readRecord(buffer))
+		    valid = buffer.position();
+	    }
+	    if(valid < Files.size(journal)){
+		try(FileChannel channel =
+		    FileChannel.open(journal, StandardOpenOption.WRITE)){
+		    channel.truncate(valid);
+		}
+	    }
+	} catch(Exception e){
+	    // starts again from an empty journal
+	    clear();
+	    try {
+		Files.deleteIfExists(journal);
+	    } catch(IOException ignored){
+	    }
+	}
+    }
+
+    // reads the next record of buffer into the results, returns false if
+    // there is no complete and valid record left
+    private boolean readRecord(ByteBuffer buffer){
+	int start = buffer.position();
+	if(buffer.remaining() < 3 * Integer.BYTES)
+	    return false;
+	int tc = buffer.getInt();
+	int tr = buffer.getInt();
+	int count = buffer.getInt();
+	if(tc < 0 || tc >= getTileColumns() || tr < 0 || tr >= getTileRows())
+	    return false;
+	int w = Math.min(TILE_SIZE, fractal.getWidth() - tc * TILE_SIZE);
+	int h = Math.min(TILE_SIZE, fractal.getHeight() - tr * TILE_SIZE);
+	if(count != w * h
+	   || buffer.remaining() < (long) count * Integer.BYTES + Long.BYTES)
+	    return false;
+	byte[] record = new byte[(3 + count) * Integer.BYTES];
+	buffer.get(start, record);
+	CRC32 crc = new CRC32();
+	crc.update(record);
+	int[][] tile = new int[w][h];
+	for(int[] column : tile)
+	    for(int l = 0; l < h; l++)
+		column[l] = buffer.getInt();
+	if(buffer.getLong() != crc.getValue())
+	    return false;
+	int t = tc * getTileRows() + tr;
+	if(!done[t]){
+	    place(tc, tr, tile);
+	    done[t] = true;
+	    resumed++;
+	}
+	return true;
+    }
+
+    // forgets the tiles read from the journal
+    private void clear(){
+	Arrays.fill(done, false);
+	resumed = 0;
+    }
+}
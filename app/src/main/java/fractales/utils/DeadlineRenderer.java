@@ -0,0 +1,258 @@
+package fractales.utils;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import fractales.model.*;
+
+/**
+ * This class renders a fractal within a given time. The image is computed
+ * by progressive passes : the first pass computes one pixel out of a large
+ * block and fills the whole block with it, every following pass halves the
+ * size of the blocks, until every pixel is computed or the time is over.
+ * The deadline is checked before each tile of each pass, so the rendering
+ * never goes past it by more than the work of one tile.
+ */
+public class DeadlineRenderer {
+
+    // side in pixels of the tiles of a pass
+    private static final int TILE_SIZE = 64;
+
+    // maximal number of pixels computed by the first pass
+    private static final int COARSE_PIXELS = 16384;
+
+    // share of the time spent on the estimation of the iteration budget
+    private static final double ESTIMATION_SHARE = 0.1;
+
+    // this class only has static methods
+    private DeadlineRenderer(){
+    }
+
+    /**
+     * Renders the specified Fractal fractal in at most the specified time.
+     * The maximal number of iterations of fractal is replaced by one
+     * estimated for its view in a tenth of that time.
+     *
+     * @param fractal The fractal to render
+     * @param millis The time allowed for the rendering, in milliseconds
+     * @return The result of the rendering and its quality
+     * @throws IllegalArgumentException if fractal is a Buddhabrot, whose
+     * pixels are not computed one by one
+     */
+    public static Result render(Fractal fractal, long millis){
+	if(fractal instanceof Buddhabrot)
+	    throw new IllegalArgumentException("No deadline for the "
+					       + "Buddhabrot");
+	long start = System.currentTimeMillis();
+	long deadline = start + millis;
+	int budget =
+	    IterationBudget.estimate(fractal, start
+				     + (long) (millis * ESTIMATION_SHARE));
+	fractal = fractal.toBuilder().maxIteration(budget).build();
+
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	int[][] results = new int[w][h];
+	int columns = (w + TILE_SIZE - 1) / TILE_SIZE;
+	int rows = (h + TILE_SIZE - 1) / TILE_SIZE;
+
+	// the first pass computes at most COARSE_PIXELS pixels, with blocks
+	// no larger than tiles
+	int block = 1;
+	while((long) (w / block) * (h / block) > COARSE_PIXELS
+	      && block < TILE_SIZE)
+	    block *= 2;
+
+	AtomicLong computed = new AtomicLong();
+	int finest = 0;
+	int passes = 0;
+	for(int b = block; b >= 1; b /= 2){
+	    if(System.currentTimeMillis() >= deadline)
+		break;
+	    AtomicInteger skipped = new AtomicInteger();
+	    DivergenceIndexMatrixCalculator.getPool()
+		.invoke(new PassCalculator(0, columns * rows, rows, b,
+					   b == block, deadline, results,
+					   fractal, computed, skipped));
+	    if(skipped.get() > 0)
+		break;
+	    finest = b;
+	    passes++;
+	}
+	return new Result(fractal, results, finest, passes,
+			  (double) computed.get() / ((long) w * h),
+			  System.currentTimeMillis() - start);
+    }
+
+    /**
+     * This class holds the result of a rendering with a deadline.
+     */
+    public static class Result {
+
+	// the rendered fractal and its divergence indices
+	private final Fractal fractal;
+	private final int[][] divergence;
+
+	// quality reached by the rendering
+	private final int blockSize;
+	private final int passes;
+	private final double coverage;
+	private final long elapsedMillis;
+
+	// instantiates a result
+	private Result(Fractal fractal, int[][] divergence, int blockSize,
+		       int passes, double coverage, long elapsedMillis){
+	    this.fractal = fractal;
+	    this.divergence = divergence;
+	    this.blockSize = blockSize;
+	    this.passes = passes;
+	    this.coverage = coverage;
+	    this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * Returns the rendered fractal, with the maximal number of
+	 * iterations chosen for the rendering
+	 *
+	 * @return The rendered fractal
+	 */
+	public Fractal getFractal(){
+	    return fractal;
+	}
+
+	/**
+	 * Returns the divergence indices of the rendered fractal. Pixels
+	 * that were not computed hold the index of the pixel that covers
+	 * their block
+	 *
+	 * @return A 2D array containing the divergence indices
+	 */
+	public int[][] getDivergenceIndexMatrix(){
+	    return divergence;
+	}
+
+	/**
+	 * Returns the side in pixels of the blocks of the last pass
+	 * completed over the whole image, 1 if every pixel was computed,
+	 * 0 if no pass was completed
+	 *
+	 * @return The side of the blocks of the last complete pass
+	 */
+	public int getBlockSize(){
+	    return blockSize;
+	}
+
+	/**
+	 * Returns the number of passes completed over the whole image
+	 *
+	 * @return The number of complete passes
+	 */
+	public int getPasses(){
+	    return passes;
+	}
+
+	/**
+	 * Returns the fraction of the pixels that were computed
+	 *
+	 * @return A value between 0 and 1
+	 */
+	public double getCoverage(){
+	    return coverage;
+	}
+
+	/**
+	 * Returns the time spent on the rendering
+	 *
+	 * @return The time spent, in milliseconds
+	 */
+	public long getElapsedMillis(){
+	    return elapsedMillis;
+	}
+
+	/**
+	 * Returns true if every pixel was computed before the deadline
+	 *
+	 * @return true if the rendering is complete
+	 */
+	public boolean isComplete(){
+	    return blockSize == 1;
+	}
+    }
+
+    // computes one pass over the tiles from index from to index to
+    private static class PassCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	int rows; // number of rows of tiles
+	int block; // side of the blocks of this pass
+	boolean first; // true if no pass was done before this one
+	long deadline; // time at which tiles are skipped
+	int[][] results; // resulting array of divergence indices
+	Fractal fractal; // the fractal being built
+	AtomicLong computed; // number of computed pixels
+	AtomicInteger skipped; // number of tiles skipped by this pass
+
+	PassCalculator(int from, int to, int rows, int block, boolean first,
+		       long deadline, int[][] results, Fractal fractal,
+		       AtomicLong computed, AtomicInteger skipped){
+	    this.from = from;
+	    this.to = to;
+	    this.rows = rows;
+	    this.block = block;
+	    this.first = first;
+	    this.deadline = deadline;
+	    this.results = results;
+	    this.fractal = fractal;
+	    this.computed = computed;
+	    this.skipped = skipped;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= 1){
+		for(int t = from; t < to; t++){
+		    if(System.currentTimeMillis() >= deadline){
+			skipped.incrementAndGet();
+			continue;
+		    }
+		    computeTile((t / rows) * TILE_SIZE,
+				(t % rows) * TILE_SIZE);
+		}
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new PassCalculator(from, middle, rows, block, first,
+					 deadline, results, fractal, computed,
+					 skipped),
+		      new PassCalculator(middle, to, rows, block, first,
+					 deadline, results, fractal, computed,
+					 skipped));
+	}
+
+	// computes the pixels of this pass in the tile whose upper left
+	// pixel is (x, y), and fills their blocks
+	private void computeTile(int x, int y){
+	    int w = Math.min(x + TILE_SIZE, fractal.getWidth());
+	    int h = Math.min(y + TILE_SIZE, fractal.getHeight());
+	    int count = 0;
+	    // tiles are aligned on blocks since TILE_SIZE is a power of two
+	    for(int i = x; i < w; i += block){
+		for(int j = y; j < h; j += block){
+		    // the previous pass computed the pixels on the even blocks
+		    if(!first && i % (2 * block) == 0 && j % (2 * block) == 0)
+			continue;
+		    int index =
+			fractal.computeDivergence
+			(Complex.of(fractal.getXMin()
+				    + (fractal.getDiscreteStep() * i),
+				    fractal.getYMax()
+				    - (fractal.getDiscreteStep() * j)));
+		    count++;
+		    for(int k = i; k < Math.min(i + block, w); k++)
+			for(int l = j; l < Math.min(j + block, h); l++)
+			    results[k][l] = index;
+		}
+	    }
+	    computed.addAndGet(count);
+	}
+    }
+}
@@ -0,0 +1,259 @@
+package fractales.utils;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.*;
+import fractales.model.*;
+
+/**
+ * This class keeps the divergence indices of rendered fractals in a
+ * directory, one memory-mapped file per fractal named after the SHA-256
+ * hash of its descriptor and the engine that computes it, the engines
+ * that guess pixels giving other indices. Rebuilding a fractal, or
+ * recoloring it, only maps its file instead of computing it again.
+ * Files are written under a temporary name and renamed once complete, so
+ * that processes sharing the directory never read a partial file. The
+ * least recently used files are deleted once the directory holds more
+ * than its capacity, under a lock shared by the processes.
+ * The capacity of the default cache is the fractales.cache system property,
+ * in megabytes, 0 turning it off.
+ */
+public class DiskCache {
+
+    // identifies the files of this class
+    private static final int MAGIC = 0x44495646;
+
+    // size in bytes of the header : magic, width and height
+    private static final int HEADER = 3 * Integer.BYTES;
+
+    // extension of the complete files
+    private static final String EXTENSION = ".div";
+
+    // age in milliseconds after which a temporary file is considered as
+    // left by a crashed process
+    private static final long STALE_MILLIS = 60 * 60 * 1000;
+
+    // default location and size of the cache. Its size is the
+    // fractales.cache system property, in megabytes
+    private static final String DEFAULT_DIRECTORY = "/tmp/fractales-cache";
+    private static final long DEFAULT_CAPACITY =
+	Math.max(0, Long.getLong("fractales.cache", 512)) << 20;
+
+    // cache shared by the renders of the application
+    private static final DiskCache DEFAULT =
+	new DiskCache(Paths.get(DEFAULT_DIRECTORY), DEFAULT_CAPACITY);
+
+    // monitor of the evictions of the caches of this process
+    private static final Object EVICTION = new Object();
+
+    // directory of the files and maximal size in bytes of its files
+    private final Path directory;
+    private final long capacity;
+
+    /**
+     * Instantiates a cache in the specified directory, which is created if
+     * needed
+     *
+     * @param directory The directory of the files of the cache
+     * @param capacity The maximal size in bytes of the files of the cache,
+     * 0 for a cache that keeps nothing
+     */
+    public DiskCache(Path directory, long capacity){
+	this.directory = directory;
+	this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cache shared by the renders of the application
+     *
+     * @return The default cache
+     */
+    public static DiskCache getDefault(){
+	return DEFAULT;
+    }
+
+    /**
+     * Returns the divergence indices of the specified Fractal fractal,
+     * mapped from the cache if it holds them, computed and cached otherwise
+     *
+     * @param fractal A fractal
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     */
+    public int[][] getDivergenceIndexMatrix(Fractal fractal){
+	int[][] matrix = load(fractal);
+	if(matrix == null){
+	    matrix = fractal.getDivergenceIndexMatrix();
+	    store(fractal, matrix);
+	}
+	return matrix;
+    }
+
+    /**
+     * Returns the cached divergence indices of the specified Fractal
+     * fractal
+     *
+     * @param fractal A fractal
+     * @return The divergence indices of fractal, or null if they are not
+     * cached
+     */
+    public int[][] load(Fractal fractal){
+	if(capacity == 0)
+	    return null;
+	Path path = pathOf(fractal);
+	if(!Files.exists(path))
+	    return null;
+	try(FileChannel channel = FileChannel.open(path,
+						   StandardOpenOption.READ)){
+	    MappedByteBuffer buffer =
+		channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	    int w = fractal.getWidth();
+	    int h = fractal.getHeight();
+	    if(buffer.getInt() != MAGIC || buffer.getInt() != w
+	       || buffer.getInt() != h)
+		throw new IOException("Not a divergence file of this fractal");
+	    IntBuffer indices = buffer.asIntBuffer();
+	    int[][] matrix = new int[w][h];
+	    for(int i = 0; i < w; i++)
+		indices.get(matrix[i]);
+	    // marks the file as recently used
+	    path.toFile().setLastModified(System.currentTimeMillis());
+	    return matrix;
+	} catch(NoSuchFileException e){
+	    // evicted by another process
+	    return null;
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("Error loading cached indices...");
+	    return null;
+	}
+    }
+
+    /**
+     * Caches the specified divergence indices of the specified Fractal
+     * fractal, then evicts the least recently used files if the cache is
+     * full
+     *
+     * @param fractal A fractal
+     * @param matrix The divergence indices of fractal
+     */
+    public void store(Fractal fractal, int[][] matrix){
+	long size = HEADER + 4L * fractal.getWidth() * fractal.getHeight();
+	if(size > Math.min(capacity, Integer.MAX_VALUE))
+	    return;
+	Path temporary = null;
+	try {
+	    Files.createDirectories(directory);
+	    temporary = Files.createTempFile(directory, keyOf(fractal), ".tmp");
+	    try(FileChannel channel =
+		FileChannel.open(temporary, StandardOpenOption.READ,
+				 StandardOpenOption.WRITE)){
+		MappedByteBuffer buffer =
+		    channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer.putInt(MAGIC);
+		buffer.putInt(fractal.getWidth());
+		buffer.putInt(fractal.getHeight());
+		IntBuffer indices = buffer.asIntBuffer();
+		for(int[] column : matrix)
+		    indices.put(column);
+		buffer.force();
+	    }
+	    Files.move(temporary, pathOf(fractal),
+		       StandardCopyOption.ATOMIC_MOVE,
+		       StandardCopyOption.REPLACE_EXISTING);
+	    evict();
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR CACHING INDICES");
+	    try {
+		if(temporary != null)
+		    Files.deleteIfExists(temporary);
+	    } catch(IOException ignored){
+	    }
+	}
+    }
+
+    // deletes the least recently used files until the cache fits in its
+    // capacity, and the temporary files of crashed processes. The lock is
+    // only held, never read
+    @SuppressWarnings("try")
+    private void evict() throws IOException {
+	// a FileLock only excludes the other processes, the threads of this
+	// one take turns on the monitor
+	synchronized(EVICTION){
+	    try(FileChannel channel =
+		FileChannel.open(directory.resolve(".lock"),
+				 StandardOpenOption.CREATE,
+				 StandardOpenOption.WRITE);
+		FileLock lock = channel.lock()){
+		File[] files = directory.toFile().listFiles();
+		if(files == null)
+		    return;
+		long now = System.currentTimeMillis();
+		List<File> cached = new ArrayList<>();
+		long total = 0;
+		for(File file : files){
+		    if(file.getName().endsWith(EXTENSION)){
+			cached.add(file);
+			total += file.length();
+		    } else if(file.getName().endsWith(".tmp")
+			      && now - file.lastModified() > STALE_MILLIS){
+			file.delete();
+		    }
+		}
+		cached.sort(Comparator.comparingLong(File::lastModified));
+		for(File file : cached){
+		    if(total <= capacity)
+			break;
+		    long length = file.length();
+		    // a reader that mapped the file keeps its content
+		    if(file.delete())
+			total -= length;
+		}
+	    }
+	}
+    }
+
+    // returns the path of the file of fractal, computed by its engine
+    private Path pathOf(Fractal fractal){
+	return directory.resolve(keyOf(fractal) + "-" + engineOf(fractal)
+				 + EXTENSION);
+    }
+
+    // returns the name of the engine of fractal, or the name of its type
+    // when it is not computed by a RenderEngine
+    private static String engineOf(Fractal fractal){
+	if(fractal instanceof Julia || fractal instanceof Mandelbrot)
+	    return RenderEngines.describe(fractal);
+	return fractal.getFractalType().name().toLowerCase();
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 hash of the descriptor of the
+     * specified Fractal fractal, which names its file in the cache
+     *
+     * @param fractal A fractal
+     * @return The key of fractal in the cache
+     */
+    public static String keyOf(Fractal fractal){
+	try {
+	    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+	    byte[] hash =
+		digest.digest(FractalText.of(fractal).getDescriptor()
+			      .getBytes(StandardCharsets.UTF_8));
+	    StringBuilder sb = new StringBuilder();
+	    for(byte b : hash)
+		sb.append(String.format("%02x", b));
+	    return sb.toString();
+	} catch(Exception e){
+	    // every Java platform provides SHA-256
+	    throw new IllegalStateException(e);
+	}
+    }
+}
@@ -0,0 +1,185 @@
+package fractales.utils;
+
+import java.io.File;
+import java.util.concurrent.RecursiveAction;
+import javax.imageio.ImageIO;
+import fractales.model.*;
+
+/**
+ * This class renders a fractal by the estimate of the distance from each
+ * pixel to the boundary of its set, in pixels : the pixels of the set, and
+ * those closer to it than THIN, take the index maxIteration - 1, so that
+ * the filaments thinner than a pixel are drawn; the others take their
+ * distance up to FAR pixels, the farther ones being the background.
+ * The estimate is a lower bound, so the disc around a pixel whose radius
+ * is its distance minus FAR pixels only holds background pixels. The
+ * pixels are computed from a coarse grid to the finer ones, each pixel
+ * far from the set filling its disc, so that the finer grids skip most of
+ * the exterior.
+ */
+public class DistanceRenderer {
+
+    // distance in pixels under which a pixel is drawn as the set
+    private static final double THIN = 0.5;
+
+    // distance in pixels of the background
+    private static final int FAR = 16;
+
+    // spacing in pixels of the first grid
+    private static final int COARSE = 16;
+
+    // the fractal and its indices
+    private final Fractal fractal;
+    private final int[][] results;
+
+    // true for the pixels computed or filled
+    private final boolean[][] known;
+
+    // distances in pixels of the pixels of the current grid
+    private final double[][] distances;
+
+    // metrics
+    private long computed;
+    private long filled;
+    private long elapsedMillis;
+
+    // instantiates a renderer
+    private DistanceRenderer(Fractal fractal){
+	this.fractal = fractal;
+	this.results = new int[fractal.getWidth()][fractal.getHeight()];
+	this.known = new boolean[fractal.getWidth()][fractal.getHeight()];
+	this.distances = new double[fractal.getWidth()][fractal.getHeight()];
+    }
+
+    /**
+     * Returns a renderer of the distances of the specified Fractal fractal
+     *
+     * @param fractal The fractal to render
+     * @return A renderer of fractal
+     * @throws IllegalArgumentException if fractal needs more precision than
+     * doubles, or if it is iterated by a formula
+     */
+    public static DistanceRenderer of(Fractal fractal){
+	if(fractal.getPrecision().isExtended())
+	    throw new IllegalArgumentException("View too deep for the "
+					       + "distance estimation");
+	// the derivatives of the orbits are only known for z * z + c
+	if(fractal instanceof Julia && ((Julia) fractal).getFormula() != null
+	   || fractal instanceof Mandelbrot
+	   && ((Mandelbrot) fractal).getFormula() != null)
+	    throw new IllegalArgumentException("No distance estimation for "
+					       + "formulas");
+	return new DistanceRenderer(fractal);
+    }
+
+    /**
+     * Computes the indices of the distances of the pixels, filling the
+     * discs of background pixels instead of computing them
+     *
+     * @return A 2D array containing the index of the distance of the
+     * corresponding complex number
+     */
+    public int[][] render(){
+	long begin = System.currentTimeMillis();
+	int top = fractal.getMaxIteration() - 1;
+	for(int s = COARSE; s >= 1; s /= 2){
+	    DivergenceIndexMatrixCalculator.getPool()
+		.invoke(new GridCalculator(0, (results.length + s - 1) / s, s));
+	    // the discs are filled once the whole grid is computed, so that
+	    // the result does not depend on the order of the threads
+	    for(int i = 0; i < results.length; i += s){
+		for(int j = 0; j < results[i].length; j += s){
+		    if(known[i][j])
+			continue;
+		    double d = distances[i][j];
+		    known[i][j] = true;
+		    computed++;
+		    results[i][j] = d < THIN ? top : (int) Math.min(FAR, d);
+		    if(d > FAR + 1)
+			fill(i, j, d - FAR);
+		}
+	    }
+	}
+	elapsedMillis = System.currentTimeMillis() - begin;
+	return results;
+    }
+
+    // gives the background index to the unknown pixels of the disc of the
+    // specified center and radius in pixels
+    private void fill(int ci, int cj, double radius){
+	int r = (int) radius;
+	for(int i = Math.max(0, ci - r);
+	    i <= Math.min(results.length - 1, ci + r); i++){
+	    int half = (int) Math.sqrt(radius * radius
+				       - (double) (i - ci) * (i - ci));
+	    for(int j = Math.max(0, cj - half);
+		j <= Math.min(results[i].length - 1, cj + half); j++){
+		if(!known[i][j]){
+		    known[i][j] = true;
+		    results[i][j] = FAR;
+		    filled++;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Computes the distances and saves their image as
+     * /tmp/&lt;filename&gt;.png, after the file name of the fractal
+     *
+     * @return The path to the image
+     */
+    public String saveFile(){
+	File file = new File("/tmp/" + fractal.getFileName() + ".png");
+	try {
+	    ImageIO.write(FractalImage.of(fractal).createImage(render()), "PNG",
+			  file);
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR SAVING PNG");
+	    System.exit(-1);
+	}
+	return file.getAbsolutePath();
+    }
+
+    @Override
+    public String toString(){
+	long total = computed + filled;
+	return computed + " pixels computed and " + filled + " filled ("
+	    + String.format("%.1f", 100.0 * filled / Math.max(1, total))
+	    + "%) in " + elapsedMillis + " ms";
+    }
+
+    // computes the unknown pixels of the columns of the grid of spacing s
+    // from index from to index to of the grid
+    private class GridCalculator extends RecursiveAction {
+	int from, to; // boundaries, in columns of the grid
+	int s; // spacing of the grid
+
+	GridCalculator(int from, int to, int s){
+	    this.from = from;
+	    this.to = to;
+	    this.s = s;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= Math.max(1, results.length / s / 8)){
+		double step = fractal.getDiscreteStep();
+		for(int gi = from; gi < to; gi++){
+		    int i = gi * s;
+		    for(int j = 0; j < results[i].length; j += s)
+			if(!known[i][j])
+			    distances[i][j] = fractal.computeDistance
+				(Complex.of(fractal.getXMin() + step * i,
+					    fractal.getYMax() - step * j))
+				/ step;
+		}
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new GridCalculator(from, middle, s),
+		      new GridCalculator(middle, to, s));
+	}
+    }
+}
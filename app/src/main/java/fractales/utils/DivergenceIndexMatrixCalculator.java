@@ -1,7 +1,11 @@
 package fractales.utils;
 
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveAction;
 import fractales.model.*;
+import fractales.model.Fractal.Precision;
+import fractales.model.Fractal.Symmetry;
 
 /**
  * This class is used to compute the divergence index matrix.
@@ -12,10 +16,74 @@ public class DivergenceIndexMatrixCalculator extends RecursiveAction {
     int[][] results; // resulting array of divergence indices
     Fractal fractal; // the fractal being built
 
+    // the pixel (i, j) mirrors the pixel (mirrorColumn - i, mirrorRow - j)
+    // when mirrorColumn is not NO_MIRROR, (i, mirrorRow - j) otherwise
+    int mirrorColumn = NO_MIRROR;
+    int mirrorRow = NO_MIRROR;
+
+    // true when the columns are copied from the mirrored columns
+    boolean copyColumns;
+
+    // true when the pixels of a region are computed at the coordinates of
+    // the pixels that computeMatrix copies to them
+    boolean mirroredRegion;
+
+    // the index (i, j) of results holds the pixel
+    // (columnOffset + i, rowOffset + j), without mirror
+    int columnOffset;
+    int rowOffset;
+
+    // precision of the orbits
+    Precision precision;
+
+    // creates the pixels of views that doubles cannot resolve, null when
+    // doubles are enough
+    ComplexNumber.Factory<?> factory;
+
+    // computes the pixels from their coordinates instead of the fractal,
+    // null to use the fractal
+    Kernel kernel;
+
+    // marks the absence of mirror
+    private static final int NO_MIRROR = Integer.MIN_VALUE;
+
+    // pool shared by every computation, so that successive renders do not
+    // pay for the creation of new threads. Its number of threads is the
+    // fractales.threads system property, the number of cores by default
+    private static final ForkJoinPool POOL =
+	new ForkJoinPool(Math.max(1, Integer.getInteger
+				  ("fractales.threads",
+				   Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * Computes the divergence index of a pixel from its coordinates, in
+     * place of the methods of the fractal
+     */
+    public interface Kernel {
+	/**
+	 * Computes the divergence index of the pixel of the specified
+	 * coordinates
+	 *
+	 * @param re The real part of the pixel
+	 * @param im The imaginary part of the pixel
+	 * @return The divergence index of the pixel
+	 */
+	int computeDivergence(double re, double im);
+    }
+
+    /**
+     * Returns the pool of threads in which divergence indices are computed
+     *
+     * @return The shared pool of threads
+     */
+    public static ForkJoinPool getPool(){
+	return POOL;
+    }
+
     /**
      * Instantiates a Calculator with the specified arguments
      *
-     * @param from The starting index 
+     * @param from The starting index
      * @param to The ending index
      * @param results The array to fill with divergence indices
      * @param fractal The fractal being built
@@ -26,32 +94,397 @@ public class DivergenceIndexMatrixCalculator extends RecursiveAction {
 	this.to = to;
 	this.results = results;
 	this.fractal = fractal;
+	this.precision = fractal.getPrecision();
+	if(precision.isExtended())
+	    factory = precision.factory(fractal.getDiscreteStep());
+    }
+
+    // instantiates a Calculator that computes orbits with precision and
+    // uses the symmetry of the fractal
+    private DivergenceIndexMatrixCalculator(int from, int to, int[][] results,
+					    Fractal fractal, Precision precision,
+					    int mirrorColumn, int mirrorRow,
+					    boolean copyColumns, Kernel kernel){
+	this.from = from;
+	this.to = to;
+	this.results = results;
+	this.fractal = fractal;
+	this.precision = precision;
+	if(precision.isExtended() && kernel == null)
+	    factory = precision.factory(fractal.getDiscreteStep());
+	this.mirrorColumn = mirrorColumn;
+	this.mirrorRow = mirrorRow;
+	this.copyColumns = copyColumns;
+	this.kernel = kernel;
+    }
+
+    /**
+     * Computes the divergence index matrix of the specified Fractal fractal.
+     * When the view contains the axis or the center of the symmetry of the
+     * fractal, only one half of the view is computed and the other half is
+     * mirrored from it. Mirrored pixels are matched to the nearest pixel of
+     * the grid, that is within half a discrete step of their exact mirror.
+     * Orbits are computed in the cheapest precision that resolves the
+     * discrete step. Views on the lattice of their step are assembled
+     * from the tiles of the default TileCache.
+     *
+     * @param fractal The fractal to compute
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     */
+    public static int[][] computeMatrix(Fractal fractal){
+	if(TileCache.isCacheable(fractal))
+	    return TileCache.getDefault().computeMatrix(fractal);
+	return computeMatrix(fractal, fractal.getPrecision());
+    }
+
+    /**
+     * Same as computeMatrix, but computes the orbits with the specified
+     * precision whatever the discrete step
+     *
+     * @param fractal The fractal to compute
+     * @param precision The precision of the orbits
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     */
+    public static int[][] computeMatrix(Fractal fractal, Precision precision){
+	return computeMatrix(fractal, precision, null);
+    }
+
+    /**
+     * Same as computeMatrix, but computes the pixels with the specified
+     * Kernel kernel, the symmetry of the fractal being used the same way
+     *
+     * @param fractal The fractal to compute
+     * @param kernel The kernel that computes the pixels of fractal
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     */
+    public static int[][] computeMatrix(Fractal fractal, Kernel kernel){
+	return computeMatrix(fractal, Precision.DOUBLE, kernel);
+    }
+
+    /**
+     * Returns the share of the pixels of the specified Fractal fractal
+     * that computeMatrix computes, the others being mirrored
+     *
+     * @param fractal A fractal
+     * @return The share of the pixels of fractal that are computed, between
+     * 0 and 1
+     */
+    public static double getComputedShare(Fractal fractal){
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	int row = getMirrorRow(fractal);
+	int column = getMirrorColumn(fractal);
+	Symmetry symmetry = fractal.getSymmetry();
+	// computeMatrix mirrors nothing when an axis is out of reach
+	if(row == NO_MIRROR || symmetry == Symmetry.ORIGIN
+	   && column == NO_MIRROR)
+	    return 1;
+	if(symmetry == Symmetry.REAL_AXIS){
+	    // rows in (row / 2, row] are mirrored
+	    int rows = Math.min(h - 1, row) - Math.max(0, row / 2 + 1) + 1;
+	    return 1 - Math.max(0, rows) / (double) h;
+	}
+	if(symmetry == Symmetry.ORIGIN){
+	    // columns in [split, column] whose mirrored row lies in the view
+	    int split = Math.max(0, Math.min(w, column / 2 + 1));
+	    int columns = Math.min(w - 1, column) - split + 1;
+	    int rows = Math.min(h - 1, row) - Math.max(0, row - h + 1) + 1;
+	    return 1 - Math.max(0, columns) * (double) Math.max(0, rows)
+		/ ((double) w * h);
+	}
+	return 1;
+    }
+
+    // computes the matrix of fractal with precision, or with kernel when it
+    // is not null
+    private static int[][] computeMatrix(Fractal fractal, Precision precision,
+					 Kernel kernel){
+	int w = fractal.getWidth();
+	int[][] results = new int[w][fractal.getHeight()];
+	// the mirror of the row j is 2 * yMax / step - j, the mirror of the
+	// column i is -2 * xMin / step - i
+	int row = getMirrorRow(fractal);
+	int column = getMirrorColumn(fractal);
+	Symmetry symmetry = fractal.getSymmetry();
+	// a view that holds no mirrored pair of pixels is computed whole
+	if(row == NO_MIRROR
+	   || symmetry == Symmetry.ORIGIN && column == NO_MIRROR)
+	    symmetry = Symmetry.NONE;
+
+	if(symmetry == Symmetry.REAL_AXIS){
+	    POOL.invoke(new DivergenceIndexMatrixCalculator
+			(0, w, results, fractal, precision, NO_MIRROR, row,
+			 false, kernel));
+	} else if(symmetry == Symmetry.ORIGIN){
+	    // the columns up to the center are computed, the following ones
+	    // are copied from them
+	    int split = Math.max(0, Math.min(w, column / 2 + 1));
+	    POOL.invoke(new DivergenceIndexMatrixCalculator
+			(0, split, results, fractal, precision, NO_MIRROR,
+			 NO_MIRROR, false, kernel));
+	    POOL.invoke(new DivergenceIndexMatrixCalculator
+			(split, w, results, fractal, precision, column, row,
+			 true, kernel));
+	} else {
+	    POOL.invoke(new DivergenceIndexMatrixCalculator
+			(0, w, results, fractal, precision, NO_MIRROR,
+			 NO_MIRROR, false, kernel));
+	}
+	return results;
+    }
+
+    // returns the sum of the indices of the rows that mirror each other
+    // around the real axis, NO_MIRROR when no two rows of the view do
+    static int getMirrorRow(Fractal fractal){
+	return getMirrorIndex(2.0 * fractal.getYMax()
+			      / fractal.getDiscreteStep(),
+			      fractal.getHeight());
+    }
+
+    // returns the sum of the indices of the columns that mirror each other
+    // around the imaginary axis, NO_MIRROR when no two columns of the view
+    // do
+    static int getMirrorColumn(Fractal fractal){
+	return getMirrorIndex(-2.0 * fractal.getXMin()
+			      / fractal.getDiscreteStep(),
+			      fractal.getWidth());
+    }
+
+    // rounds the sum of the indices of two mirrored lines, as a long so that
+    // the views far from the axis do not wrap to a small int, and returns it
+    // when both lines can lie among the size lines of the view
+    private static int getMirrorIndex(double sum, int size){
+	long index = Math.round(sum);
+	if(index < 0 || index > 2L * (size - 1))
+	    return NO_MIRROR;
+	return (int) index;
+    }
+
+    /**
+     * Computes the divergence indices of the pixels (i, j) of the specified
+     * Fractal fractal such that x &lt;= i &lt; x + w and y &lt;= j &lt; y + h,
+     * with the specified precision. Every pixel is computed, whatever the
+     * symmetry of the fractal, at the same coordinates as in a render of
+     * the whole view.
+     *
+     * @param fractal The fractal to compute
+     * @param precision The precision of the orbits
+     * @param x The column of the upper left pixel of the region
+     * @param y The row of the upper left pixel of the region
+     * @param w The width of the region
+     * @param h The height of the region
+     * @return A 2D array containing the divergence index of the pixel
+     * (x + i, y + j) at the index (i, j)
+     */
+    public static int[][] computeRegion(Fractal fractal, Precision precision,
+					int x, int y, int w, int h){
+	return computeRegion(fractal, precision, null, false, x, y, w, h);
+    }
+
+    /**
+     * Same as computeRegion, but computes the pixels with the specified
+     * Kernel kernel
+     *
+     * @param fractal The fractal to compute
+     * @param kernel Computes the pixels from their coordinates
+     * @param x The column of the upper left pixel of the region
+     * @param y The row of the upper left pixel of the region
+     * @param w The width of the region
+     * @param h The height of the region
+     * @return A 2D array containing the divergence index of the pixel
+     * (x + i, y + j) at the index (i, j)
+     */
+    public static int[][] computeRegion(Fractal fractal, Kernel kernel, int x,
+					int y, int w, int h){
+	return computeRegion(fractal, Precision.DOUBLE, kernel, false, x, y,
+			     w, h);
+    }
+
+    /**
+     * Same as computeRegion, but the pixels that computeMatrix copies from
+     * their mirror are computed at the coordinates of the mirror, so that
+     * the region holds the indices of a render of the whole view, up to the
+     * last bit.
+     *
+     * @param fractal The fractal to compute
+     * @param precision The precision of the orbits
+     * @param x The column of the upper left pixel of the region
+     * @param y The row of the upper left pixel of the region
+     * @param w The width of the region
+     * @param h The height of the region
+     * @return A 2D array containing the divergence index of the pixel
+     * (x + i, y + j) at the index (i, j)
+     */
+    public static int[][] computeMirroredRegion(Fractal fractal,
+						Precision precision, int x,
+						int y, int w, int h){
+	return computeRegion(fractal, precision, null, true, x, y, w, h);
+    }
+
+    /**
+     * Same as computeMirroredRegion, but computes the pixels with the
+     * specified Kernel kernel, as computeMatrix does with it
+     *
+     * @param fractal The fractal to compute
+     * @param kernel Computes the pixels from their coordinates
+     * @param x The column of the upper left pixel of the region
+     * @param y The row of the upper left pixel of the region
+     * @param w The width of the region
+     * @param h The height of the region
+     * @return A 2D array containing the divergence index of the pixel
+     * (x + i, y + j) at the index (i, j)
+     */
+    public static int[][] computeMirroredRegion(Fractal fractal,
+						Kernel kernel, int x, int y,
+						int w, int h){
+	return computeRegion(fractal, Precision.DOUBLE, kernel, true, x, y,
+			     w, h);
+    }
+
+    // computes the region of fractal with precision, or with kernel when it
+    // is not null, with the mirrors of computeMatrix when mirrored is true
+    private static int[][] computeRegion(Fractal fractal, Precision precision,
+					 Kernel kernel, boolean mirrored,
+					 int x, int y, int w, int h){
+	int[][] results = new int[w][h];
+	int row = NO_MIRROR;
+	int column = NO_MIRROR;
+	if(mirrored){
+	    row = getMirrorRow(fractal);
+	    column = getMirrorColumn(fractal);
+	    Symmetry symmetry = fractal.getSymmetry();
+	    // the same mirrors as computeMatrix
+	    if(row == NO_MIRROR
+	       || symmetry == Symmetry.ORIGIN && column == NO_MIRROR)
+		symmetry = Symmetry.NONE;
+	    if(symmetry != Symmetry.ORIGIN)
+		column = NO_MIRROR;
+	    if(symmetry == Symmetry.NONE)
+		row = NO_MIRROR;
+	}
+	DivergenceIndexMatrixCalculator calculator =
+	    new DivergenceIndexMatrixCalculator(0, w, results, fractal,
+						precision, column, row,
+						false, kernel);
+	calculator.mirroredRegion = mirrored;
+	calculator.columnOffset = x;
+	calculator.rowOffset = y;
+	POOL.invoke(calculator);
+	return results;
     }
 
     @Override
     protected void compute(){
-	if(to - from < fractal.getWidth() / 8){
+	if(to - from <= Math.max(1, results.length / 8)){
 	    computeDirectly();
 	    return;
 	}
 	int middle = (from + to) / 2;
-	invokeAll(new DivergenceIndexMatrixCalculator(from, middle, results,
-						      fractal),
-		  new DivergenceIndexMatrixCalculator(middle, to, results,
-						      fractal));
+	DivergenceIndexMatrixCalculator left =
+	    new DivergenceIndexMatrixCalculator(from, middle, results, fractal,
+						precision, mirrorColumn,
+						mirrorRow, copyColumns, kernel);
+	DivergenceIndexMatrixCalculator right =
+	    new DivergenceIndexMatrixCalculator(middle, to, results, fractal,
+						precision, mirrorColumn,
+						mirrorRow, copyColumns, kernel);
+	left.mirroredRegion = right.mirroredRegion = mirroredRegion;
+	left.columnOffset = right.columnOffset = columnOffset;
+	left.rowOffset = right.rowOffset = rowOffset;
+	invokeAll(left, right);
     }
 
     // computes divergence indices from index from to index to
     private void computeDirectly(){
+	int h = fractal.getHeight();
 	for(int i = from; i < to; i++){
-	    for(int j = 0; j < fractal.getHeight() - 1; j++){
-		Complex complex =
-		    Complex.of(fractal.getXMin()
-			       + (fractal.getDiscreteStep() * i),
-			       fractal.getYMax()
-			       - (fractal.getDiscreteStep() * j));
-		results[i][j] = fractal.computeDivergence(complex);
+	    if(copyColumns){
+		copyColumn(i);
+	    } else if(mirroredRegion){
+		for(int j = 0; j < results[i].length; j++)
+		    results[i][j] = computeMirroredPixel(columnOffset + i,
+							 rowOffset + j);
+	    } else if(mirrorRow != NO_MIRROR){
+		// rows in (mirrorRow / 2, mirrorRow] mirror the rows above
+		for(int j = 0; j < h; j++)
+		    if(j <= mirrorRow / 2 || j > mirrorRow)
+			results[i][j] = computePixel(i, j);
+		for(int j = Math.max(0, mirrorRow / 2 + 1);
+		    j <= mirrorRow && j < h; j++)
+		    results[i][j] = results[i][mirrorRow - j];
+	    } else {
+		for(int j = 0; j < results[i].length; j++)
+		    results[i][j] = computePixel(columnOffset + i, rowOffset + j);
 	    }
 	}
     }
+
+    // fills the column i from its mirror when it lies in the view
+    private void copyColumn(int i){
+	int h = fractal.getHeight();
+	int source = mirrorColumn - i;
+	for(int j = 0; j < h; j++){
+	    int mirror = mirrorRow - j;
+	    if(source >= 0 && mirror >= 0 && mirror < h)
+		results[i][j] = results[source][mirror];
+	    else
+		results[i][j] = computePixel(i, j);
+	}
+    }
+
+    // computes the pixel (i, j) at the coordinates of the pixel from which
+    // computeMatrix copies its index, its own when it is computed
+    private int computeMirroredPixel(int i, int j){
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	if(mirrorColumn != NO_MIRROR){
+	    // the columns from the center are copied where the mirrored
+	    // pixel lies in the view
+	    int split = Math.max(0, Math.min(w, mirrorColumn / 2 + 1));
+	    int source = mirrorColumn - i;
+	    int mirror = mirrorRow - j;
+	    if(i >= split && source >= 0 && mirror >= 0 && mirror < h)
+		return computePixel(source, mirror);
+	} else if(mirrorRow != NO_MIRROR && j > mirrorRow / 2
+		  && j <= mirrorRow){
+	    return computePixel(i, mirrorRow - j);
+	}
+	return computePixel(i, j);
+    }
+
+    // computes the divergence index of the pixel (i, j)
+    private int computePixel(int i, int j){
+	if(kernel != null)
+	    return kernel.computeDivergence(fractal.getXMin()
+					    + (fractal.getDiscreteStep() * i),
+					    fractal.getYMax()
+					    - (fractal.getDiscreteStep() * j));
+	if(factory != null)
+	    return computePrecisePixel(factory, i, j);
+	if(precision == Precision.FLOAT)
+	    return fractal.computeDivergence
+		((float) (fractal.getXMin() + (fractal.getDiscreteStep() * i)),
+		 (float) (fractal.getYMax() - (fractal.getDiscreteStep() * j)));
+	Complex complex =
+	    Complex.of(fractal.getXMin()
+		       + (fractal.getDiscreteStep() * i),
+		       fractal.getYMax()
+		       - (fractal.getDiscreteStep() * j));
+	return fractal.computeDivergence(complex);
+    }
+
+    // computes the divergence index of the pixel (i, j) with the precision
+    // of the numbers of factory
+    private <T extends ComplexNumber<T>> int computePrecisePixel
+	(ComplexNumber.Factory<T> factory, int i, int j){
+	BigDecimal step = new BigDecimal(fractal.getDiscreteStep());
+	T z = factory.of(fractal.getPreciseXMin()
+			 .add(step.multiply(BigDecimal.valueOf(i))),
+			 fractal.getPreciseYMax()
+			 .subtract(step.multiply(BigDecimal.valueOf(j))));
+	return fractal.computeDivergence(z, factory);
+    }
 }
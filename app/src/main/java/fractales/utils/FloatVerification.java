@@ -0,0 +1,109 @@
+package fractales.utils;
+
+import fractales.model.*;
+import fractales.model.Fractal.Precision;
+
+/**
+ * This class compares the divergence indices of a fractal computed with
+ * floats to the ones computed with doubles, in order to check that the
+ * float kernel can be trusted for a view.
+ */
+public class FloatVerification {
+
+    // results of the comparison
+    private final Fractal fractal;
+    private final int pixels;
+    private final int mismatches;
+    private final int maxDifference;
+    private final int firstI, firstJ; // first mismatching pixel, or -1
+
+    // instantiates a verification
+    private FloatVerification(Fractal fractal, int pixels, int mismatches,
+			      int maxDifference, int firstI, int firstJ){
+	this.fractal = fractal;
+	this.pixels = pixels;
+	this.mismatches = mismatches;
+	this.maxDifference = maxDifference;
+	this.firstI = firstI;
+	this.firstJ = firstJ;
+    }
+
+    /**
+     * Computes the specified Fractal fractal with floats and with doubles
+     * and compares the divergence indices of every pixel
+     *
+     * @param fractal The fractal to verify
+     * @return The result of the comparison
+     */
+    public static FloatVerification of(Fractal fractal){
+	int[][] floats =
+	    DivergenceIndexMatrixCalculator.computeMatrix(fractal,
+							  Precision.FLOAT);
+	int[][] doubles =
+	    DivergenceIndexMatrixCalculator.computeMatrix(fractal,
+							  Precision.DOUBLE);
+	int mismatches = 0;
+	int maxDifference = 0;
+	int firstI = -1;
+	int firstJ = -1;
+	for(int i = 0; i < floats.length; i++){
+	    for(int j = 0; j < floats[i].length; j++){
+		int difference = Math.abs(floats[i][j] - doubles[i][j]);
+		if(difference == 0)
+		    continue;
+		if(mismatches == 0){
+		    firstI = i;
+		    firstJ = j;
+		}
+		mismatches++;
+		maxDifference = Math.max(maxDifference, difference);
+	    }
+	}
+	return new FloatVerification(fractal, fractal.getWidth()
+				     * fractal.getHeight(), mismatches,
+				     maxDifference, firstI, firstJ);
+    }
+
+    /**
+     * Returns the number of pixels whose divergence index differs between
+     * floats and doubles
+     *
+     * @return The number of mismatching pixels
+     */
+    public int getMismatches(){
+	return mismatches;
+    }
+
+    /**
+     * Returns the largest difference between the divergence indices
+     * computed with floats and with doubles
+     *
+     * @return The largest difference of divergence index
+     */
+    public int getMaxDifference(){
+	return maxDifference;
+    }
+
+    /**
+     * Returns true if floats and doubles give the same divergence index
+     * for every pixel
+     *
+     * @return true if no pixel mismatches
+     */
+    public boolean isExact(){
+	return mismatches == 0;
+    }
+
+    @Override
+    public String toString(){
+	String report = "Float verification (automatic precision "
+	    + fractal.getPrecision() + ") : " + mismatches + " of " + pixels
+	    + " pixels mismatch ("
+	    + String.format("%.3f", 100.0 * mismatches / Math.max(1, pixels))
+	    + "%)";
+	if(mismatches > 0)
+	    report += ", largest difference " + maxDifference
+		+ " iterations, first at pixel (" + firstI + ", " + firstJ + ")";
+	return report;
+    }
+}
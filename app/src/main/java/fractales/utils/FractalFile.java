@@ -0,0 +1,440 @@
+package fractales.utils;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import fractales.model.*;
+import fractales.model.Fractal.FractalType;
+
+/**
+ * This class reads and writes the binary file of a fractal. Its header
+ * holds every parameter of the fractal, the corner with all its digits,
+ * and may be followed by the divergence indices of the fractal, so that
+ * the fractal is rebuilt without being computed again.
+ * The indices are cut in square tiles encoded separately : each index is
+ * stored as the difference with the previous one of its tile, as a
+ * variable length integer, and runs of equal indices as their length.
+ * An index table gives the position of every tile, so that a tile is read
+ * from the mapped file without decoding the others.
+ */
+public class FractalFile {
+
+    // identifies the files of this class
+    private static final int MAGIC = 0x46524143;
+
+    // version of the format, increased when the layout changes
+    private static final short VERSION = 1;
+
+    // side in pixels of the tiles
+    private static final int TILE_SIZE = 64;
+
+    // token announcing a run of indices equal to the previous one
+    private static final int RUN = 0;
+
+    // the mapped file and the fractal described by its header
+    private final ByteBuffer buffer;
+    private final Fractal fractal;
+
+    // position in the file of the index table, or -1 without indices
+    private final int table;
+
+    // instantiates a reader of the mapped file buffer
+    private FractalFile(ByteBuffer buffer, Fractal fractal, int table){
+	this.buffer = buffer;
+	this.fractal = fractal;
+	this.table = table;
+    }
+
+    /**
+     * Saves the specified Fractal fractal, and its divergence indices if
+     * they are given, in the file of the specified Path path
+     *
+     * @param fractal The fractal to save
+     * @param matrix The divergence indices of fractal, or null
+     * @param path The path of the file
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(Fractal fractal, int[][] matrix, Path path)
+	throws IOException {
+	ByteArrayOutputStream header = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(header);
+	out.writeInt(MAGIC);
+	out.writeShort(VERSION);
+	// the type may be followed by a formula
+	writeString(out, FractalText.typeLine(fractal));
+	if(fractal.getFractalType() == FractalType.JULIA){
+	    Julia julia = (Julia) fractal;
+	    writeComplex(out, julia.getComplexConstant());
+	    writeComplex(out, julia.getAlphaFactor());
+	    writeComplex(out, julia.getBetaFactor());
+	}
+	if(fractal.getFractalType() == FractalType.BUDDHABROT)
+	    out.writeLong(((Buddhabrot) fractal).getSamples());
+	out.writeInt(fractal.getMaxIteration());
+	out.writeDouble(fractal.getDiscreteStep());
+	writeString(out, fractal.getPreciseXMin().toString());
+	out.writeDouble(fractal.getXMax());
+	out.writeDouble(fractal.getYMin());
+	writeString(out, fractal.getPreciseYMax().toString());
+	out.writeInt(fractal.getWidth());
+	out.writeInt(fractal.getHeight());
+	writeString(out, fractal.getFileName());
+	out.writeFloat(fractal.getAlphaColor());
+	out.writeFloat(fractal.getBetaColor());
+	out.writeFloat(fractal.getGammaColor());
+	out.writeBoolean(matrix != null);
+
+	byte[][] tiles = new byte[0][];
+	if(matrix != null){
+	    int columns = tilesOf(fractal.getWidth());
+	    int rows = tilesOf(fractal.getHeight());
+	    tiles = new byte[columns * rows][];
+	    for(int tc = 0; tc < columns; tc++)
+		for(int tr = 0; tr < rows; tr++)
+		    tiles[tc * rows + tr] = encode(matrix, tc, tr);
+	    // the table follows the header and the tiles follow the table
+	    long offset = out.size() + (long) tiles.length * (Long.BYTES
+							      + Integer.BYTES);
+	    for(byte[] tile : tiles){
+		out.writeLong(offset);
+		out.writeInt(tile.length);
+		offset += tile.length;
+	    }
+	}
+	out.flush();
+
+	try(FileChannel channel =
+	    FileChannel.open(path, StandardOpenOption.CREATE,
+			     StandardOpenOption.TRUNCATE_EXISTING,
+			     StandardOpenOption.WRITE)){
+	    ByteBuffer[] buffers = new ByteBuffer[tiles.length + 1];
+	    buffers[0] = ByteBuffer.wrap(header.toByteArray());
+	    for(int t = 0; t < tiles.length; t++)
+		buffers[t + 1] = ByteBuffer.wrap(tiles[t]);
+	    long remaining = 0;
+	    for(ByteBuffer b : buffers)
+		remaining += b.remaining();
+	    while(remaining > 0)
+		remaining -= channel.write(buffers);
+	}
+    }
+
+    /**
+     * Maps the file of the specified Path path and reads its header. The
+     * divergence indices are only decoded when they are read.
+     *
+     * @param path The path of the file
+     * @return A reader of the file
+     * @throws IOException if the file cannot be read or is not a file of
+     * this class
+     */
+    public static FractalFile open(Path path) throws IOException {
+	ByteBuffer buffer;
+	try(FileChannel channel = FileChannel.open(path,
+						   StandardOpenOption.READ)){
+	    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				 channel.size());
+	}
+	try {
+	    if(buffer.getInt() != MAGIC)
+		throw new IOException("Not a fractal file");
+	    short version = buffer.getShort();
+	    if(version != VERSION)
+		throw new IOException("Unsupported fractal file version "
+				      + version);
+	    Fractal fractal = readHeader(buffer);
+	    int table = buffer.get() != 0 ? buffer.position() : -1;
+	    return new FractalFile(buffer, fractal, table);
+	} catch(RuntimeException e){
+	    // truncated file or invalid parameters
+	    throw new IOException("Invalid fractal file", e);
+	}
+    }
+
+    /**
+     * Returns a reader of the binary file with the specified name in /tmp/
+     *
+     * @param name The name of the file, without its extension
+     * @return A reader of the file, or null if it does not exist or cannot
+     * be read
+     */
+    public static FractalFile openIfExists(String name){
+	Path path = Paths.get("/tmp/" + name + ".frac");
+	if(!Files.exists(path))
+	    return null;
+	try {
+	    return open(path);
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("Error loading file...");
+	    return null;
+	}
+    }
+
+    /**
+     * Returns the fractal described by the header of the file
+     *
+     * @return The fractal of the file
+     */
+    public Fractal getFractal(){
+	return fractal;
+    }
+
+    /**
+     * Returns true if the file holds the divergence indices of its fractal
+     *
+     * @return true if the indices can be read
+     */
+    public boolean hasField(){
+	return table >= 0;
+    }
+
+    /**
+     * Returns the number of columns of tiles of the file
+     *
+     * @return The number of columns of tiles
+     */
+    public int getTileColumns(){
+	return tilesOf(fractal.getWidth());
+    }
+
+    /**
+     * Returns the number of rows of tiles of the file
+     *
+     * @return The number of rows of tiles
+     */
+    public int getTileRows(){
+	return tilesOf(fractal.getHeight());
+    }
+
+    /**
+     * Decodes the divergence indices of the specified tile. The tile of
+     * column tc and row tr holds the pixels (i, j) of the fractal such that
+     * i / 64 = tc and j / 64 = tr.
+     *
+     * @param tc The column of the tile
+     * @param tr The row of the tile
+     * @return The divergence indices of the pixels of the tile
+     * @throws IllegalStateException if the file holds no indices
+     * @throws IndexOutOfBoundsException if the tile is not in the file
+     */
+    public int[][] readTile(int tc, int tr){
+	if(!hasField())
+	    throw new IllegalStateException("No divergence indices");
+	int columns = getTileColumns();
+	int rows = getTileRows();
+	if(tc < 0 || tc >= columns || tr < 0 || tr >= rows)
+	    throw new IndexOutOfBoundsException("No tile (" + tc + ", " + tr
+						+ ")");
+	int entry = table + (tc * rows + tr) * (Long.BYTES + Integer.BYTES);
+	int offset = (int) buffer.getLong(entry);
+	int length = buffer.getInt(entry + Long.BYTES);
+	ByteBuffer data = buffer.duplicate();
+	data.limit(offset + length).position(offset);
+	int w = Math.min(TILE_SIZE, fractal.getWidth() - tc * TILE_SIZE);
+	int h = Math.min(TILE_SIZE, fractal.getHeight() - tr * TILE_SIZE);
+	int[][] tile = new int[w][h];
+	int previous = 0;
+	int run = 0;
+	for(int k = 0; k < w; k++){
+	    for(int l = 0; l < h; l++){
+		if(run > 0){
+		    run--;
+		} else {
+		    int token = readVarint(data);
+		    if(token == RUN)
+			run = readVarint(data);
+		    else
+			previous += (token >>> 1) ^ -(token & 1);
+		}
+		tile[k][l] = previous;
+	    }
+	}
+	return tile;
+    }
+
+    /**
+     * Decodes every tile of the file
+     *
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     * @throws IllegalStateException if the file holds no indices
+     */
+    public int[][] readMatrix(){
+	int[][] matrix = new int[fractal.getWidth()][fractal.getHeight()];
+	for(int tc = 0; tc < getTileColumns(); tc++){
+	    for(int tr = 0; tr < getTileRows(); tr++){
+		int[][] tile = readTile(tc, tr);
+		for(int k = 0; k < tile.length; k++)
+		    System.arraycopy(tile[k], 0, matrix[tc * TILE_SIZE + k],
+				     tr * TILE_SIZE, tile[k].length);
+	    }
+	}
+	return matrix;
+    }
+
+    // returns the number of tiles covering length pixels
+    private static int tilesOf(int length){
+	return (length + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    // encodes the indices of the tile of column tc and row tr of matrix
+    private static byte[] encode(int[][] matrix, int tc, int tr){
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	int w = Math.min(TILE_SIZE, matrix.length - tc * TILE_SIZE);
+	int h = Math.min(TILE_SIZE, matrix[0].length - tr * TILE_SIZE);
+	int previous = 0;
+	int run = 0;
+	for(int k = 0; k < w; k++){
+	    int[] column = matrix[tc * TILE_SIZE + k];
+	    for(int l = 0; l < h; l++){
+		int index = column[tr * TILE_SIZE + l];
+		if(index == previous){
+		    run++;
+		    continue;
+		}
+		if(run > 0){
+		    writeVarint(out, RUN);
+		    writeVarint(out, run - 1);
+		}
+		int delta = index - previous;
+		// zigzag, so that small negative differences stay short and
+		// only a difference of zero gives the token of runs
+		writeVarint(out, (delta << 1) ^ (delta >> 31));
+		previous = index;
+		run = 0;
+	    }
+	}
+	if(run > 0){
+	    writeVarint(out, RUN);
+	    writeVarint(out, run - 1);
+	}
+	return out.toByteArray();
+    }
+
+    // writes the unsigned integer value on 7 bits per byte
+    private static void writeVarint(ByteArrayOutputStream out, int value){
+	while((value & ~0x7F) != 0){
+	    out.write((value & 0x7F) | 0x80);
+	    value >>>= 7;
+	}
+	out.write(value);
+    }
+
+    // reads an integer written by writeVarint
+    private static int readVarint(ByteBuffer in){
+	int value = 0;
+	for(int shift = 0; ; shift += 7){
+	    byte b = in.get();
+	    value |= (b & 0x7F) << shift;
+	    if(b >= 0)
+		return value;
+	}
+    }
+
+    // writes the string s as its length followed by its UTF-8 bytes
+    private static void writeString(DataOutputStream out, String s)
+	throws IOException {
+	byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+	out.writeInt(bytes.length);
+	out.write(bytes);
+    }
+
+    // reads a string written by writeString
+    private static String readString(ByteBuffer in){
+	byte[] bytes = new byte[in.getInt()];
+	in.get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // writes the real and imaginary parts of z
+    private static void writeComplex(DataOutputStream out, Complex z)
+	throws IOException {
+	out.writeDouble(z.getRe());
+	out.writeDouble(z.getIm());
+    }
+
+    // reads a complex number written by writeComplex
+    private static Complex readComplex(ByteBuffer in){
+	return Complex.of(in.getDouble(), in.getDouble());
+    }
+
+    // reads the parameters of the header and builds its fractal
+    private static Fractal readHeader(ByteBuffer in){
+	String[] type = readString(in).split(" ", 2);
+	FractalType ft = FractalType.valueOf(type[0]);
+	Formula formula = type.length > 1 ? Formula.of(type[1]) : null;
+	Complex cc = null;
+	Complex af = null;
+	Complex bf = null;
+	if(ft == FractalType.JULIA){
+	    cc = readComplex(in);
+	    af = readComplex(in);
+	    bf = readComplex(in);
+	}
+	long samples = 0;
+	if(ft == FractalType.BUDDHABROT)
+	    samples = in.getLong();
+	int mi = in.getInt();
+	double ds = in.getDouble();
+	BigDecimal xmin = new BigDecimal(readString(in));
+	double xmax = in.getDouble();
+	double ymin = in.getDouble();
+	BigDecimal ymax = new BigDecimal(readString(in));
+	int w = in.getInt();
+	int h = in.getInt();
+	String fn = readString(in);
+	float ac = in.getFloat();
+	float bc = in.getFloat();
+	float gc = in.getFloat();
+
+	if(ft == FractalType.JULIA){
+	    return new Julia.Builder()
+		.complexConstant(cc)
+		.iterationFunction(af, bf)
+		.formula(formula)
+		.maxIteration(mi)
+		.discreteStep(ds)
+		.xMin(xmin)
+		.xMax(xmax)
+		.yMin(ymin)
+		.yMax(ymax)
+		.imageWidth(w)
+		.imageHeight(h)
+		.fileName(fn)
+		.colorFunction(ac, bc, gc)
+		.build();
+	}
+	if(ft == FractalType.BUDDHABROT){
+	    return new Buddhabrot.Builder()
+		.samples(samples)
+		.maxIteration(mi)
+		.discreteStep(ds)
+		.xMin(xmin)
+		.xMax(xmax)
+		.yMin(ymin)
+		.yMax(ymax)
+		.imageWidth(w)
+		.imageHeight(h)
+		.fileName(fn)
+		.colorFunction(ac, bc, gc)
+		.build();
+	}
+	return new Mandelbrot.Builder()
+	    .formula(formula)
+	    .maxIteration(mi)
+	    .discreteStep(ds)
+	    .xMin(xmin)
+	    .xMax(xmax)
+	    .yMin(ymin)
+	    .yMax(ymax)
+	    .imageWidth(w)
+	    .imageHeight(h)
+	    .fileName(fn)
+	    .colorFunction(ac, bc, gc)
+	    .build();
+    }
+}
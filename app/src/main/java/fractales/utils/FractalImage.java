@@ -1,9 +1,14 @@
 package fractales.utils;
 
+import fractales.model.Buddhabrot;
+import fractales.model.Complex;
 import fractales.model.Fractal;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.RecursiveAction;
 import javax.imageio.ImageIO;
 
 /**
@@ -19,6 +24,21 @@ public class FractalImage {
     // path to the file
     private String path;
 
+    // sub-pixels per side of the anti-aliased pixels, 1 without
+    // anti-aliasing, and difference of divergence index with a neighbour
+    // above which a pixel is anti-aliased
+    private int samples = 1;
+    private int threshold = DEFAULT_THRESHOLD;
+
+    // true if the indices are equalized before their color is taken
+    private boolean equalized;
+
+    /**
+     * Default difference of divergence index between neighbours above
+     * which a pixel is on an edge
+     */
+    public static final int DEFAULT_THRESHOLD = 2;
+
     // instantiates a FractalImage from a Fractal object
     private FractalImage(Fractal fractal){
 	this.fractal = fractal;
@@ -34,47 +54,210 @@ public class FractalImage {
 	return new FractalImage(fractal);
     }
 
+    /**
+     * Makes the images of this FractalImage anti-aliased : a pixel whose
+     * divergence index differs from the one of a neighbour by more than
+     * threshold takes the mean color of samples x samples sub-pixels
+     * spread over its area. The other pixels are in smooth regions and
+     * keep their color. Views that need more precision than doubles are
+     * not anti-aliased.
+     *
+     * @param samples The number of sub-pixels per side, 1 for no
+     * anti-aliasing
+     * @param threshold The difference of divergence index between two
+     * neighbours above which they are on an edge
+     * @return This FractalImage instance
+     * @throws IllegalArgumentException if the fractal is a Buddhabrot and
+     * samples is above 1, its sub-pixels having no density of their own
+     */
+    public FractalImage antiAliasing(int samples, int threshold){
+	if(samples > 1 && fractal instanceof Buddhabrot)
+	    throw new IllegalArgumentException("No anti-aliasing of the "
+					       + "Buddhabrot");
+	this.samples = Math.max(1, samples);
+	this.threshold = threshold;
+	return this;
+    }
+
+    /**
+     * Makes the images of this FractalImage equalized : each index outside
+     * the set is replaced, before its color is taken, by the share of the
+     * pixels outside the set of lower or equal index, spread over the
+     * indices below maxIteration - 1, so that the colors are spread evenly
+     * over the pixels instead of the iterations, which a deep zoom
+     * gathers in a few colors.
+     *
+     * @param equalized true to equalize the indices
+     * @return This FractalImage instance
+     */
+    public FractalImage equalized(boolean equalized){
+	this.equalized = equalized;
+	return this;
+    }
+
     /**
      * Returns a BufferedImage containing the representation of the fractal
      *
      * @return A BufferedImage containing the representation of the fractal
      */
     public BufferedImage createImage(){
+	return createImage(fractal.getDivergenceIndexMatrix());
+    }
+
+    /**
+     * Returns a BufferedImage containing the representation of the fractal
+     * from its already computed divergence indices
+     *
+     * @param divMatrix The divergence index matrix of the fractal
+     * @return A BufferedImage containing the representation of the fractal
+     */
+    public BufferedImage createImage(int[][] divMatrix){
 	int w = fractal.getWidth();
 	int h = fractal.getHeight();
 	var img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
 
-	int[][] divMatrix = fractal.getDivergenceIndexMatrix();
-	int rgb = 0;
+	int[] rgb = new int[w * h];
+	boolean antiAliased = samples > 1
+	    && !fractal.getPrecision().isExtended();
+	int[] palette = equalized ? createEqualizedPalette(divMatrix) : null;
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new ColorCalculator(0, w - 1, divMatrix, rgb, palette,
+					antiAliased));
+	img.setRGB(0, 0, w, h, rgb, 0, w);
+	return img;
+    }
+
+    // returns the color of the specified index, from the palette if it is
+    // not null
+    private int getColor(int[] palette, int index){
+	if(palette == null)
+	    return fractal.getColorFromDivergenceIndex(index);
+	return palette[Math.max(0, Math.min(palette.length - 1, index))];
+    }
+
+    // returns the colors of the equalized indices from 0 to maxIteration - 1.
+    // The histogram of the indices is counted by a task per thread, each
+    // over its own columns, then the histograms are merged and summed by
+    // blocks of indices in parallel, and the sums of the blocks are added
+    // to the following blocks
+    private int[] createEqualizedPalette(int[][] divMatrix){
+	int top = fractal.getMaxIteration() - 1;
+	int tasks = DivergenceIndexMatrixCalculator.getPool().getParallelism();
+	int[][] histograms = new int[tasks][];
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new HistogramCalculator(0, tasks, divMatrix, histograms));
+
+	int blocks = Math.min(tasks * 4, top + 1);
+	long[] cumulative = new long[top + 1];
+	long[] blockSums = new long[blocks];
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new PaletteCalculator(0, blocks, blocks, histograms,
+					  cumulative, blockSums, null, 0));
+	// offset of each block, the sum of the counts of the previous ones
+	long[] offsets = new long[blocks];
+	for(int b = 1; b < blocks; b++)
+	    offsets[b] = offsets[b - 1] + blockSums[b - 1];
+	long outside = offsets[blocks - 1] + blockSums[blocks - 1];
+	for(int[] histogram : histograms)
+	    outside -= histogram[top];
 
-	for(int i = 0; i < w - 1; i++){
-	    for(int j = 0; j < h - 1; j++){
-		rgb = fractal.getColorFromDivergenceIndex(divMatrix[i][j]);
-		img.setRGB(i, j, rgb);
+	int[] palette = new int[top + 1];
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new PaletteCalculator(0, blocks, blocks, histograms,
+					  cumulative, offsets, palette, outside));
+	return palette;
+    }
+
+    // returns true if the divergence index of the pixel (i, j) differs from
+    // the one of a neighbour by more than the threshold
+    private boolean isOnEdge(int[][] divMatrix, int i, int j){
+	int index = divMatrix[i][j];
+	for(int k = Math.max(0, i - 1); k <= Math.min(divMatrix.length - 1, i + 1);
+	    k++)
+	    for(int l = Math.max(0, j - 1);
+		l <= Math.min(divMatrix[k].length - 1, j + 1); l++)
+		if(Math.abs(divMatrix[k][l] - index) > threshold)
+		    return true;
+	return false;
+    }
+
+    // returns the mean color of the sub-pixels of the pixel (i, j), whose
+    // centers are spread evenly over the pixel around its own center
+    private int getAntiAliasedColor(int[] palette, int i, int j){
+	double step = fractal.getDiscreteStep();
+	int red = 0;
+	int green = 0;
+	int blue = 0;
+	for(int a = 0; a < samples; a++){
+	    double re = fractal.getXMin()
+		+ step * (i + (a + 0.5) / samples - 0.5);
+	    for(int b = 0; b < samples; b++){
+		double im = fractal.getYMax()
+		    - step * (j + (b + 0.5) / samples - 0.5);
+		int color = getColor(palette, fractal.computeDivergence
+				     (Complex.of(re, im)));
+		red += (color >> 16) & 0xff;
+		green += (color >> 8) & 0xff;
+		blue += color & 0xff;
 	    }
 	}
-	return img;
+	int n = samples * samples;
+	return ((red + n / 2) / n << 16) | ((green + n / 2) / n << 8)
+	    | ((blue + n / 2) / n);
     }
 
     /**
      * Creates an image of the fractal and saves it in a .png file
      * which name is the return value of the function getFileName() on the
-     * fractal, with .png concatenated
+     * fractal, with .png concatenated. The divergence indices are taken
+     * from the default DiskCache when the same fractal was already saved.
+     *
+     * @throws IOException if the image cannot be written
+     */
+    public void saveFile() throws IOException {
+	saveFile(DiskCache.getDefault().getDivergenceIndexMatrix(fractal));
+    }
+
+    /**
+     * Same as saveFile, but also keeps the orbits of the pixels that reached
+     * the maximal number of iterations in a .orbits file next to the
+     * descriptive text file. If this file holds the orbits of the same
+     * fractal computed with fewer iterations, only these orbits are
+     * continued instead of computing every pixel again.
+     *
+     * @throws IOException if the image cannot be written
      */
+    public void saveFileKeepingOrbits() throws IOException {
+	String orbitPath = "/tmp/" + fractal.getFileName() + ".orbits";
+	OrbitState state = OrbitState.loadFile(orbitPath);
+	if(state != null && state.isResumableBy(fractal)){
+	    state = state.resume(fractal);
+	} else {
+	    state = OrbitState.of(fractal);
+	}
+	state.saveFile(orbitPath);
+	saveFile(state.getDivergenceIndexMatrix());
+    }
 
-    public void saveFile(){
-	FractalText ft = FractalText.of(fractal);
-	ft.saveFile();
+    /**
+     * Same as saveFile, but the image is created from the specified
+     * divergence indices instead of computing them. The fractal and its
+     * indices are saved in a .frac file next to the image, from which it
+     * can be rebuilt without being computed again, and the fractal alone in
+     * the descriptive text file.
+     *
+     * @param divMatrix The divergence index matrix of the fractal
+     * @throws IOException if the image, the .frac file or the text file
+     * cannot be written
+     */
+    public void saveFile(int[][] divMatrix) throws IOException {
+	FractalFile.save(fractal, divMatrix,
+			 Paths.get("/tmp/" + fractal.getFileName() + ".frac"));
+	FractalText.of(fractal).saveFile();
 	File file =
 	    new File("/tmp/" + fractal.getFileName() + ".png");
 	path = file.getAbsolutePath();
-	try {
-	    ImageIO.write(createImage(), "PNG", file);
-	} catch (Exception e){
-	    e.printStackTrace();
-	    System.out.println("ERROR SAVING PNG");
-	    System.exit(-1);
-	}
+	ImageIO.write(createImage(divMatrix), "PNG", file);
     }
 
     /**
@@ -85,4 +268,153 @@ public class FractalImage {
     public String getPath(){
 	return path;
     }
+
+    // colors the columns from index from to index to of the image
+    private class ColorCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	int[][] divMatrix; // divergence indices of the fractal
+	int[] rgb; // resulting pixels of the image, row after row
+	int[] palette; // colors of the indices, or null
+	boolean antiAliased; // true if the edges are anti-aliased
+
+	ColorCalculator(int from, int to, int[][] divMatrix, int[] rgb,
+			int[] palette, boolean antiAliased){
+	    this.from = from;
+	    this.to = to;
+	    this.divMatrix = divMatrix;
+	    this.rgb = rgb;
+	    this.palette = palette;
+	    this.antiAliased = antiAliased;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= Math.max(1, divMatrix.length / 64)){
+		int w = fractal.getWidth();
+		int h = fractal.getHeight();
+		for(int i = from; i < to; i++){
+		    for(int j = 0; j < h - 1; j++){
+			rgb[j * w + i] = antiAliased && isOnEdge(divMatrix, i, j)
+			    ? getAntiAliasedColor(palette, i, j)
+			    : getColor(palette, divMatrix[i][j]);
+		    }
+		}
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new ColorCalculator(from, middle, divMatrix, rgb, palette,
+					  antiAliased),
+		      new ColorCalculator(middle, to, divMatrix, rgb, palette,
+					  antiAliased));
+	}
+    }
+
+    // counts the indices of the columns of the tasks from index from to
+    // index to, each task in its own histogram
+    private class HistogramCalculator extends RecursiveAction {
+	int from, to; // boundaries, in tasks
+	int[][] divMatrix; // divergence indices of the fractal
+	int[][] histograms; // histogram of each task
+
+	HistogramCalculator(int from, int to, int[][] divMatrix,
+			    int[][] histograms){
+	    this.from = from;
+	    this.to = to;
+	    this.divMatrix = divMatrix;
+	    this.histograms = histograms;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= 1){
+		int top = fractal.getMaxIteration() - 1;
+		int tasks = histograms.length;
+		for(int t = from; t < to; t++){
+		    int[] histogram = new int[top + 1];
+		    for(int i = t * divMatrix.length / tasks;
+			i < (t + 1) * divMatrix.length / tasks; i++)
+			for(int index : divMatrix[i])
+			    histogram[Math.max(0, Math.min(top, index))]++;
+		    histograms[t] = histogram;
+		}
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new HistogramCalculator(from, middle, divMatrix,
+					      histograms),
+		      new HistogramCalculator(middle, to, divMatrix,
+					      histograms));
+	}
+    }
+
+    // handles the blocks of indices from index from to index to. Without
+    // palette, merges the histograms into the sums of the counts of the
+    // lower indices of the block, and stores the sum of each block in sums.
+    // With a palette, adds the offset of each block in sums to the sums of
+    // its indices and computes their colors
+    private class PaletteCalculator extends RecursiveAction {
+	int from, to; // boundaries, in blocks
+	int blocks; // number of blocks
+	int[][] histograms; // histogram of each task
+	long[] cumulative; // sums of the counts of the lower indices
+	long[] sums; // sum of each block, or offset of each block
+	int[] palette; // resulting colors, or null
+	long outside; // number of pixels outside the set
+
+	PaletteCalculator(int from, int to, int blocks, int[][] histograms,
+			  long[] cumulative, long[] sums, int[] palette,
+			  long outside){
+	    this.from = from;
+	    this.to = to;
+	    this.blocks = blocks;
+	    this.histograms = histograms;
+	    this.cumulative = cumulative;
+	    this.sums = sums;
+	    this.palette = palette;
+	    this.outside = outside;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= 1){
+		for(int b = from; b < to; b++){
+		    if(palette == null)
+			sumBlock(b);
+		    else
+			colorBlock(b);
+		}
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new PaletteCalculator(from, middle, blocks, histograms,
+					    cumulative, sums, palette, outside),
+		      new PaletteCalculator(middle, to, blocks, histograms,
+					    cumulative, sums, palette, outside));
+	}
+
+	// first index of the block b
+	private int first(int b){
+	    return (int) ((long) b * cumulative.length / blocks);
+	}
+
+	private void sumBlock(int b){
+	    long sum = 0;
+	    for(int k = first(b); k < first(b + 1); k++){
+		for(int[] histogram : histograms)
+		    sum += histogram[k];
+		cumulative[k] = sum;
+	    }
+	    sums[b] = sum;
+	}
+
+	private void colorBlock(int b){
+	    int top = cumulative.length - 1;
+	    for(int k = first(b); k < first(b + 1); k++){
+		long sum = cumulative[k] + sums[b];
+		palette[k] = fractal.getColorFromDivergenceIndex
+		    (k == top || outside == 0 ? k
+		     : (int) (sum * (top - 1) / outside));
+	    }
+	}
+    }
 }
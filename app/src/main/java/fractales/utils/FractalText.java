@@ -1,9 +1,13 @@
 package fractales.utils;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.math.BigDecimal;
+import fractales.model.Buddhabrot;
 import fractales.model.Fractal;
 import fractales.model.Fractal.FractalType;
+import fractales.model.Formula;
 import fractales.model.Julia;
 import fractales.model.Complex;
 import fractales.model.Mandelbrot;
@@ -32,39 +36,84 @@ public class FractalText {
 	return new FractalText(fractal);
     }
 
+    /**
+     * Returns the lines of the descriptive text file that determine the
+     * divergence indices of the fractal, that is every parameter but the
+     * file name and the color function
+     *
+     * @return The description of the computation of the fractal
+     */
+    public String getDescriptor(){
+	StringBuilder sb = new StringBuilder();
+	sb.append(typeLine(fractal)).append('\n');
+	if(fractal.getFractalType() == FractalType.JULIA){
+	    sb.append(((Julia)fractal).getComplexConstant()).append('\n');
+	    sb.append(((Julia)fractal).getAlphaFactor()).append('\n');
+	    sb.append(((Julia)fractal).getBetaFactor()).append('\n');
+	}
+	if(fractal.getFractalType() == FractalType.BUDDHABROT)
+	    sb.append(((Buddhabrot)fractal).getSamples()).append('\n');
+	sb.append(fractal.getMaxIteration()).append('\n');
+	sb.append(fractal.getDiscreteStep()).append('\n');
+	sb.append(fractal.getPreciseXMin()).append('\n');
+	sb.append(fractal.getPreciseYMax()).append('\n');
+	sb.append(fractal.getWidth()).append('\n');
+	sb.append(fractal.getHeight()).append('\n');
+	return sb.toString();
+    }
+
+    /**
+     * Returns the line of the type of the specified Fractal fractal,
+     * followed by its formula if it has one
+     *
+     * @param fractal A fractal
+     * @return The type of fractal and its formula
+     */
+    static String typeLine(Fractal fractal){
+	Formula formula = null;
+	if(fractal instanceof Julia)
+	    formula = ((Julia) fractal).getFormula();
+	if(fractal instanceof Mandelbrot)
+	    formula = ((Mandelbrot) fractal).getFormula();
+	return formula == null ? fractal.getFractalType().name()
+	    : fractal.getFractalType() + " " + formula;
+    }
+
     /**
      * Saves at the same location of the fractal image a descriptive text file
      * that allows the user to load the generated fractal
+     *
+     * @throws IOException if the text file cannot be written
      */
-    public void saveFile(){
-	try{
-	    String path = "/tmp/" + fractal.getFileName() + ".txt";
-	    File file = new File(path);
+    public void saveFile() throws IOException {
+	String path = "/tmp/" + fractal.getFileName() + ".txt";
+	File file = new File(path);
 
-	    PrintWriter pw = new PrintWriter(file);
-	    pw.println(fractal.getFractalType());
+	try(PrintWriter pw = new PrintWriter(file)){
+	    pw.println(typeLine(fractal));
 	    if(fractal.getFractalType() == FractalType.JULIA){
 		pw.println(((Julia)fractal).getComplexConstant());
 		pw.println(((Julia)fractal).getAlphaFactor());
 		pw.println(((Julia)fractal).getBetaFactor());
 	    }
+	    if(fractal.getFractalType() == FractalType.BUDDHABROT)
+		pw.println(((Buddhabrot)fractal).getSamples());
 	    pw.println(fractal.getMaxIteration());
 	    pw.println(fractal.getDiscreteStep());
-	    pw.println(fractal.getXMin());
+	    // all the digits of the corner, so that deep views are reproduced
+	    pw.println(fractal.getPreciseXMin().toString());
 	    pw.println(fractal.getXMax());
 	    pw.println(fractal.getYMin());
-	    pw.println(fractal.getYMax());
+	    pw.println(fractal.getPreciseYMax().toString());
 	    pw.println(fractal.getWidth());
 	    pw.println(fractal.getHeight());
 	    pw.println(fractal.getFileName());
 	    pw.println(fractal.getAlphaColor());
 	    pw.println(fractal.getBetaColor());
 	    pw.println(fractal.getGammaColor());
-	    pw.close();
-	} catch(Exception e){
-	    e.printStackTrace();
-	    System.out.println("ERROR SAVING TXT");
-	    System.exit(-1);
+	    // a PrintWriter keeps its errors
+	    if(pw.checkError())
+		throw new IOException("Cannot write " + path);
 	}
     }
 
@@ -81,22 +130,29 @@ public class FractalText {
 	    Complex cc = null;
 	    Complex af = null;
 	    Complex bf = null;
-	    FractalType ft = FractalType.valueOf(sc.nextLine());
+	    // the type may be followed by a formula
+	    String[] type = sc.nextLine().split(" ", 2);
+	    FractalType ft = FractalType.valueOf(type[0]);
+	    Formula formula = type.length > 1 ? Formula.of(type[1]) : null;
 	    if(ft == FractalType.JULIA){
 		cc = Complex.fromString(sc.nextLine());
 		af = Complex.fromString(sc.nextLine());
 		bf = Complex.fromString(sc.nextLine());
 	    }
+	    long samples = 0;
+	    if(ft == FractalType.BUDDHABROT)
+		samples = Long.parseLong(sc.nextLine());
 	    int mi = sc.nextInt();
 	    double ds = sc.nextDouble();
-	    double xmin = sc.nextDouble();
+	    BigDecimal xmin = new BigDecimal(sc.next());
 	    double xmax = sc.nextDouble();
 	    double ymin = sc.nextDouble();
-	    double ymax = sc.nextDouble();
+	    BigDecimal ymax = new BigDecimal(sc.next());
 	    int w = sc.nextInt();
 	    int h = sc.nextInt();
-	    String fn = sc.nextLine();
+	    // skips the end of the line of the height
 	    sc.nextLine();
+	    String fn = sc.nextLine();
 	    float ac = sc.nextFloat();
 	    float bc = sc.nextFloat();
 	    float gc = sc.nextFloat();
@@ -108,6 +164,7 @@ public class FractalText {
 		    new Julia.Builder()
 		    .complexConstant(cc)
 		    .iterationFunction(af, bf)
+		    .formula(formula)
 		    .maxIteration(mi)
 		    .discreteStep(ds)
 		    .xMin(xmin)
@@ -120,10 +177,28 @@ public class FractalText {
 		    .colorFunction(ac, bc, gc)
 		    .build();
 	    }
-	    
+
 	    if(ft == FractalType.MANDELBROT) {
 		fractal =
 		    new Mandelbrot.Builder()
+		    .formula(formula)
+		    .maxIteration(mi)
+		    .discreteStep(ds)
+		    .xMin(xmin)
+		    .xMax(xmax)
+		    .yMin(ymin)
+		    .yMax(ymax)
+		    .imageWidth(w)
+		    .imageHeight(h)
+		    .fileName(fn)
+		    .colorFunction(ac, bc, gc)
+		    .build();
+	    }
+
+	    if(ft == FractalType.BUDDHABROT) {
+		fractal =
+		    new Buddhabrot.Builder()
+		    .samples(samples)
 		    .maxIteration(mi)
 		    .discreteStep(ds)
 		    .xMin(xmin)
@@ -0,0 +1,223 @@
+package fractales.utils;
+
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+
+/**
+ * This class chooses the maximal number of iterations of a fractal from its
+ * view, and renders fractals by tiles whose iteration budget is only raised
+ * where pixels keep escaping near the current budget.
+ */
+public class IterationBudget {
+
+    // bounds of the budgets that can be chosen
+    private static final int MIN_BUDGET = 64;
+    private static final int MAX_BUDGET = 1 << 20;
+
+    // number of samples along the largest side of the view
+    private static final int SAMPLES = 64;
+
+    // fraction of the samples that may escape in the upper half of the
+    // budget without raising it
+    private static final double TAIL = 0.005;
+
+    // side in pixels of the tiles refined independently
+    private static final int TILE_SIZE = 32;
+
+    // this class only has static methods
+    private IterationBudget(){
+    }
+
+    /**
+     * Estimates the maximal number of iterations suited to the view of the
+     * specified Fractal fractal. The view is sampled at low resolution and
+     * the budget is doubled as long as more than a tiny fraction of the
+     * samples escape in the upper half of the budget.
+     *
+     * @param fractal The fractal whose view is sampled
+     * @return The estimated maximal number of iterations
+     */
+    public static int estimate(Fractal fractal){
+	return estimate(fractal, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as estimate, but stops raising the budget once the specified
+     * deadline is reached
+     *
+     * @param fractal The fractal whose view is sampled
+     * @param deadline The time in milliseconds, as given by
+     * System.currentTimeMillis(), at which the estimation stops
+     * @return The estimated maximal number of iterations
+     */
+    public static int estimate(Fractal fractal, long deadline){
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	int columns = Math.max(1, (int) Math.round((double) SAMPLES * w
+						   / Math.max(w, h)));
+	int rows = Math.max(1, (int) Math.round((double) SAMPLES * h
+						/ Math.max(w, h)));
+
+	// samples lie on pixels of the view
+	Complex[] samples = new Complex[columns * rows];
+	Complex[] orbits = new Complex[samples.length];
+	int[] iterations = new int[samples.length];
+	for(int k = 0; k < columns; k++){
+	    for(int l = 0; l < rows; l++){
+		int i = (int) ((long) k * w / columns);
+		int j = (int) ((long) l * h / rows);
+		Complex z =
+		    Complex.of(fractal.getXMin()
+			       + fractal.getDiscreteStep() * i,
+			       fractal.getYMax()
+			       - fractal.getDiscreteStep() * j);
+		samples[k * rows + l] = z;
+		orbits[k * rows + l] = fractal.getOrbitStart(z);
+	    }
+	}
+
+	int budget = MIN_BUDGET;
+	while(true){
+	    int late = 0;
+	    for(int s = 0; s < samples.length; s++){
+		if(System.currentTimeMillis() >= deadline)
+		    return Math.max(MIN_BUDGET, budget / 2);
+		Complex zn = orbits[s];
+		int iteration = iterations[s];
+		while(iteration < budget - 1
+		      && zn.modulus() <= Fractal.RADIUS){
+		    zn = fractal.iterate(zn, samples[s]);
+		    iteration++;
+		}
+		orbits[s] = zn;
+		iterations[s] = iteration;
+		if(iteration >= budget / 2 && iteration < budget - 1)
+		    late++;
+	    }
+	    if(late <= TAIL * samples.length || budget >= MAX_BUDGET)
+		return budget;
+	    budget *= 2;
+	}
+    }
+
+    /**
+     * Returns a copy of the specified Fractal fractal whose maximal number
+     * of iterations is the one estimated for its view
+     *
+     * @param fractal A fractal
+     * @return A copy of fractal with an estimated maximal number of iterations
+     */
+    public static Fractal applyTo(Fractal fractal){
+	return fractal.toBuilder().maxIteration(estimate(fractal)).build();
+    }
+
+    /**
+     * Computes the divergence indices of the specified Fractal fractal tile
+     * by tile. Every tile starts with a small budget that is doubled, up to
+     * the maximal number of iterations of fractal, while some of its pixels
+     * escape in the upper half of the budget. The refinement of a tile stops
+     * when no pixel reaches the current budget : the pixels still undecided
+     * are then considered as inside the set.
+     *
+     * @param fractal The fractal to compute
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     */
+    public static int[][] getDivergenceIndexMatrix(Fractal fractal){
+	int[][] results = new int[fractal.getWidth()][fractal.getHeight()];
+	int columns = (fractal.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+	int rows = (fractal.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new TileCalculator(0, columns * rows, rows, results,
+				       fractal));
+	return results;
+    }
+
+    // refines the tiles from index from to index to
+    private static class TileCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	int rows; // number of rows of tiles
+	int[][] results; // resulting array of divergence indices
+	Fractal fractal; // the fractal being built
+
+	TileCalculator(int from, int to, int rows, int[][] results,
+		       Fractal fractal){
+	    this.from = from;
+	    this.to = to;
+	    this.rows = rows;
+	    this.results = results;
+	    this.fractal = fractal;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= 4){
+		for(int t = from; t < to; t++)
+		    computeTile((t / rows) * TILE_SIZE, (t % rows) * TILE_SIZE);
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new TileCalculator(from, middle, rows, results, fractal),
+		      new TileCalculator(middle, to, rows, results, fractal));
+	}
+
+	// computes the tile whose upper left pixel is (x, y)
+	private void computeTile(int x, int y){
+	    int w = Math.min(TILE_SIZE, fractal.getWidth() - x);
+	    int h = Math.min(TILE_SIZE, fractal.getHeight() - y);
+	    int max = fractal.getMaxIteration();
+	    Complex[] samples = new Complex[w * h];
+	    Complex[] orbits = new Complex[w * h];
+	    for(int i = 0; i < w; i++){
+		for(int j = 0; j < h; j++){
+		    Complex z =
+			Complex.of(fractal.getXMin()
+				   + fractal.getDiscreteStep() * (x + i),
+				   fractal.getYMax()
+				   - fractal.getDiscreteStep() * (y + j));
+		    samples[i * h + j] = z;
+		    orbits[i * h + j] = fractal.getOrbitStart(z);
+		}
+	    }
+
+	    int previous = 0; // budget of the previous pass
+	    int budget = Math.min(MIN_BUDGET, max);
+	    boolean refine = true;
+	    while(refine){
+		int late = 0;
+		int undecided = 0;
+		for(int p = 0; p < samples.length; p++){
+		    int i = p / h;
+		    int j = p % h;
+		    int iteration = results[x + i][y + j];
+		    // escaped pixels are final
+		    if(previous > 0 && iteration < previous - 1)
+			continue;
+		    Complex zn = orbits[p];
+		    while(iteration < budget - 1
+			  && zn.modulus() <= Fractal.RADIUS){
+			zn = fractal.iterate(zn, samples[p]);
+			iteration++;
+		    }
+		    orbits[p] = zn;
+		    results[x + i][y + j] = iteration;
+		    if(iteration == budget - 1)
+			undecided++;
+		    else if(iteration >= budget / 2 - 1)
+			late++;
+		}
+		refine = undecided > 0 && late > 0 && budget < max;
+		if(refine){
+		    previous = budget;
+		    budget = (int) Math.min((long) budget * 2, max);
+		}
+	    }
+
+	    // undecided pixels are considered as inside the set
+	    for(int i = 0; i < w; i++)
+		for(int j = 0; j < h; j++)
+		    if(results[x + i][y + j] == budget - 1)
+			results[x + i][y + j] = max - 1;
+	}
+    }
+}
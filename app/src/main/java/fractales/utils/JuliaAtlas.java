@@ -0,0 +1,227 @@
+package fractales.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.RecursiveAction;
+import javax.imageio.ImageIO;
+import fractales.model.*;
+
+/**
+ * This class renders an atlas of Julia sets : a grid of thumbnails whose
+ * complex constants sample a rectangle of the parameter plane, the
+ * constant of a thumbnail being the center of its cell. Every thumbnail
+ * shares the view of a Julia set, so each pixel of the view is iterated
+ * for several constants at once, in lanes whose orbits are independent
+ * and therefore overlap in the processor, instead of building a Julia set
+ * per thumbnail. The thumbnails of a view iterated by a formula are
+ * computed by its compiled kernel, one constant at a time.
+ */
+public class JuliaAtlas {
+
+    // number of constants iterated together for a pixel
+    private static final int LANES = 8;
+
+    // the view and the parameters shared by the thumbnails
+    private final Julia view;
+
+    // rectangle of the parameter plane and number of thumbnails
+    private final double reMin, reMax, imMin, imMax;
+    private final int columns, rows;
+
+    // metrics of the last rendering
+    private long elapsedMillis;
+
+    /**
+     * Instantiates an atlas of columns x rows thumbnails of the view of
+     * the specified Julia view, whose constants sample the rectangle of
+     * the parameter plane between the specified bounds
+     *
+     * @param view The view and the parameters of the thumbnails, whose
+     * constant is ignored
+     * @param reMin The minimal real part of the constants
+     * @param reMax The maximal real part of the constants
+     * @param imMin The minimal imaginary part of the constants
+     * @param imMax The maximal imaginary part of the constants
+     * @param columns The number of columns of thumbnails
+     * @param rows The number of rows of thumbnails
+     */
+    public JuliaAtlas(Julia view, double reMin, double reMax, double imMin,
+		      double imMax, int columns, int rows){
+	this.view = view;
+	this.reMin = reMin;
+	this.reMax = reMax;
+	this.imMin = imMin;
+	this.imMax = imMax;
+	this.columns = Math.max(1, columns);
+	this.rows = Math.max(1, rows);
+    }
+
+    /**
+     * Returns the complex constant of the specified thumbnail
+     *
+     * @param column The column of the thumbnail, from the left
+     * @param row The row of the thumbnail, from the top
+     * @return The constant of the thumbnail
+     */
+    public Complex getConstant(int column, int row){
+	return Complex.of(reMin + (column + 0.5) * (reMax - reMin) / columns,
+			  imMax - (row + 0.5) * (imMax - imMin) / rows);
+    }
+
+    /**
+     * Computes the atlas image, the thumbnail of column c and row r lying
+     * at the position (c * width, r * height) of the image
+     *
+     * @return The atlas image
+     */
+    public BufferedImage createImage(){
+	long begin = System.currentTimeMillis();
+	int w = view.getWidth();
+	int h = view.getHeight();
+	int[] rgb = new int[columns * w * rows * h];
+	int cells = columns * rows;
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new AtlasCalculator(0, (cells + LANES - 1) / LANES, rgb));
+	BufferedImage img = new BufferedImage(columns * w, rows * h,
+					      BufferedImage.TYPE_INT_RGB);
+	img.setRGB(0, 0, columns * w, rows * h, rgb, 0, columns * w);
+	elapsedMillis = System.currentTimeMillis() - begin;
+	return img;
+    }
+
+    /**
+     * Computes the atlas image and saves it as /tmp/&lt;filename&gt;.png,
+     * after the file name of the view
+     *
+     * @return The path to the image
+     */
+    public String saveFile(){
+	File file = new File("/tmp/" + view.getFileName() + ".png");
+	try {
+	    ImageIO.write(createImage(), "PNG", file);
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR SAVING PNG");
+	    System.exit(-1);
+	}
+	return file.getAbsolutePath();
+    }
+
+    @Override
+    public String toString(){
+	return "Atlas of " + columns + " x " + rows + " Julia sets, c from "
+	    + reMin + " to " + reMax + " and from " + imMin + "i to " + imMax
+	    + "i, rendered in " + elapsedMillis + " ms";
+    }
+
+    // computes the batches of LANES thumbnails from index from to index to
+    private class AtlasCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	int[] rgb; // resulting pixels of the atlas, row after row
+
+	AtlasCalculator(int from, int to, int[] rgb){
+	    this.from = from;
+	    this.to = to;
+	    this.rgb = rgb;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= 1){
+		for(int batch = from; batch < to; batch++)
+		    computeBatch(batch);
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new AtlasCalculator(from, middle, rgb),
+		      new AtlasCalculator(middle, to, rgb));
+	}
+
+	// computes the thumbnails of the batch, iterating each pixel of the
+	// view for the constants of every thumbnail of the batch together
+	private void computeBatch(int batch){
+	    int first = batch * LANES;
+	    int lanes = Math.min(LANES, columns * rows - first);
+	    double[] cRe = new double[lanes];
+	    double[] cIm = new double[lanes];
+	    for(int l = 0; l < lanes; l++){
+		Complex c = getConstant((first + l) % columns,
+					(first + l) / columns);
+		cRe[l] = c.getRe();
+		cIm[l] = c.getIm();
+	    }
+	    double aRe = view.getAlphaFactor().getRe();
+	    double aIm = view.getAlphaFactor().getIm();
+	    double bRe = view.getBetaFactor().getRe();
+	    double bIm = view.getBetaFactor().getIm();
+	    int maxIteration = view.getMaxIteration();
+	    Formula formula = view.getFormula();
+	    int w = view.getWidth();
+	    int h = view.getHeight();
+	    double[] zRe = new double[lanes];
+	    double[] zIm = new double[lanes];
+	    int[] iteration = new int[lanes];
+	    boolean[] escaped = new boolean[lanes];
+
+	    for(int i = 0; i < w; i++){
+		double re = view.getXMin() + (view.getDiscreteStep() * i);
+		for(int j = 0; j < h; j++){
+		    double im = view.getYMax() - (view.getDiscreteStep() * j);
+		    if(formula != null){
+			// the compiled formula iterates one lane at a time
+			for(int l = 0; l < lanes; l++)
+			    iteration[l] = formula.computeDivergence
+				(re, im, cRe[l], cIm[l], maxIteration);
+			store(first, lanes, i, j, iteration);
+			continue;
+		    }
+		    for(int l = 0; l < lanes; l++){
+			zRe[l] = re;
+			zIm[l] = im;
+			iteration[l] = 0;
+			escaped[l] = false;
+		    }
+		    // the operations of Julia.computeDivergence, lane by lane,
+		    // so that each lane gives the same index
+		    int running = lanes;
+		    for(int n = 0; n < maxIteration - 1 && running > 0; n++){
+			for(int l = 0; l < lanes; l++){
+			    if(escaped[l])
+				continue;
+			    double x = zRe[l];
+			    double y = zIm[l];
+			    if(Math.sqrt(x * x + y * y) > Fractal.RADIUS){
+				escaped[l] = true;
+				running--;
+				continue;
+			    }
+			    // alpha * z * z + z * beta + constant
+			    double sqRe = x * x - y * y;
+			    double sqIm = x * y + y * x;
+			    zRe[l] = (aRe * sqRe - aIm * sqIm)
+				+ (x * bRe - y * bIm) + cRe[l];
+			    zIm[l] = (aRe * sqIm + aIm * sqRe)
+				+ (x * bIm + y * bRe) + cIm[l];
+			    iteration[l]++;
+			}
+		    }
+		    store(first, lanes, i, j, iteration);
+		}
+	    }
+	}
+
+	// colors the pixel (i, j) of the thumbnails of the batch
+	private void store(int first, int lanes, int i, int j,
+			   int[] iteration){
+	    int w = view.getWidth();
+	    int h = view.getHeight();
+	    int stride = columns * w;
+	    for(int l = 0; l < lanes; l++){
+		int x = ((first + l) % columns) * w + i;
+		int y = ((first + l) / columns) * h + j;
+		rgb[y * stride + x] =
+		    view.getColorFromDivergenceIndex(iteration[l]);
+	    }
+	}
+    }
+}
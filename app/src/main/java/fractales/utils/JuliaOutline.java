@@ -0,0 +1,262 @@
+package fractales.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import javax.imageio.ImageIO;
+import fractales.model.*;
+
+/**
+ * This class draws the boundary of a Julia set by inverse iteration : the
+ * preimages of a point of the boundary by the iteration function lie on
+ * the boundary too, so the tree of the preimages of one of its points
+ * draws the boundary in a time proportional to its number of points,
+ * instead of the number of pixels times maxIteration.
+ * The preimages gather in some parts of the boundary and seldom reach
+ * others, so the preimages of the points of a pixel already hit LIMIT
+ * times are not followed, which spreads the points over the whole
+ * boundary.
+ */
+public class JuliaOutline {
+
+    // hits of a pixel after which the preimages of its points are dropped
+    private static final int LIMIT = 2;
+
+    // cells along each axis of the grid that limits the hits of the points
+    // outside the view, over the disk of radius RADIUS
+    private static final int OUTER_CELLS = 512;
+
+    // random backward iterations that bring the first point onto the
+    // boundary
+    private static final int WARM_UP = 64;
+
+    // the Julia set and its view
+    private final Julia julia;
+    private final int width;
+    private final int height;
+
+    // hits and depth in the tree of the first hit of the pixels, indexed
+    // as i * height + j, and hits of the cells outside the view
+    private final int[] hits;
+    private final int[] depths;
+    private final int[] outer;
+
+    // metrics
+    private long points;
+    private long elapsedMillis;
+
+    // instantiates the outline of julia
+    private JuliaOutline(Julia julia){
+	this.julia = julia;
+	this.width = julia.getWidth();
+	this.height = julia.getHeight();
+	this.hits = new int[width * height];
+	this.depths = new int[width * height];
+	this.outer = new int[OUTER_CELLS * OUTER_CELLS];
+    }
+
+    /**
+     * Draws the boundary of the specified Julia set over its view
+     *
+     * @param julia A Julia set
+     * @return The outline of julia
+     * @throws IllegalArgumentException if julia is iterated by a formula,
+     * whose preimages are unknown
+     */
+    public static JuliaOutline of(Julia julia){
+	if(julia.getFormula() != null)
+	    throw new IllegalArgumentException("No outline of the Julia sets "
+					       + "of formulas");
+	JuliaOutline outline = new JuliaOutline(julia);
+	outline.draw();
+	return outline;
+    }
+
+    // follows the tree of the preimages of a point of the boundary
+    private void draw(){
+	long begin = System.currentTimeMillis();
+	double aRe = julia.getAlphaFactor().getRe();
+	double aIm = julia.getAlphaFactor().getIm();
+	double bRe = julia.getBetaFactor().getRe();
+	double bIm = julia.getBetaFactor().getIm();
+	double cRe = julia.getComplexConstant().getRe();
+	double cIm = julia.getComplexConstant().getIm();
+	if(aRe == 0 && aIm == 0 && bRe == 0 && bIm == 0)
+	    return;
+	double[] pre = new double[4];
+
+	// the preimages of almost any point tend to the boundary
+	SplittableRandom random = new SplittableRandom(0);
+	double zRe = 1;
+	double zIm = 0;
+	for(int n = 0; n < WARM_UP; n++){
+	    int count = preimages(zRe, zIm, aRe, aIm, bRe, bIm, cRe, cIm, pre);
+	    int k = count == 2 && random.nextBoolean() ? 1 : 0;
+	    zRe = pre[2 * k];
+	    zIm = pre[2 * k + 1];
+	}
+
+	double[] stackRe = new double[1024];
+	double[] stackIm = new double[1024];
+	int[] stackDepth = new int[1024];
+	int size = 0;
+	stackRe[size] = zRe;
+	stackIm[size] = zIm;
+	stackDepth[size++] = 0;
+	double scale = 1.0 / julia.getDiscreteStep();
+	double outerScale = OUTER_CELLS / (2 * Fractal.RADIUS);
+	while(size > 0){
+	    size--;
+	    double re = stackRe[size];
+	    double im = stackIm[size];
+	    int depth = stackDepth[size];
+	    if(re * re + im * im > Fractal.RADIUS * Fractal.RADIUS)
+		continue;
+	    int i = (int) Math.floor((re - julia.getXMin()) * scale + 0.5);
+	    int j = (int) Math.floor((julia.getYMax() - im) * scale + 0.5);
+	    if(i >= 0 && i < width && j >= 0 && j < height){
+		int pixel = i * height + j;
+		if(hits[pixel] == 0)
+		    depths[pixel] = depth;
+		if(hits[pixel]++ >= LIMIT)
+		    continue;
+	    } else {
+		int u = Math.min(OUTER_CELLS - 1,
+				 (int) ((re + Fractal.RADIUS) * outerScale));
+		int v = Math.min(OUTER_CELLS - 1,
+				 (int) ((im + Fractal.RADIUS) * outerScale));
+		if(outer[u * OUTER_CELLS + v]++ >= LIMIT)
+		    continue;
+	    }
+	    points++;
+	    int count = preimages(re, im, aRe, aIm, bRe, bIm, cRe, cIm, pre);
+	    if(size + count > stackRe.length){
+		stackRe = Arrays.copyOf(stackRe, 2 * stackRe.length);
+		stackIm = Arrays.copyOf(stackIm, 2 * stackIm.length);
+		stackDepth = Arrays.copyOf(stackDepth,
+						     2 * stackDepth.length);
+	    }
+	    for(int k = 0; k < count; k++){
+		stackRe[size] = pre[2 * k];
+		stackIm[size] = pre[2 * k + 1];
+		stackDepth[size++] = depth + 1;
+	    }
+	}
+	elapsedMillis = System.currentTimeMillis() - begin;
+    }
+
+    // stores in pre the preimages of z by alpha * w * w + beta * w + c, that
+    // is (-beta +- sqrt(beta * beta - 4 * alpha * (c - z))) / (2 * alpha),
+    // and returns their number
+    private static int preimages(double zRe, double zIm, double aRe,
+				 double aIm, double bRe, double bIm,
+				 double cRe, double cIm, double[] pre){
+	if(aRe == 0 && aIm == 0){
+	    // (z - c) / beta
+	    double d = bRe * bRe + bIm * bIm;
+	    double nRe = zRe - cRe;
+	    double nIm = zIm - cIm;
+	    pre[0] = (nRe * bRe + nIm * bIm) / d;
+	    pre[1] = (nIm * bRe - nRe * bIm) / d;
+	    return 1;
+	}
+	// discriminant beta * beta - 4 * alpha * (c - z)
+	double dRe = cRe - zRe;
+	double dIm = cIm - zIm;
+	double discRe = bRe * bRe - bIm * bIm - 4 * (aRe * dRe - aIm * dIm);
+	double discIm = 2 * bRe * bIm - 4 * (aRe * dIm + aIm * dRe);
+	// principal square root
+	double r = Math.hypot(discRe, discIm);
+	double sRe = Math.sqrt((r + discRe) / 2);
+	double sIm = Math.copySign(Math.sqrt((r - discRe) / 2), discIm);
+	// divided by 2 * alpha
+	double d = 2 * (aRe * aRe + aIm * aIm);
+	for(int k = 0; k < 2; k++){
+	    double nRe = -bRe + (k == 0 ? sRe : -sRe);
+	    double nIm = -bIm + (k == 0 ? sIm : -sIm);
+	    pre[2 * k] = (nRe * aRe + nIm * aIm) / d;
+	    pre[2 * k + 1] = (nIm * aRe - nRe * aIm) / d;
+	}
+	return 2;
+    }
+
+    /**
+     * Returns the number of pixels of the boundary in the rectangle of the
+     * complex plane between the specified bounds
+     *
+     * @param reMin The minimal real part of the rectangle
+     * @param reMax The maximal real part of the rectangle
+     * @param imMin The minimal imaginary part of the rectangle
+     * @param imMax The maximal imaginary part of the rectangle
+     * @return The number of pixels of the view in the rectangle that the
+     * boundary crosses
+     */
+    public int countPoints(double reMin, double reMax, double imMin,
+			   double imMax){
+	double step = julia.getDiscreteStep();
+	int i0 = Math.max(0, (int) Math.ceil((reMin - julia.getXMin()) / step));
+	int i1 = Math.min(width - 1,
+			  (int) Math.floor((reMax - julia.getXMin()) / step));
+	int j0 = Math.max(0, (int) Math.ceil((julia.getYMax() - imMax) / step));
+	int j1 = Math.min(height - 1,
+			  (int) Math.floor((julia.getYMax() - imMin) / step));
+	int count = 0;
+	for(int i = i0; i <= i1; i++)
+	    for(int j = j0; j <= j1; j++)
+		if(hits[i * height + j] > 0)
+		    count++;
+	return count;
+    }
+
+    /**
+     * Returns the indices of the outline : the pixels of the boundary
+     * take the depth of their first point in the tree of the preimages,
+     * modulo maxIteration - 1, the others the index maxIteration - 1 of
+     * the points of the set
+     *
+     * @return A 2D array of the indices of the pixels of the view
+     */
+    public int[][] getDivergenceIndexMatrix(){
+	int top = julia.getMaxIteration() - 1;
+	int[][] matrix = new int[width][height];
+	for(int i = 0; i < width; i++)
+	    for(int j = 0; j < height; j++)
+		matrix[i][j] = hits[i * height + j] > 0
+		    ? depths[i * height + j] % top : top;
+	return matrix;
+    }
+
+    /**
+     * Returns the image of the outline
+     *
+     * @return The image of the boundary of the Julia set
+     */
+    public BufferedImage createImage(){
+	return FractalImage.of(julia).createImage(getDivergenceIndexMatrix());
+    }
+
+    /**
+     * Saves the image of the outline as /tmp/&lt;filename&gt;.png, after
+     * the file name of the Julia set
+     *
+     * @return The path to the image
+     */
+    public String saveFile(){
+	File file = new File("/tmp/" + julia.getFileName() + ".png");
+	try {
+	    ImageIO.write(createImage(), "PNG", file);
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR SAVING PNG");
+	    System.exit(-1);
+	}
+	return file.getAbsolutePath();
+    }
+
+    @Override
+    public String toString(){
+	return "Outline of " + points + " points drawn in " + elapsedMillis
+	    + " ms";
+    }
+}
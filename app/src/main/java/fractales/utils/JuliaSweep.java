@@ -0,0 +1,164 @@
+package fractales.utils;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.DoubleFunction;
+import javax.imageio.ImageIO;
+import fractales.model.*;
+
+/**
+ * This class renders the frames of an animation of a Julia set whose
+ * complex constant, and optionally the factors of its iteration function,
+ * move along parametric paths. The path of a parameter gives its value at
+ * the time t, from 0 for the first frame to 1 for the last one, or for
+ * the frame after the last one when the animation loops.
+ * Frames are computed and encoded as tasks of the shared pool, whose
+ * threads split each frame in columns and steal them from the frames that
+ * are still being computed, so that no thread waits between two frames.
+ * Finished frames are written to the disk in their order while the
+ * following ones are being computed.
+ */
+public class JuliaSweep {
+
+    // the first view and the paths of the parameters
+    private final Julia start;
+    private final DoubleFunction<Complex> constant;
+    private final DoubleFunction<Complex> alpha;
+    private final DoubleFunction<Complex> beta;
+
+    // number of frames, and true if the last frame precedes the first one
+    private final int frames;
+    private final boolean loop;
+
+    // metrics of the last rendering
+    private long elapsedMillis;
+
+    /**
+     * Instantiates a sweep of the specified number of frames from the view
+     * of the specified Julia start. The factors of the iteration function
+     * follow the specified paths, or keep their value in start when their
+     * path is null.
+     *
+     * @param start The view and the parameters of the frames
+     * @param constant The path of the complex constant
+     * @param alpha The path of the first factor, or null
+     * @param beta The path of the second factor, or null
+     * @param frames The number of frames, at least 1
+     * @param loop true if the animation loops
+     */
+    public JuliaSweep(Julia start, DoubleFunction<Complex> constant,
+		      DoubleFunction<Complex> alpha,
+		      DoubleFunction<Complex> beta, int frames, boolean loop){
+	this.start = start;
+	this.constant = constant;
+	this.alpha = alpha;
+	this.beta = beta;
+	this.frames = Math.max(1, frames);
+	this.loop = loop;
+    }
+
+    /**
+     * Returns the path around the circle of the specified center and
+     * radius, from the point at its right, counterclockwise
+     *
+     * @param center The center of the circle
+     * @param radius The radius of the circle
+     * @return The path around the circle
+     */
+    public static DoubleFunction<Complex> circle(Complex center,
+						 double radius){
+	return t -> Complex.of(center.getRe()
+			       + radius * Math.cos(2 * Math.PI * t),
+			       center.getIm()
+			       + radius * Math.sin(2 * Math.PI * t));
+    }
+
+    /**
+     * Returns the path along the segment between the specified points
+     *
+     * @param from The first point of the path
+     * @param to The last point of the path
+     * @return The path along the segment
+     */
+    public static DoubleFunction<Complex> line(Complex from, Complex to){
+	return t -> Complex.of(from.getRe()
+			       + (to.getRe() - from.getRe()) * t,
+			       from.getIm()
+			       + (to.getIm() - from.getIm()) * t);
+    }
+
+    /**
+     * Returns the view of the specified frame
+     *
+     * @param k The number of the frame, from 0
+     * @return The Julia set of the frame, whose file name is the file name
+     * of the first view followed by the number of the frame
+     */
+    public Julia getFrame(int k){
+	double t = loop || frames == 1 ? (double) k / frames
+	    : (double) k / (frames - 1);
+	return start.toBuilder()
+	    .complexConstant(constant.apply(t))
+	    .iterationFunction(alpha == null ? start.getAlphaFactor()
+			       : alpha.apply(t),
+			       beta == null ? start.getBetaFactor()
+			       : beta.apply(t))
+	    .fileName(start.getFileName() + String.format("-%04d", k))
+	    .build();
+    }
+
+    /**
+     * Computes every frame and saves it in /tmp/, as the PNG image named
+     * after the file name of its view. At most twice as many frames as
+     * threads are being computed at the same time.
+     */
+    public void render(){
+	long begin = System.currentTimeMillis();
+	int window = 2 * DivergenceIndexMatrixCalculator.getPool()
+	    .getParallelism();
+	Deque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+	int submitted = 0;
+	for(int written = 0; written < frames; written++){
+	    while(submitted < frames && pending.size() < window){
+		final int k = submitted++;
+		pending.add(DivergenceIndexMatrixCalculator.getPool()
+			    .submit(() -> encodeFrame(k)));
+	    }
+	    byte[] png = pending.poll().join();
+	    try {
+		Files.write(Paths.get("/tmp/" + getFrame(written)
+				      .getFileName() + ".png"), png);
+	    } catch(Exception e){
+		e.printStackTrace();
+		System.out.println("ERROR SAVING PNG");
+	    }
+	}
+	elapsedMillis = System.currentTimeMillis() - begin;
+    }
+
+    // computes the frame k and returns its PNG image
+    private byte[] encodeFrame(int k){
+	Julia frame = getFrame(k);
+	// not through the tile cache, which would only keep tiles of
+	// parameters never seen again
+	int[][] matrix = DivergenceIndexMatrixCalculator
+	    .computeMatrix(frame, frame.getPrecision());
+	ByteArrayOutputStream png = new ByteArrayOutputStream();
+	try {
+	    ImageIO.write(FractalImage.of(frame).createImage(matrix), "PNG",
+			  png);
+	} catch(IOException e){
+	    throw new UncheckedIOException(e);
+	}
+	return png.toByteArray();
+    }
+
+    @Override
+    public String toString(){
+	return frames + " frames rendered in " + elapsedMillis + " ms ("
+	    + elapsedMillis / frames + " ms per frame)";
+    }
+}
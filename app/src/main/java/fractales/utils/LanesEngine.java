@@ -0,0 +1,145 @@
+package fractales.utils;
+
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+
+/**
+ * This engine iterates LANES pixels of a column together, without
+ * branches inside the loop over the lanes : every lane is iterated until
+ * all of them escape, and a lane stops counting at its first escape. The
+ * orbits of the lanes are independent, so the processor overlaps them,
+ * and the loop keeps the form of the vector loops for the compilers that
+ * vectorize it. The operations are those of the primitive engine, so the
+ * indices are the same. The symmetry of the fractal is not used, and a
+ * batch costs the orbit of its slowest lane.
+ */
+public class LanesEngine implements RenderEngine {
+
+    // number of pixels iterated together
+    private static final int LANES = 8;
+
+    // cost of the iterations of a pixel relative to those of the primitive
+    // engine, measured on views of the Mandelbrot and Julia sets, including
+    // the iterations of the lanes that already escaped
+    private static final double COST = 1.1;
+
+    @Override
+    public String getName(){
+	return "lanes";
+    }
+
+    @Override
+    public boolean supports(Fractal fractal){
+	return (fractal instanceof Julia && ((Julia) fractal).getFormula() == null
+		|| fractal instanceof Mandelbrot
+		&& ((Mandelbrot) fractal).getFormula() == null)
+	    && !fractal.getPrecision().isExtended();
+    }
+
+    @Override
+    public double estimateCost(Fractal fractal){
+	return COST * RenderEngines.getMeanIterations(fractal)
+	    * fractal.getWidth() * fractal.getHeight()
+	    / RenderEngines.getParallelism();
+    }
+
+    @Override
+    public int[][] computeMatrix(Fractal fractal){
+	int[][] results = new int[fractal.getWidth()][fractal.getHeight()];
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new LanesCalculator(0, results.length, results, fractal));
+	return results;
+    }
+
+    // computes the columns of fractal from index from to index to
+    private static class LanesCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	int[][] results; // resulting array of divergence indices
+	Fractal fractal; // the fractal being built
+
+	LanesCalculator(int from, int to, int[][] results, Fractal fractal){
+	    this.from = from;
+	    this.to = to;
+	    this.results = results;
+	    this.fractal = fractal;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= Math.max(1, results.length / 8)){
+		computeDirectly();
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new LanesCalculator(from, middle, results, fractal),
+		      new LanesCalculator(middle, to, results, fractal));
+	}
+
+	// computes the columns in batches of LANES rows
+	private void computeDirectly(){
+	    boolean mandelbrot = fractal instanceof Mandelbrot;
+	    double aRe = 1, aIm = 0, bRe = 0, bIm = 0, constRe = 0, constIm = 0;
+	    if(!mandelbrot){
+		Julia julia = (Julia) fractal;
+		aRe = julia.getAlphaFactor().getRe();
+		aIm = julia.getAlphaFactor().getIm();
+		bRe = julia.getBetaFactor().getRe();
+		bIm = julia.getBetaFactor().getIm();
+		constRe = julia.getComplexConstant().getRe();
+		constIm = julia.getComplexConstant().getIm();
+	    }
+	    boolean square = aRe == 1 && aIm == 0 && bRe == 0 && bIm == 0;
+	    int maxIteration = fractal.getMaxIteration();
+	    double step = fractal.getDiscreteStep();
+	    int h = fractal.getHeight();
+	    double[] zRe = new double[LANES];
+	    double[] zIm = new double[LANES];
+	    double[] cRe = new double[LANES];
+	    double[] cIm = new double[LANES];
+	    int[] alive = new int[LANES];
+	    int[] count = new int[LANES];
+
+	    for(int i = from; i < to; i++){
+		double re = fractal.getXMin() + (step * i);
+		for(int first = 0; first < h; first += LANES){
+		    int lanes = Math.min(LANES, h - first);
+		    for(int l = 0; l < LANES; l++){
+			double im = fractal.getYMax() - (step * (first + l));
+			zRe[l] = mandelbrot ? 0 : re;
+			zIm[l] = mandelbrot ? 0 : im;
+			cRe[l] = mandelbrot ? re : constRe;
+			cIm[l] = mandelbrot ? im : constIm;
+			// the lanes beyond the column never count
+			alive[l] = l < lanes ? 1 : 0;
+			count[l] = 0;
+		    }
+		    int running = lanes;
+		    for(int n = 0; n < maxIteration - 1 && running > 0; n++){
+			running = 0;
+			for(int l = 0; l < LANES; l++){
+			    double x = zRe[l];
+			    double y = zIm[l];
+			    alive[l] &= Math.sqrt(x * x + y * y) <= Fractal.RADIUS
+				? 1 : 0;
+			    count[l] += alive[l];
+			    running += alive[l];
+			    if(square){
+				zRe[l] = (x * x - y * y) + cRe[l];
+				zIm[l] = (x * y + y * x) + cIm[l];
+			    } else {
+				double sqRe = x * x - y * y;
+				double sqIm = x * y + y * x;
+				zRe[l] = (aRe * sqRe - aIm * sqIm)
+				    + (x * bRe - y * bIm) + cRe[l];
+				zIm[l] = (aRe * sqIm + aIm * sqRe)
+				    + (x * bIm + y * bRe) + cIm[l];
+			    }
+			}
+		    }
+		    for(int l = 0; l < lanes; l++)
+			results[i][first + l] = count[l];
+		}
+	    }
+	}
+    }
+}
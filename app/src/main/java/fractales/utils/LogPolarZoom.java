@@ -0,0 +1,252 @@
+package fractales.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.RecursiveAction;
+import javax.imageio.ImageIO;
+import fractales.model.*;
+
+/**
+ * This class renders the frames of a zoom centered on a point from a
+ * single log-polar strip of divergence indices. The sample (a, b) of the
+ * strip is the complex center + exp(sMax - b * d) * exp(i * a * d), where d
+ * is the angle between two columns : the samples are as far apart along
+ * the radius as around the circle, so that every frame, whatever its step,
+ * finds the samples it needs at the resolution of its pixels.
+ * The strip is computed once in the shared pool of threads, then each
+ * frame is reprojected from it and saved, several frames at a time.
+ */
+public class LogPolarZoom {
+
+    // the first view and the center of the zoom
+    private final Fractal start;
+    private final Complex center;
+
+    // number of frames and magnification of the last frame
+    private final int frames;
+    private final double depth;
+
+    // dimensions of the strip, angle between two samples and logarithm
+    // of the radius of its first row
+    private final int angles;
+    private final int radii;
+    private final double delta;
+    private final double sMax;
+
+    // metrics of the last rendering
+    private long stripMillis;
+    private long framesMillis;
+
+    // instantiates a zoom
+    private LogPolarZoom(Fractal start, Complex center, int frames,
+			 double depth){
+	this.start = start;
+	this.center = center;
+	this.frames = frames;
+	this.depth = depth;
+	// the outer pixels of the frames are one sample apart
+	double halfDiagonal = Math.hypot(start.getWidth(), start.getHeight())
+	    / 2;
+	this.angles = (int) Math.ceil(2 * Math.PI * halfDiagonal);
+	this.delta = 2 * Math.PI / angles;
+	this.sMax = Math.log(halfDiagonal * start.getDiscreteStep());
+	// down to half a pixel of the last frame
+	double sMin = Math.log(0.5 * start.getDiscreteStep() / depth);
+	this.radii = (int) Math.ceil((sMax - sMin) / delta) + 1;
+    }
+
+    /**
+     * Returns the zoom of the specified number of frames, of the size and
+     * first step of the view of the specified Fractal fractal, centered on
+     * the specified Complex center
+     *
+     * @param fractal The first view of the zoom
+     * @param center The center of every frame
+     * @param frames The number of frames, at least 2
+     * @param depth The magnification of the last frame, greater than 1
+     * @return The zoom
+     * @throws IllegalArgumentException if frames or depth are too low, or
+     * if the last frame needs more precision than doubles
+     */
+    public static LogPolarZoom of(Fractal fractal, Complex center, int frames,
+				  double depth){
+	if(frames < 2 || depth <= 1)
+	    throw new IllegalArgumentException("At least 2 frames and a depth "
+					       + "greater than 1 are needed");
+	LogPolarZoom zoom = new LogPolarZoom(fractal, center, frames, depth);
+	if(zoom.getFrame(frames - 1).getPrecision().isExtended())
+	    throw new IllegalArgumentException("Zoom too deep for the "
+					       + "log-polar strip");
+	return zoom;
+    }
+
+    /**
+     * Returns the view of the specified frame
+     *
+     * @param k The number of the frame, from 0
+     * @return The fractal of the frame, whose file name is the file name of
+     * the first view followed by the number of the frame
+     */
+    public Fractal getFrame(int k){
+	double step = getStep(k);
+	double xMin = center.getRe() - step * (start.getWidth() - 1) / 2.0;
+	double yMax = center.getIm() + step * (start.getHeight() - 1) / 2.0;
+	return start.toBuilder()
+	    .discreteStep(step)
+	    .xMin(xMin)
+	    .xMax(xMin + step * (start.getWidth() - 1))
+	    .yMin(yMax - step * (start.getHeight() - 1))
+	    .yMax(yMax)
+	    .fileName(start.getFileName() + String.format("-%04d", k))
+	    .build();
+    }
+
+    // returns the step of the frame k
+    private double getStep(int k){
+	return start.getDiscreteStep()
+	    * Math.pow(depth, -(double) k / (frames - 1));
+    }
+
+    /**
+     * Computes the divergence indices of the strip
+     *
+     * @return The divergence indices of the strip, indexed as [b][a]
+     */
+    public int[][] computeStrip(){
+	int[][] strip = new int[radii][angles];
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new StripCalculator(0, radii, strip));
+	return strip;
+    }
+
+    /**
+     * Computes the strip, then reprojects every frame from it and saves it
+     * in /tmp/, as the PNG image named after the file name of its view
+     */
+    public void render(){
+	long begin = System.currentTimeMillis();
+	int[][] strip = computeStrip();
+	stripMillis = System.currentTimeMillis() - begin;
+	begin = System.currentTimeMillis();
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new FrameWriter(0, frames, strip));
+	framesMillis = System.currentTimeMillis() - begin;
+    }
+
+    /**
+     * Returns the image of the frame k reprojected from the specified
+     * strip : each pixel takes the color of the nearest sample
+     *
+     * @param k The number of the frame
+     * @param strip The divergence indices computed by computeStrip
+     * @return The image of the frame
+     */
+    public BufferedImage reproject(int k, int[][] strip){
+	Fractal frame = getFrame(k);
+	int w = frame.getWidth();
+	int h = frame.getHeight();
+	double step = frame.getDiscreteStep();
+	int[] rgb = new int[w * h];
+	for(int j = 0; j < h; j++){
+	    double y = ((h - 1) / 2.0 - j) * step;
+	    for(int i = 0; i < w; i++){
+		double x = (i - (w - 1) / 2.0) * step;
+		double r = Math.hypot(x, y);
+		int b = r == 0 ? radii - 1
+		    : (int) Math.min(radii - 1,
+				     Math.max(0, Math.round((sMax - Math.log(r))
+							    / delta)));
+		int a = (int) Math.floorMod(Math.round(Math.atan2(y, x) / delta),
+					    (long) angles);
+		rgb[j * w + i] = frame.getColorFromDivergenceIndex(strip[b][a]);
+	    }
+	}
+	BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+	img.setRGB(0, 0, w, h, rgb, 0, w);
+	return img;
+    }
+
+    /**
+     * Returns the number of samples of the strip
+     *
+     * @return The number of computed divergence indices
+     */
+    public long getStripSize(){
+	return (long) radii * angles;
+    }
+
+    @Override
+    public String toString(){
+	return frames + " frames, depth " + String.format("%.4g", depth)
+	    + ", strip of " + angles + " x " + radii + " samples ("
+	    + String.format("%.1f", (double) getStripSize()
+			    / ((long) start.getWidth() * start.getHeight()))
+	    + " frames) computed in " + stripMillis + " ms, frames "
+	    + "reprojected and saved in " + framesMillis + " ms";
+    }
+
+    // computes the rows of the strip from index from to index to
+    private class StripCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	int[][] strip; // resulting array of divergence indices
+
+	StripCalculator(int from, int to, int[][] strip){
+	    this.from = from;
+	    this.to = to;
+	    this.strip = strip;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= Math.max(1, radii / 64)){
+		for(int b = from; b < to; b++){
+		    double radius = Math.exp(sMax - b * delta);
+		    for(int a = 0; a < angles; a++){
+			double theta = a * delta;
+			strip[b][a] = start.computeDivergence
+			    (Complex.of(center.getRe()
+					+ radius * Math.cos(theta),
+					center.getIm()
+					+ radius * Math.sin(theta)));
+		    }
+		}
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new StripCalculator(from, middle, strip),
+		      new StripCalculator(middle, to, strip));
+	}
+    }
+
+    // reprojects and saves the frames from index from to index to
+    private class FrameWriter extends RecursiveAction {
+	int from, to; // boundaries
+	int[][] strip; // divergence indices of the strip
+
+	FrameWriter(int from, int to, int[][] strip){
+	    this.from = from;
+	    this.to = to;
+	    this.strip = strip;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= 1){
+		for(int k = from; k < to; k++){
+		    try {
+			ImageIO.write(reproject(k, strip), "PNG",
+				      new File("/tmp/" + getFrame(k).getFileName()
+					       + ".png"));
+		    } catch(Exception e){
+			e.printStackTrace();
+			System.out.println("ERROR SAVING PNG");
+		    }
+		}
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new FrameWriter(from, middle, strip),
+		      new FrameWriter(middle, to, strip));
+	}
+    }
+}
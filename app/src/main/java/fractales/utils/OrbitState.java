@@ -0,0 +1,272 @@
+package fractales.utils;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+
+/**
+ * This class holds the divergence indices of a fractal together with the
+ * last term of the orbit of every pixel that reached the maximal number of
+ * iterations. A render of the same fractal with a higher maximal number of
+ * iterations only continues these orbits and copies every other index.
+ */
+public class OrbitState {
+
+    // identifies the files of this class
+    private static final int MAGIC = 0x4f524253;
+
+    // parameters of the iteration, whatever the maximal iteration
+    private final String parameters;
+
+    // maximal number of iterations of the computation
+    private final int maxIteration;
+
+    // divergence indices, indexed as [column][row]
+    private final int[][] divergence;
+
+    // last term of the orbit of the undecided pixels of each column, in
+    // the order of their rows
+    private final double[][] orbitRe;
+    private final double[][] orbitIm;
+
+    // instantiates a state
+    private OrbitState(String parameters, int maxIteration, int[][] divergence,
+		       double[][] orbitRe, double[][] orbitIm){
+	this.parameters = parameters;
+	this.maxIteration = maxIteration;
+	this.divergence = divergence;
+	this.orbitRe = orbitRe;
+	this.orbitIm = orbitIm;
+    }
+
+    /**
+     * Computes the divergence indices of the specified Fractal fractal
+     * from the first term of every orbit
+     *
+     * @param fractal The fractal to compute
+     * @return The state reached by the computation
+     */
+    public static OrbitState of(Fractal fractal){
+	return compute(fractal, null);
+    }
+
+    /**
+     * Returns true if the orbits of this state can be continued to compute
+     * the specified Fractal fractal, that is if both share the same
+     * parameters and fractal iterates at least as much as this state
+     *
+     * @param fractal A fractal
+     * @return true if this state can be resumed to compute fractal
+     */
+    public boolean isResumableBy(Fractal fractal){
+	return parameters.equals(parametersOf(fractal))
+	    && fractal.getMaxIteration() >= maxIteration;
+    }
+
+    /**
+     * Computes the divergence indices of the specified Fractal fractal by
+     * continuing the orbits of this state
+     *
+     * @param fractal A fractal for which isResumableBy returns true
+     * @return The state reached by the computation
+     * @throws IllegalArgumentException if this state cannot be resumed
+     */
+    public OrbitState resume(Fractal fractal){
+	if(!isResumableBy(fractal))
+	    throw new IllegalArgumentException("Orbits of another fractal");
+	return compute(fractal, this);
+    }
+
+    // computes the state of fractal, continuing previous if not null
+    private static OrbitState compute(Fractal fractal, OrbitState previous){
+	int w = fractal.getWidth();
+	OrbitState state =
+	    new OrbitState(parametersOf(fractal), fractal.getMaxIteration(),
+			   new int[w][fractal.getHeight()],
+			   new double[w][], new double[w][]);
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new Calculator(0, w, fractal, previous, state));
+	return state;
+    }
+
+    /**
+     * Returns the divergence indices of this state
+     *
+     * @return A 2D array containing the divergence indices
+     */
+    public int[][] getDivergenceIndexMatrix(){
+	return divergence;
+    }
+
+    /**
+     * Returns the maximal number of iterations of this state
+     *
+     * @return The maximal number of iterations
+     */
+    public int getMaxIteration(){
+	return maxIteration;
+    }
+
+    /**
+     * Saves this state in the file at the specified path
+     *
+     * @param path The path of the file
+     */
+    public void saveFile(String path){
+	try(DataOutputStream out =
+	    new DataOutputStream(new BufferedOutputStream
+				 (new FileOutputStream(path)))){
+	    out.writeInt(MAGIC);
+	    out.writeUTF(parameters);
+	    out.writeInt(maxIteration);
+	    out.writeInt(divergence.length);
+	    out.writeInt(divergence.length == 0 ? 0 : divergence[0].length);
+	    for(int i = 0; i < divergence.length; i++){
+		for(int index : divergence[i])
+		    out.writeInt(index);
+		out.writeInt(orbitRe[i].length);
+		for(int k = 0; k < orbitRe[i].length; k++){
+		    out.writeDouble(orbitRe[i][k]);
+		    out.writeDouble(orbitIm[i][k]);
+		}
+	    }
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR SAVING ORBITS");
+	}
+    }
+
+    /**
+     * Loads the state saved in the file at the specified path
+     *
+     * @param path The path of the file
+     * @return The loaded state, or null if there is no valid file at path
+     */
+    public static OrbitState loadFile(String path){
+	if(!new File(path).exists())
+	    return null;
+	try(DataInputStream in =
+	    new DataInputStream(new BufferedInputStream
+				(new FileInputStream(path)))){
+	    if(in.readInt() != MAGIC)
+		throw new IOException("Not an orbit file");
+	    String parameters = in.readUTF();
+	    int maxIteration = in.readInt();
+	    int w = in.readInt();
+	    int h = in.readInt();
+	    int[][] divergence = new int[w][h];
+	    double[][] orbitRe = new double[w][];
+	    double[][] orbitIm = new double[w][];
+	    for(int i = 0; i < w; i++){
+		for(int j = 0; j < h; j++)
+		    divergence[i][j] = in.readInt();
+		int n = in.readInt();
+		orbitRe[i] = new double[n];
+		orbitIm[i] = new double[n];
+		for(int k = 0; k < n; k++){
+		    orbitRe[i][k] = in.readDouble();
+		    orbitIm[i][k] = in.readDouble();
+		}
+	    }
+	    return new OrbitState(parameters, maxIteration, divergence,
+				  orbitRe, orbitIm);
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("Error loading orbits...");
+	    return null;
+	}
+    }
+
+    // returns the parameters of fractal that determine its orbits
+    private static String parametersOf(Fractal fractal){
+	StringBuilder sb = new StringBuilder();
+	// the type, followed by the formula of the fractal if it has one
+	sb.append(FractalText.typeLine(fractal));
+	if(fractal instanceof Julia){
+	    Julia julia = (Julia) fractal;
+	    sb.append(' ').append(julia.getComplexConstant())
+		.append(' ').append(julia.getAlphaFactor())
+		.append(' ').append(julia.getBetaFactor());
+	}
+	sb.append(' ').append(fractal.getDiscreteStep())
+	    .append(' ').append(fractal.getXMin())
+	    .append(' ').append(fractal.getYMax())
+	    .append(' ').append(fractal.getWidth())
+	    .append(' ').append(fractal.getHeight());
+	return sb.toString();
+    }
+
+    // computes the columns of a state, using the same pixel mapping as
+    // DivergenceIndexMatrixCalculator
+    private static class Calculator extends RecursiveAction {
+	int from, to; // boundaries
+	Fractal fractal; // the fractal being computed
+	OrbitState previous; // the state to resume, or null
+	OrbitState state; // the state being computed
+
+	Calculator(int from, int to, Fractal fractal, OrbitState previous,
+		   OrbitState state){
+	    this.from = from;
+	    this.to = to;
+	    this.fractal = fractal;
+	    this.previous = previous;
+	    this.state = state;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= Math.max(1, fractal.getWidth() / 16)){
+		for(int i = from; i < to; i++)
+		    computeColumn(i);
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new Calculator(from, middle, fractal, previous, state),
+		      new Calculator(middle, to, fractal, previous, state));
+	}
+
+	// computes the column i, keeping the orbits of undecided pixels
+	private void computeColumn(int i){
+	    int h = fractal.getHeight();
+	    int max = fractal.getMaxIteration();
+	    double[] re = new double[h];
+	    double[] im = new double[h];
+	    int undecided = 0;
+	    int resumed = 0;
+	    for(int j = 0; j < h; j++){
+		Complex z =
+		    Complex.of(fractal.getXMin() + (fractal.getDiscreteStep() * i),
+			       fractal.getYMax() - (fractal.getDiscreteStep() * j));
+		Complex zn;
+		int iteration;
+		if(previous == null){
+		    zn = fractal.getOrbitStart(z);
+		    iteration = 0;
+		} else {
+		    iteration = previous.divergence[i][j];
+		    if(iteration < previous.maxIteration - 1){
+			// escaped pixel, its index does not depend on max
+			state.divergence[i][j] = iteration;
+			continue;
+		    }
+		    zn = Complex.of(previous.orbitRe[i][resumed],
+				    previous.orbitIm[i][resumed]);
+		    resumed++;
+		}
+		while(iteration < max - 1 && zn.modulus() <= Fractal.RADIUS){
+		    zn = fractal.iterate(zn, z);
+		    iteration++;
+		}
+		state.divergence[i][j] = iteration;
+		if(iteration == max - 1){
+		    re[undecided] = zn.getRe();
+		    im[undecided] = zn.getIm();
+		    undecided++;
+		}
+	    }
+	    state.orbitRe[i] = Arrays.copyOf(re, undecided);
+	    state.orbitIm[i] = Arrays.copyOf(im, undecided);
+	}
+    }
+}
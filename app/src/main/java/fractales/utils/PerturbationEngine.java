@@ -0,0 +1,47 @@
+package fractales.utils;
+
+import fractales.model.*;
+
+/**
+ * This engine computes the deep zooms of the Mandelbrot set with the
+ * PerturbationRenderer : one reference orbit in the extended precision of
+ * the view, computed by a single thread, and the other pixels in double
+ * precision as differences from it.
+ */
+public class PerturbationEngine implements RenderEngine {
+
+    // cost of an iteration of a difference relative to an iteration of a
+    // primitive double orbit
+    private static final double COST = 3.0;
+
+    // usual number of reference orbits of an image, the first one and those
+    // of the glitches
+    private static final int REFERENCES = 2;
+
+    @Override
+    public String getName(){
+	return "perturbation";
+    }
+
+    @Override
+    public boolean supports(Fractal fractal){
+	return fractal instanceof Mandelbrot
+	    && ((Mandelbrot) fractal).getFormula() == null
+	    && fractal.getPrecision().isExtended();
+    }
+
+    @Override
+    public double estimateCost(Fractal fractal){
+	// the reference orbits cost as much as those of the scalar engine
+	return REFERENCES * ScalarEngine.costOf(fractal.getPrecision())
+	    * fractal.getMaxIteration()
+	    + COST * RenderEngines.getMeanIterations(fractal)
+	    * fractal.getWidth() * fractal.getHeight()
+	    / RenderEngines.getParallelism();
+    }
+
+    @Override
+    public int[][] computeMatrix(Fractal fractal){
+	return PerturbationRenderer.computeMatrix((Mandelbrot) fractal);
+    }
+}
@@ -0,0 +1,204 @@
+package fractales.utils;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+
+/**
+ * This class computes deep zooms of the Mandelbrot set by perturbation.
+ * The orbit of one reference pixel is computed in the precision the zoom
+ * requires, and every other pixel is iterated in double precision as
+ * a small difference from this reference orbit :
+ * d(n+1) = 2 * Z(n) * d(n) + d(n)^2 + dc
+ * where Z(n) is the reference orbit and dc the offset of the pixel from
+ * the reference. Pixels whose difference can no longer be trusted (glitches)
+ * are computed again from a new reference chosen among them.
+ */
+public class PerturbationRenderer {
+
+    // a pixel glitches when |z(n)|^2 < GLITCH_TOLERANCE * |Z(n)|^2
+    private static final double GLITCH_TOLERANCE = 1e-6;
+
+    // maximal number of reference orbits for one image
+    private static final int MAX_REFERENCES = 64;
+
+    // this class only has static methods
+    private PerturbationRenderer(){
+    }
+
+    /**
+     * Computes the divergence index of each pixel of the specified
+     * Mandelbrot fractal by perturbation of reference orbits
+     *
+     * @param fractal The Mandelbrot set to compute
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     */
+    public static int[][] computeMatrix(Mandelbrot fractal){
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	int[][] results = new int[w][h];
+	boolean[][] pending = new boolean[w][h];
+	for(boolean[] column : pending)
+	    Arrays.fill(column, true);
+
+	// precision in which two pixels can be told apart
+	ComplexNumber.Factory<?> factory =
+	    fractal.getPrecision().factory(fractal.getDiscreteStep());
+
+	// the first reference is the center of the image
+	Glitch next = new Glitch();
+	next.i = w / 2;
+	next.j = h / 2;
+	for(int r = 0; r < MAX_REFERENCES && next.i >= 0; r++){
+	    Reference reference =
+		new Reference(fractal, next.i, next.j, factory);
+	    next = new Glitch();
+	    DivergenceIndexMatrixCalculator.getPool()
+		.invoke(new Calculator(0, w, results, pending, fractal,
+				       reference, next));
+	}
+	return results;
+    }
+
+    // the orbit of a reference pixel, rounded to doubles
+    private static class Reference {
+	int i, j; // the reference pixel
+	double[] re; // real parts of the orbit
+	double[] im; // imaginary parts of the orbit
+	int length; // number of terms of the orbit
+
+	Reference(Mandelbrot fractal, int i, int j,
+		  ComplexNumber.Factory<?> factory){
+	    this.i = i;
+	    this.j = j;
+	    int max = fractal.getMaxIteration();
+	    re = new double[max];
+	    im = new double[max];
+	    computeOrbit(fractal, factory);
+	}
+
+	// computes the orbit of the reference pixel with the precision of
+	// the numbers of factory
+	private <T extends ComplexNumber<T>> void computeOrbit
+	    (Mandelbrot fractal, ComplexNumber.Factory<T> factory){
+	    BigDecimal step = new BigDecimal(fractal.getDiscreteStep());
+	    T c = factory.of(fractal.getPreciseXMin()
+			     .add(step.multiply(BigDecimal.valueOf(i))),
+			     fractal.getPreciseYMax()
+			     .subtract(step.multiply(BigDecimal.valueOf(j))));
+	    T z = factory.of(Complex.getZERO());
+	    length = 0;
+	    while(length < re.length){
+		re[length] = z.getRe();
+		im[length] = z.getIm();
+		length++;
+		if(z.modulusSquared() > Fractal.RADIUS * Fractal.RADIUS)
+		    break;
+		// Z(n+1) = Z(n)^2 + c
+		z = z.multiply(z).add(c);
+	    }
+	}
+    }
+
+    // the most glitched pixel found by a pass, i is -1 when there is none
+    private static class Glitch {
+	int i = -1;
+	int j = -1;
+	double ratio = Double.MAX_VALUE;
+
+	synchronized void offer(int i, int j, double ratio){
+	    if(ratio < this.ratio){
+		this.i = i;
+		this.j = j;
+		this.ratio = ratio;
+	    }
+	}
+    }
+
+    // computes the pending pixels from column from to column to
+    private static class Calculator extends RecursiveAction {
+	int from, to; // boundaries
+	int[][] results; // resulting array of divergence indices
+	boolean[][] pending; // pixels not computed yet
+	Mandelbrot fractal; // the fractal being built
+	Reference reference; // the reference orbit
+	Glitch glitch; // receives the next reference
+
+	Calculator(int from, int to, int[][] results, boolean[][] pending,
+		   Mandelbrot fractal, Reference reference, Glitch glitch){
+	    this.from = from;
+	    this.to = to;
+	    this.results = results;
+	    this.pending = pending;
+	    this.fractal = fractal;
+	    this.reference = reference;
+	    this.glitch = glitch;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= Math.max(1, fractal.getWidth() / 32)){
+		computeDirectly();
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new Calculator(from, middle, results, pending, fractal,
+				     reference, glitch),
+		      new Calculator(middle, to, results, pending, fractal,
+				     reference, glitch));
+	}
+
+	// computes the pending pixels of the columns of this task
+	private void computeDirectly(){
+	    Glitch local = new Glitch();
+	    for(int i = from; i < to; i++)
+		for(int j = 0; j < fractal.getHeight(); j++)
+		    if(pending[i][j])
+			computePixel(i, j, local);
+	    if(local.i >= 0)
+		glitch.offer(local.i, local.j, local.ratio);
+	}
+
+	// iterates the difference between the pixel (i, j) and the reference
+	private void computePixel(int i, int j, Glitch local){
+	    double step = fractal.getDiscreteStep();
+	    double dcRe = (i - reference.i) * step;
+	    double dcIm = (reference.j - j) * step;
+	    double[] zRe = reference.re;
+	    double[] zIm = reference.im;
+	    int max = fractal.getMaxIteration();
+	    double dRe = 0.0;
+	    double dIm = 0.0;
+	    double re = 0.0;
+	    double im = 0.0;
+	    int n = 0;
+	    while(n < max - 1
+		  && re * re + im * im <= Fractal.RADIUS * Fractal.RADIUS){
+		if(n + 1 >= reference.length){
+		    // the reference escaped before this pixel
+		    results[i][j] = n;
+		    local.offer(i, j, 1.0);
+		    return;
+		}
+		double nextRe = 2 * (zRe[n] * dRe - zIm[n] * dIm)
+		    + dRe * dRe - dIm * dIm + dcRe;
+		dIm = 2 * (zRe[n] * dIm + zIm[n] * dRe) + 2 * dRe * dIm + dcIm;
+		dRe = nextRe;
+		n++;
+		re = zRe[n] + dRe;
+		im = zIm[n] + dIm;
+		double norm = zRe[n] * zRe[n] + zIm[n] * zIm[n];
+		if(re * re + im * im < GLITCH_TOLERANCE * norm){
+		    // the difference lost its precision
+		    results[i][j] = n;
+		    local.offer(i, j, (re * re + im * im) / norm);
+		    return;
+		}
+	    }
+	    results[i][j] = n;
+	    pending[i][j] = false;
+	}
+    }
+}
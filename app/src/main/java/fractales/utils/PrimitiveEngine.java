@@ -0,0 +1,122 @@
+package fractales.utils;
+
+import fractales.model.*;
+import fractales.utils.DivergenceIndexMatrixCalculator.Kernel;
+
+/**
+ * This engine computes the pixels of the Julia and Mandelbrot sets with
+ * primitive doubles, both being iterated by the same kernel
+ * z(n+1) = alpha * z(n) * z(n) + beta * z(n) + c
+ * from z(0) = z and a constant c for the Julia sets, from z(0) = 0 with
+ * c = z, alpha = 1 and beta = 0 for the Mandelbrot set. The operations are
+ * those of Complex, so the indices are those of the scalar engine in
+ * double precision. The fractals iterated by a formula are computed by
+ * its compiled kernel.
+ */
+public class PrimitiveEngine implements RenderEngine {
+
+    // cost of an iteration relative to an iteration of a primitive double
+    // orbit
+    private static final double COST = 1.0;
+
+    @Override
+    public String getName(){
+	return "primitive";
+    }
+
+    @Override
+    public boolean supports(Fractal fractal){
+	return (fractal instanceof Julia || fractal instanceof Mandelbrot)
+	    && !fractal.getPrecision().isExtended();
+    }
+
+    @Override
+    public double estimateCost(Fractal fractal){
+	return COST * RenderEngines.getMeanIterations(fractal)
+	    * fractal.getWidth() * fractal.getHeight()
+	    * DivergenceIndexMatrixCalculator.getComputedShare(fractal)
+	    / RenderEngines.getParallelism();
+    }
+
+    @Override
+    public int[][] computeMatrix(Fractal fractal){
+	return DivergenceIndexMatrixCalculator.computeMatrix(fractal,
+							     kernelOf(fractal));
+    }
+
+    /**
+     * Returns the kernel that computes the pixels of the specified Fractal
+     * fractal with primitive doubles
+     *
+     * @param fractal A Julia or Mandelbrot set
+     * @return The kernel of fractal
+     */
+    static Kernel kernelOf(Fractal fractal){
+	int maxIteration = fractal.getMaxIteration();
+	if(fractal instanceof Mandelbrot){
+	    Formula formula = ((Mandelbrot) fractal).getFormula();
+	    if(formula != null)
+		return (re, im) -> formula.computeDivergence(0, 0, re, im,
+							     maxIteration);
+	    return (re, im) -> computeDivergence(0, 0, 1, 0, 0, 0, re, im,
+						 maxIteration);
+	}
+	Julia julia = (Julia) fractal;
+	double cRe = julia.getComplexConstant().getRe();
+	double cIm = julia.getComplexConstant().getIm();
+	Formula formula = julia.getFormula();
+	if(formula != null)
+	    return (re, im) -> formula.computeDivergence(re, im, cRe, cIm,
+							 maxIteration);
+	double aRe = julia.getAlphaFactor().getRe();
+	double aIm = julia.getAlphaFactor().getIm();
+	double bRe = julia.getBetaFactor().getRe();
+	double bIm = julia.getBetaFactor().getIm();
+	return (re, im) -> computeDivergence(re, im, aRe, aIm, bRe, bIm, cRe,
+					     cIm, maxIteration);
+    }
+
+    /**
+     * Computes the divergence index of the orbit of the specified first
+     * term by alpha * z * z + beta * z + c
+     *
+     * @param zRe The real part of the first term
+     * @param zIm The imaginary part of the first term
+     * @param aRe The real part of alpha
+     * @param aIm The imaginary part of alpha
+     * @param bRe The real part of beta
+     * @param bIm The imaginary part of beta
+     * @param cRe The real part of c
+     * @param cIm The imaginary part of c
+     * @param maxIteration The maximal number of iterations
+     * @return The divergence index of the orbit
+     */
+    static int computeDivergence(double zRe, double zIm, double aRe,
+				 double aIm, double bRe, double bIm,
+				 double cRe, double cIm, int maxIteration){
+	int iteration = 0;
+	if(aRe == 1 && aIm == 0 && bRe == 0 && bIm == 0){
+	    // z * z + c, as Complex computes zn.multiply(zn).add(c)
+	    while(iteration < maxIteration - 1
+		  && Math.sqrt(zRe * zRe + zIm * zIm) <= Fractal.RADIUS){
+		double nextRe = (zRe * zRe - zIm * zIm) + cRe;
+		zIm = (zRe * zIm + zIm * zRe) + cIm;
+		zRe = nextRe;
+		iteration++;
+	    }
+	    return iteration;
+	}
+	while(iteration < maxIteration - 1
+	      && Math.sqrt(zRe * zRe + zIm * zIm) <= Fractal.RADIUS){
+	    // alpha * (z * z) + z * beta + c, as Julia computes it
+	    double sqRe = zRe * zRe - zIm * zIm;
+	    double sqIm = zRe * zIm + zIm * zRe;
+	    double nextRe = (aRe * sqRe - aIm * sqIm) + (zRe * bRe - zIm * bIm)
+		+ cRe;
+	    zIm = (aRe * sqIm + aIm * sqRe) + (zRe * bIm + zIm * bRe) + cIm;
+	    zRe = nextRe;
+	    iteration++;
+	}
+	return iteration;
+    }
+}
@@ -0,0 +1,61 @@
+package fractales.utils;
+
+import fractales.model.*;
+
+/**
+ * This interface defines an engine that computes the divergence index
+ * matrix of a fractal. Engines are discovered by the ServiceLoader of
+ * RenderEngine, and RenderEngines selects the cheapest exact one that
+ * supports a fractal, so a new engine only has to be listed in
+ * META-INF/services/fractales.utils.RenderEngine with a public
+ * constructor without arguments.
+ */
+public interface RenderEngine {
+
+    /**
+     * Returns the name of this engine, by which it can be forced
+     *
+     * @return The name of this engine
+     */
+    String getName();
+
+    /**
+     * Returns true if this engine can compute the specified Fractal
+     * fractal, to the precision of its discrete step
+     *
+     * @param fractal A fractal
+     * @return true if computeMatrix supports fractal
+     */
+    boolean supports(Fractal fractal);
+
+    /**
+     * Returns true if this engine computes the index of every pixel, false
+     * if it guesses some of them, in which case it is only used when it is
+     * forced
+     *
+     * @return true if the indices of this engine are exact
+     */
+    default boolean isExact(){
+	return true;
+    }
+
+    /**
+     * Returns an estimate of the time this engine takes to compute the
+     * specified Fractal fractal, in iterations of a primitive double orbit
+     * per thread. Only the order of the estimates of the engines matters.
+     *
+     * @param fractal A fractal this engine supports
+     * @return The estimated cost of the render of fractal
+     */
+    double estimateCost(Fractal fractal);
+
+    /**
+     * Computes the divergence index of each pixel of the specified
+     * Fractal fractal
+     *
+     * @param fractal A fractal this engine supports
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     */
+    int[][] computeMatrix(Fractal fractal);
+}
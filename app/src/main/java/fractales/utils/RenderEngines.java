@@ -0,0 +1,231 @@
+package fractales.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ServiceLoader;
+import fractales.model.*;
+
+/**
+ * This class selects the RenderEngine that computes a fractal : the engine
+ * named by the fractales.engine system property when it is set, the exact
+ * supporting engine of lowest estimated cost otherwise. The estimates
+ * share a probe of a coarse grid of the view, that tells the mean number
+ * of iterations of its pixels and the share of the pixels in the set.
+ * Views on the lattice of the tile cache are assembled from its tiles,
+ * unless an engine is forced.
+ */
+public final class RenderEngines {
+
+    /**
+     * System property that forces the engine of every render, by its name
+     */
+    public static final String PROPERTY = "fractales.engine";
+
+    // side of the grid of pixels of the probe
+    private static final int PROBE = 8;
+
+    // engines found by the ServiceLoader, in the order of their names
+    private static final List<RenderEngine> ENGINES = loadEngines();
+
+    // the last probe, reused by the estimates of the same fractal
+    private static volatile Probe lastProbe;
+
+    // this class only has static methods
+    private RenderEngines(){
+    }
+
+    // loads the engines listed by the providers of RenderEngine, or the
+    // scalar engine alone when there are none, so that a class path
+    // without the list still renders
+    private static List<RenderEngine> loadEngines(){
+	List<RenderEngine> engines = new ArrayList<>();
+	for(RenderEngine engine : ServiceLoader.load(RenderEngine.class))
+	    engines.add(engine);
+	if(engines.isEmpty())
+	    engines.add(new ScalarEngine());
+	engines.sort(Comparator.comparing(RenderEngine::getName));
+	return Collections.unmodifiableList(engines);
+    }
+
+    /**
+     * Returns the engines that can be selected
+     *
+     * @return The engines, in the order of their names
+     */
+    public static List<RenderEngine> getEngines(){
+	return ENGINES;
+    }
+
+    /**
+     * Returns the engine of the specified name
+     *
+     * @param name The name of an engine
+     * @return The engine of name name
+     * @throws IllegalArgumentException if no engine has this name
+     */
+    public static RenderEngine getEngine(String name){
+	for(RenderEngine engine : ENGINES)
+	    if(engine.getName().equals(name))
+		return engine;
+	throw new IllegalArgumentException("Unknown engine " + name
+					   + ", expected one of "
+					   + getEngineNames());
+    }
+
+    /**
+     * Returns the names of the engines, separated by commas
+     *
+     * @return The names of the engines
+     */
+    public static String getEngineNames(){
+	List<String> names = new ArrayList<>();
+	for(RenderEngine engine : ENGINES)
+	    names.add(engine.getName());
+	return String.join(", ", names);
+    }
+
+    /**
+     * Returns the engine that computes the specified Fractal fractal : the
+     * engine forced by the fractales.engine property, or the exact
+     * supporting engine of lowest estimated cost
+     *
+     * @param fractal A fractal
+     * @return The engine of fractal
+     * @throws IllegalArgumentException if the forced engine is unknown or
+     * does not support fractal, or if no exact engine supports fractal
+     */
+    public static RenderEngine select(Fractal fractal){
+	String forced = System.getProperty(PROPERTY);
+	if(forced != null){
+	    RenderEngine engine = getEngine(forced);
+	    if(!engine.supports(fractal))
+		throw new IllegalArgumentException("The " + forced + " engine "
+						   + "does not support this "
+						   + "fractal");
+	    return engine;
+	}
+	RenderEngine best = null;
+	double bestCost = Double.POSITIVE_INFINITY;
+	for(RenderEngine engine : ENGINES){
+	    if(!engine.isExact() || !engine.supports(fractal))
+		continue;
+	    double cost = engine.estimateCost(fractal);
+	    if(best == null || cost < bestCost){
+		best = engine;
+		bestCost = cost;
+	    }
+	}
+	if(best == null)
+	    throw new IllegalArgumentException("No engine supports this "
+					       + "fractal");
+	return best;
+    }
+
+    /**
+     * Computes the divergence index matrix of the specified Fractal fractal
+     * with its engine, or from the tiles of the default TileCache when it
+     * is on their lattice and no engine is forced
+     *
+     * @param fractal The fractal to compute
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     */
+    public static int[][] computeMatrix(Fractal fractal){
+	if(isTiled(fractal))
+	    return TileCache.getDefault().computeMatrix(fractal);
+	return select(fractal).computeMatrix(fractal);
+    }
+
+    /**
+     * Returns the name of the engine with which computeMatrix computes the
+     * specified Fractal fractal, or "tiles" when it is assembled from the
+     * tiles of the default TileCache
+     *
+     * @param fractal A fractal
+     * @return The name of the engine of fractal
+     * @throws IllegalArgumentException in the cases of select
+     */
+    public static String describe(Fractal fractal){
+	return isTiled(fractal) ? "tiles" : select(fractal).getName();
+    }
+
+    // returns true if fractal is assembled from the tiles of the cache
+    private static boolean isTiled(Fractal fractal){
+	return System.getProperty(PROPERTY) == null
+	    && TileCache.isCacheable(fractal);
+    }
+
+    /**
+     * Returns the mean number of iterations of the orbits of the pixels of
+     * the specified Fractal fractal, estimated on a coarse grid
+     *
+     * @param fractal A fractal
+     * @return The estimated mean number of iterations of a pixel
+     */
+    public static double getMeanIterations(Fractal fractal){
+	return probe(fractal).meanIterations;
+    }
+
+    /**
+     * Returns the share of the pixels of the specified Fractal fractal
+     * whose orbits do not escape, estimated on a coarse grid
+     *
+     * @param fractal A fractal
+     * @return The estimated share of the pixels in the set, between 0 and 1
+     */
+    public static double getInteriorShare(Fractal fractal){
+	return probe(fractal).interiorShare;
+    }
+
+    /**
+     * Returns the number of threads that compute the pixels
+     *
+     * @return The parallelism of the shared pool
+     */
+    public static int getParallelism(){
+	return DivergenceIndexMatrixCalculator.getPool().getParallelism();
+    }
+
+    // returns the probe of fractal, computed with doubles at the centers of
+    // the cells of a PROBE x PROBE grid of the view
+    private static Probe probe(Fractal fractal){
+	Probe probe = lastProbe;
+	if(probe != null && probe.fractal == fractal)
+	    return probe;
+	int top = fractal.getMaxIteration() - 1;
+	double step = fractal.getDiscreteStep();
+	long iterations = 0;
+	int interior = 0;
+	for(int u = 0; u < PROBE; u++){
+	    int i = (2 * u + 1) * fractal.getWidth() / (2 * PROBE);
+	    for(int v = 0; v < PROBE; v++){
+		int j = (2 * v + 1) * fractal.getHeight() / (2 * PROBE);
+		int index = fractal.computeDivergence
+		    (Complex.of(fractal.getXMin() + step * i,
+				fractal.getYMax() - step * j));
+		iterations += index + 1;
+		if(index >= top)
+		    interior++;
+	    }
+	}
+	probe = new Probe(fractal, (double) iterations / (PROBE * PROBE),
+			  (double) interior / (PROBE * PROBE));
+	lastProbe = probe;
+	return probe;
+    }
+
+    // the estimates of the probe of a fractal
+    private static class Probe {
+	final Fractal fractal;
+	final double meanIterations;
+	final double interiorShare;
+
+	Probe(Fractal fractal, double meanIterations, double interiorShare){
+	    this.fractal = fractal;
+	    this.meanIterations = meanIterations;
+	    this.interiorShare = interiorShare;
+	}
+    }
+}
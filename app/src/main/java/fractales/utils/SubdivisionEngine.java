@@ -0,0 +1,183 @@
+package fractales.utils;
+
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+import fractales.utils.DivergenceIndexMatrixCalculator.Kernel;
+
+/**
+ * This engine subdivides the view into rectangles, after Mariani and
+ * Silver : when every pixel of the border of a rectangle is in the set,
+ * the pixels inside it are in the set too and are filled without being
+ * computed, otherwise the rectangle is cut in two along its longer side.
+ * The points whose orbits do not escape within maxIteration iterations of
+ * a polynomial form a set without holes, so a border in the set only
+ * surrounds points of the set, up to the details thinner than a pixel.
+ * The pixels are computed by the kernel of the primitive engine, so the
+ * computed pixels have the same indices. Formulas are not supported, their
+ * sets may have holes. The filled pixels are guessed, so that this engine
+ * is only used when it is forced.
+ */
+public class SubdivisionEngine implements RenderEngine {
+
+    // side of the blocks computed in parallel
+    private static final int BLOCK = 64;
+
+    // rectangles thinner than this are computed without subdivision
+    private static final int MIN = 4;
+
+    // share of the pixels of the set that are filled, measured on views of
+    // the Mandelbrot and Julia sets
+    private static final double FILLED = 0.8;
+
+    // cost of an iteration relative to an iteration of a primitive double
+    // orbit, the kernel of the primitive engine being called the same way
+    private static final double COST = 1.0;
+
+    @Override
+    public String getName(){
+	return "subdivision";
+    }
+
+    @Override
+    public boolean supports(Fractal fractal){
+	return (fractal instanceof Julia && ((Julia) fractal).getFormula() == null
+		|| fractal instanceof Mandelbrot
+		&& ((Mandelbrot) fractal).getFormula() == null)
+	    && !fractal.getPrecision().isExtended();
+    }
+
+    @Override
+    public boolean isExact(){
+	// the details of the set thinner than a pixel may be filled
+	return false;
+    }
+
+    @Override
+    public double estimateCost(Fractal fractal){
+	// the filled pixels of the set would have cost maxIteration each
+	double interior = RenderEngines.getInteriorShare(fractal)
+	    * fractal.getMaxIteration();
+	double computed = Math.max(0, RenderEngines.getMeanIterations(fractal)
+				   - FILLED * interior);
+	return COST * computed * fractal.getWidth() * fractal.getHeight()
+	    / RenderEngines.getParallelism();
+    }
+
+    @Override
+    public int[][] computeMatrix(Fractal fractal){
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	int[][] results = new int[w][h];
+	int columns = (w + BLOCK - 1) / BLOCK;
+	int rows = (h + BLOCK - 1) / BLOCK;
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new BlockCalculator(0, columns * rows, rows, results,
+					fractal,
+					PrimitiveEngine.kernelOf(fractal)));
+	return results;
+    }
+
+    // computes the blocks from index from to index to, the block of index
+    // b being in the column b / rows and the row b % rows of the blocks
+    private static class BlockCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	int rows; // number of rows of blocks
+	int[][] results; // resulting array of divergence indices
+	Fractal fractal; // the fractal being built
+	Kernel kernel; // computes the pixels
+
+	BlockCalculator(int from, int to, int rows, int[][] results,
+			Fractal fractal, Kernel kernel){
+	    this.from = from;
+	    this.to = to;
+	    this.rows = rows;
+	    this.results = results;
+	    this.fractal = fractal;
+	    this.kernel = kernel;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= 1){
+		for(int b = from; b < to; b++)
+		    computeBlock(b);
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new BlockCalculator(from, middle, rows, results, fractal,
+					  kernel),
+		      new BlockCalculator(middle, to, rows, results, fractal,
+					  kernel));
+	}
+
+	// computes the border of the block b, then subdivides it
+	private void computeBlock(int b){
+	    int x0 = (b / rows) * BLOCK;
+	    int y0 = (b % rows) * BLOCK;
+	    int x1 = Math.min(results.length, x0 + BLOCK) - 1;
+	    int y1 = Math.min(results[0].length, y0 + BLOCK) - 1;
+	    for(int i = x0; i <= x1; i++){
+		computePixel(i, y0);
+		computePixel(i, y1);
+	    }
+	    for(int j = y0 + 1; j < y1; j++){
+		computePixel(x0, j);
+		computePixel(x1, j);
+	    }
+	    subdivide(x0, y0, x1, y1);
+	}
+
+	// fills or computes the inside of the rectangle of the specified
+	// inclusive bounds, whose border is computed
+	private void subdivide(int x0, int y0, int x1, int y1){
+	    if(x1 - x0 < 2 || y1 - y0 < 2)
+		return;
+	    int top = fractal.getMaxIteration() - 1;
+	    if(isBorderInSet(x0, y0, x1, y1, top)){
+		for(int i = x0 + 1; i < x1; i++)
+		    for(int j = y0 + 1; j < y1; j++)
+			results[i][j] = top;
+		return;
+	    }
+	    if(x1 - x0 <= MIN || y1 - y0 <= MIN){
+		for(int i = x0 + 1; i < x1; i++)
+		    for(int j = y0 + 1; j < y1; j++)
+			computePixel(i, j);
+		return;
+	    }
+	    // the cut becomes a side of the border of both halves
+	    if(x1 - x0 >= y1 - y0){
+		int middle = (x0 + x1) / 2;
+		for(int j = y0 + 1; j < y1; j++)
+		    computePixel(middle, j);
+		subdivide(x0, y0, middle, y1);
+		subdivide(middle, y0, x1, y1);
+	    } else {
+		int middle = (y0 + y1) / 2;
+		for(int i = x0 + 1; i < x1; i++)
+		    computePixel(i, middle);
+		subdivide(x0, y0, x1, middle);
+		subdivide(x0, middle, x1, y1);
+	    }
+	}
+
+	// returns true if every pixel of the border of the rectangle has the
+	// index top
+	private boolean isBorderInSet(int x0, int y0, int x1, int y1, int top){
+	    for(int i = x0; i <= x1; i++)
+		if(results[i][y0] != top || results[i][y1] != top)
+		    return false;
+	    for(int j = y0 + 1; j < y1; j++)
+		if(results[x0][j] != top || results[x1][j] != top)
+		    return false;
+	    return true;
+	}
+
+	// computes the pixel (i, j)
+	private void computePixel(int i, int j){
+	    results[i][j] = kernel.computeDivergence
+		(fractal.getXMin() + (fractal.getDiscreteStep() * i),
+		 fractal.getYMax() - (fractal.getDiscreteStep() * j));
+	}
+    }
+}
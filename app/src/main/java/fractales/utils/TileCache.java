@@ -0,0 +1,418 @@
+package fractales.utils;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.*;
+import java.util.concurrent.RecursiveAction;
+import fractales.model.*;
+import fractales.model.Fractal.Precision;
+import fractales.model.Fractal.Symmetry;
+
+/**
+ * This class keeps the divergence indices of the last computed tiles, so
+ * that views that overlap previous ones only compute their new tiles.
+ * Tiles lie on the lattice of the multiples of the discrete step : the
+ * pixel of lattice coordinates (u, v) represents the complex
+ * u * step - v * step * i. Only views whose corner is on this lattice, as
+ * the views of the viewer, can use the cache. The least recently used
+ * tiles are evicted once the cache holds more pixels than its capacity.
+ */
+public class TileCache {
+
+    // side in pixels of the tiles, odd so that a tile centered on the
+    // lattice row v mirrors exactly the tile centered on the row -v
+    private static final int TILE_SIZE = 63;
+    private static final int HALF = TILE_SIZE / 2;
+
+    // default maximal number of cached pixels, 64 MB of indices
+    private static final long DEFAULT_CAPACITY = 1L << 24;
+
+    // significant digits of the steps that identify a lattice, so that
+    // a view zoomed in and out again finds the same lattice
+    private static final MathContext STEP_DIGITS = new MathContext(12);
+
+    // side in pixels of the outline that estimates the cost of the tiles
+    private static final int OUTLINE_SIZE = 256;
+
+    // largest lattice coordinate of a cacheable view, above which
+    // multiples of the step are no longer exact enough
+    private static final double MAX_LATTICE = 1L << 40;
+
+    // cache shared by the renders of the application
+    private static final TileCache DEFAULT = new TileCache(DEFAULT_CAPACITY);
+
+    // tiles in the order of their last use
+    private final LinkedHashMap<Key, int[][]> tiles =
+	new LinkedHashMap<>(16, 0.75f, true);
+
+    // maximal and current number of cached pixels
+    private final long capacity;
+    private long size;
+
+    // metrics
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Instantiates an empty cache holding at most the specified number of
+     * pixels
+     *
+     * @param capacity The maximal number of cached pixels
+     */
+    public TileCache(long capacity){
+	this.capacity = capacity;
+    }
+
+    /**
+     * Returns the cache shared by the renders of the application
+     *
+     * @return The default cache
+     */
+    public static TileCache getDefault(){
+	return DEFAULT;
+    }
+
+    /**
+     * Returns true if the view of the specified Fractal fractal lies on
+     * the lattice of its discrete step, and is computed with floats or
+     * doubles
+     *
+     * @param fractal A fractal
+     * @return true if the tiles of fractal can be cached
+     */
+    public static boolean isCacheable(Fractal fractal){
+	if(fractal.getPrecision().isExtended())
+	    return false;
+	double step = canonicalStep(fractal.getDiscreteStep());
+	return isOnLattice(fractal.getXMin() / step)
+	    && isOnLattice(fractal.getYMax() / step);
+    }
+
+    // returns true if x is an integer small enough for the lattice
+    private static boolean isOnLattice(double x){
+	return Math.abs(x) < MAX_LATTICE
+	    && Math.abs(x - Math.rint(x)) < 1e-6;
+    }
+
+    // returns the step of the lattice of the views of step step
+    private static double canonicalStep(double step){
+	return new BigDecimal(step).round(STEP_DIGITS).doubleValue();
+    }
+
+    /**
+     * Computes the divergence indices of the specified Fractal fractal
+     * from the cached tiles it covers, and caches the tiles that were
+     * missing. Missing tiles that mirror cached or computed tiles, by the
+     * symmetry of fractal, are copied from them.
+     *
+     * @param fractal A fractal for which isCacheable returns true
+     * @return A 2D array containing the divergence index of the
+     * corresponding complex number
+     * @throws IllegalArgumentException if fractal is not cacheable
+     */
+    public int[][] computeMatrix(Fractal fractal){
+	if(!isCacheable(fractal))
+	    throw new IllegalArgumentException("View off the lattice");
+	int w = fractal.getWidth();
+	int h = fractal.getHeight();
+	double step = canonicalStep(fractal.getDiscreteStep());
+	long u0 = Math.round(fractal.getXMin() / step);
+	long v0 = -Math.round(fractal.getYMax() / step);
+	String parameters = parametersOf(fractal, step);
+	Symmetry symmetry = fractal.getSymmetry();
+
+	// finds the tiles of the view in the cache
+	Map<Key, int[][]> found = new HashMap<>();
+	List<Key> missing = new ArrayList<>();
+	for(long tu = tileOf(u0); tu <= tileOf(u0 + w - 1); tu++){
+	    for(long tv = tileOf(v0); tv <= tileOf(v0 + h - 1); tv++){
+		Key key = new Key(parameters, tu, tv);
+		int[][] tile = get(key);
+		if(tile == null)
+		    missing.add(key);
+		else
+		    found.put(key, tile);
+	    }
+	}
+
+	// computes the missing tiles whose mirror is not available, and keeps
+	// the cached mirrors, which the tiles cached below or a concurrent
+	// render may evict before they are copied
+	List<Key> computed = new ArrayList<>();
+	for(Key key : missing){
+	    Key mirror = key.mirror(symmetry);
+	    if(mirror == null || mirror.equals(key)){
+		computed.add(key);
+		continue;
+	    }
+	    if(found.containsKey(mirror) || computed.contains(mirror))
+		continue;
+	    int[][] source = peek(mirror);
+	    if(source == null)
+		computed.add(key);
+	    else
+		found.put(mirror, source);
+	}
+	// the outline is drawn by the inverse of the iteration function
+	if(fractal instanceof Julia && ((Julia) fractal).getFormula() == null
+	   && computed.size()
+	   > DivergenceIndexMatrixCalculator.getPool().getParallelism())
+	    sortByCost(computed, (Julia) fractal, step);
+	Map<Key, int[][]> results =
+	    Collections.synchronizedMap(new HashMap<>());
+	DivergenceIndexMatrixCalculator.getPool()
+	    .invoke(new TileCalculator(0, computed.size(), computed, results,
+				       fractal, step));
+	found.putAll(results);
+	for(Key key : missing){
+	    if(!found.containsKey(key)){
+		found.put(key, mirrored(found.get(key.mirror(symmetry)),
+					symmetry));
+	    }
+	    put(key, found.get(key));
+	}
+
+	// assembles the view from its tiles
+	int[][] matrix = new int[w][h];
+	for(int i = 0; i < w; i++){
+	    long u = u0 + i;
+	    long tu = tileOf(u);
+	    int k = (int) (u - (tu * TILE_SIZE - HALF));
+	    for(int j = 0; j < h; j++){
+		long v = v0 + j;
+		long tv = tileOf(v);
+		int[][] tile = found.get(new Key(parameters, tu, tv));
+		matrix[i][j] = tile[k][(int) (v - (tv * TILE_SIZE - HALF))];
+	    }
+	}
+	return matrix;
+    }
+
+    // sorts the tiles of keys from the most to the least expensive, so that
+    // the threads are left with cheap tiles at the end of the render. The
+    // pixels of the tiles that the boundary of julia crosses, drawn by a
+    // low resolution JuliaOutline, take about half of maxIteration on
+    // average, the others about the index of the center of their tile
+    private static void sortByCost(List<Key> keys, Julia julia, double step){
+	double coarse = step * Math.max(1.0, Math.max(julia.getWidth(),
+						      julia.getHeight())
+					/ (double) OUTLINE_SIZE);
+	JuliaOutline outline = JuliaOutline.of
+	    (julia.toBuilder()
+	     .discreteStep(coarse)
+	     .imageWidth((int) Math.ceil(julia.getWidth() * step / coarse))
+	     .imageHeight((int) Math.ceil(julia.getHeight() * step / coarse))
+	     .build());
+	Map<Key, Integer> costs = new HashMap<>();
+	for(Key key : keys){
+	    double reMin = (key.column * TILE_SIZE - HALF) * step;
+	    double imMax = -(key.row * TILE_SIZE - HALF) * step;
+	    double side = (TILE_SIZE - 1) * step;
+	    int cost = julia.computeDivergence
+		(Complex.of(reMin + side / 2, imMax - side / 2));
+	    if(outline.countPoints(reMin, reMin + side, imMax - side, imMax) > 0)
+		cost = Math.max(cost, julia.getMaxIteration() / 2);
+	    costs.put(key, cost);
+	}
+	keys.sort((k, l) -> Integer.compare(costs.get(l), costs.get(k)));
+    }
+
+    // returns the tile that contains the lattice coordinate x
+    private static long tileOf(long x){
+	return Math.floorDiv(x + HALF, TILE_SIZE);
+    }
+
+    // returns the tile of symmetry, given the tile source that mirrors it
+    private static int[][] mirrored(int[][] source, Symmetry symmetry){
+	int[][] tile = new int[TILE_SIZE][TILE_SIZE];
+	for(int k = 0; k < TILE_SIZE; k++)
+	    for(int l = 0; l < TILE_SIZE; l++)
+		tile[k][l] = symmetry == Symmetry.ORIGIN
+		    ? source[TILE_SIZE - 1 - k][TILE_SIZE - 1 - l]
+		    : source[k][TILE_SIZE - 1 - l];
+	return tile;
+    }
+
+    // returns the parameters that determine the indices of the tiles
+    private static String parametersOf(Fractal fractal, double step){
+	StringBuilder sb = new StringBuilder();
+	// the type, followed by the formula of the fractal if it has one
+	sb.append(FractalText.typeLine(fractal));
+	if(fractal instanceof Julia){
+	    Julia julia = (Julia) fractal;
+	    sb.append(' ').append(julia.getComplexConstant())
+		.append(' ').append(julia.getAlphaFactor())
+		.append(' ').append(julia.getBetaFactor());
+	}
+	sb.append(' ').append(fractal.getMaxIteration())
+	    .append(' ').append(fractal.getPrecision())
+	    .append(' ').append(step);
+	return sb.toString();
+    }
+
+    // returns the cached tile of key, or null
+    private synchronized int[][] get(Key key){
+	int[][] tile = tiles.get(key);
+	if(tile == null)
+	    misses++;
+	else
+	    hits++;
+	return tile;
+    }
+
+    // returns the cached tile of key, or null, without counting the lookup
+    private synchronized int[][] peek(Key key){
+	return tiles.get(key);
+    }
+
+    // caches the tile of key, evicting the least recently used tiles
+    private synchronized void put(Key key, int[][] tile){
+	if(tiles.put(key, tile) == null)
+	    size += TILE_SIZE * TILE_SIZE;
+	Iterator<int[][]> eldest = tiles.values().iterator();
+	while(size > capacity && eldest.hasNext()){
+	    eldest.next();
+	    eldest.remove();
+	    size -= TILE_SIZE * TILE_SIZE;
+	    evictions++;
+	}
+    }
+
+    /**
+     * Removes every tile of this cache
+     */
+    public synchronized void clear(){
+	tiles.clear();
+	size = 0;
+    }
+
+    /**
+     * Returns the number of tiles found in this cache
+     *
+     * @return The number of hits
+     */
+    public synchronized long getHits(){
+	return hits;
+    }
+
+    /**
+     * Returns the number of tiles looked for and not found in this cache
+     *
+     * @return The number of misses
+     */
+    public synchronized long getMisses(){
+	return misses;
+    }
+
+    /**
+     * Returns the number of tiles evicted from this cache
+     *
+     * @return The number of evictions
+     */
+    public synchronized long getEvictions(){
+	return evictions;
+    }
+
+    /**
+     * Returns the number of pixels held by this cache
+     *
+     * @return The number of cached pixels
+     */
+    public synchronized long getSize(){
+	return size;
+    }
+
+    @Override
+    public synchronized String toString(){
+	return "Tile cache : " + tiles.size() + " tiles (" + size + " of "
+	    + capacity + " pixels), " + hits + " hits, " + misses
+	    + " misses, " + evictions + " evictions";
+    }
+
+    // identifies a tile : the parameters of the iteration and the lattice
+    // coordinates of its center
+    private static final class Key {
+	final String parameters;
+	final long column;
+	final long row;
+
+	Key(String parameters, long column, long row){
+	    this.parameters = parameters;
+	    this.column = column;
+	    this.row = row;
+	}
+
+	// returns the tile that mirrors this one, or null
+	Key mirror(Symmetry symmetry){
+	    if(symmetry == Symmetry.REAL_AXIS)
+		return new Key(parameters, column, -row);
+	    if(symmetry == Symmetry.ORIGIN)
+		return new Key(parameters, -column, -row);
+	    return null;
+	}
+
+	@Override
+	public boolean equals(Object o){
+	    if(!(o instanceof Key))
+		return false;
+	    Key key = (Key) o;
+	    return column == key.column && row == key.row
+		&& parameters.equals(key.parameters);
+	}
+
+	@Override
+	public int hashCode(){
+	    return Objects.hash(parameters, column, row);
+	}
+    }
+
+    // computes the tiles of keys from index from to index to
+    private static class TileCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	List<Key> keys; // the tiles to compute
+	Map<Key, int[][]> results; // receives the computed tiles
+	Fractal fractal; // the fractal being built
+	double step; // the step of the lattice
+
+	TileCalculator(int from, int to, List<Key> keys,
+		       Map<Key, int[][]> results, Fractal fractal, double step){
+	    this.from = from;
+	    this.to = to;
+	    this.keys = keys;
+	    this.results = results;
+	    this.fractal = fractal;
+	    this.step = step;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= 1){
+		for(int t = from; t < to; t++)
+		    results.put(keys.get(t), computeTile(keys.get(t)));
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new TileCalculator(from, middle, keys, results, fractal,
+					 step),
+		      new TileCalculator(middle, to, keys, results, fractal,
+					 step));
+	}
+
+	// computes the divergence indices of the tile of key
+	private int[][] computeTile(Key key){
+	    int[][] tile = new int[TILE_SIZE][TILE_SIZE];
+	    boolean floats = fractal.getPrecision() == Precision.FLOAT;
+	    for(int k = 0; k < TILE_SIZE; k++){
+		double re = (key.column * TILE_SIZE - HALF + k) * step;
+		for(int l = 0; l < TILE_SIZE; l++){
+		    double im = -(key.row * TILE_SIZE - HALF + l) * step;
+		    tile[k][l] = floats
+			? fractal.computeDivergence((float) re, (float) im)
+			: fractal.computeDivergence(Complex.of(re, im));
+		}
+	    }
+	    return tile;
+	}
+    }
+}
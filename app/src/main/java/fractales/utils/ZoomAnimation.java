@@ -0,0 +1,304 @@
+package fractales.utils;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import fractales.model.*;
+import fractales.model.Fractal.Precision;
+
+/**
+ * This class renders the frames of a zoom from the view of a fractal
+ * toward a target point, which keeps its position in the image while the
+ * discrete step decreases exponentially.
+ * The zoom halves the step every given number of frames, so that the
+ * frames one octave apart share every other row and column : the pixel
+ * of lattice coordinates (u, v), that is the complex u * step - v * step * i,
+ * is the pixel (u / 2, v / 2) of the frame of twice the step. These pixels
+ * are copied from that frame instead of being computed again.
+ * The frames of one octave do not depend on each other, so they are
+ * computed and saved at the same time in the shared pool of threads.
+ */
+public class ZoomAnimation {
+
+    // the first view and the target of the zoom
+    private final Fractal start;
+    private final Complex target;
+
+    // number of frames and number of frames per halving of the step
+    private final int frames;
+    private final int framesPerOctave;
+
+    // step and lattice coordinates of the upper left pixel of each frame
+    private final double[] steps;
+    private final long[] columns;
+    private final long[] rows;
+
+    // metrics
+    private final AtomicLong computed = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private long elapsedMillis;
+
+    // instantiates an animation
+    private ZoomAnimation(Fractal start, Complex target, int frames,
+			  int framesPerOctave){
+	this.start = start;
+	this.target = target;
+	this.frames = frames;
+	this.framesPerOctave = framesPerOctave;
+	this.steps = new double[frames];
+	this.columns = new long[frames];
+	this.rows = new long[frames];
+
+	double step = start.getDiscreteStep();
+	// the center of the first view, which moves toward the target
+	double x = start.getXMin() + step * (start.getWidth() - 1) / 2.0;
+	double y = start.getYMax() - step * (start.getHeight() - 1) / 2.0;
+	for(int k = 0; k < frames; k++){
+	    // halving is exact, so that frames one octave apart share
+	    // their lattice
+	    steps[k] = k < framesPerOctave
+		? step * Math.pow(2, -(double) k / framesPerOctave)
+		: steps[k - framesPerOctave] / 2;
+	    double scale = steps[k] / step;
+	    double xMin = target.getRe() + (x - target.getRe()) * scale
+		- steps[k] * (start.getWidth() - 1) / 2.0;
+	    double yMax = target.getIm() + (y - target.getIm()) * scale
+		+ steps[k] * (start.getHeight() - 1) / 2.0;
+	    columns[k] = Math.round(xMin / steps[k]);
+	    rows[k] = -Math.round(yMax / steps[k]);
+	}
+    }
+
+    /**
+     * Returns the zoom of the specified number of frames from the view of
+     * the specified Fractal fractal toward the specified Complex target.
+     * The step of the last frame is the step of fractal divided by about
+     * depth : the number of frames per halving of the step is rounded to
+     * an integer.
+     *
+     * @param fractal The first view of the zoom
+     * @param target The point toward which the zoom goes
+     * @param frames The number of frames, at least 2
+     * @param depth The magnification of the last frame, greater than 1
+     * @return The zoom animation
+     * @throws IllegalArgumentException if frames or depth are too low
+     */
+    public static ZoomAnimation of(Fractal fractal, Complex target, int frames,
+				   double depth){
+	if(frames < 2 || depth <= 1)
+	    throw new IllegalArgumentException("At least 2 frames and a depth "
+					       + "greater than 1 are needed");
+	int framesPerOctave =
+	    (int) Math.max(1, Math.round((frames - 1) * Math.log(2)
+					 / Math.log(depth)));
+	return new ZoomAnimation(fractal, target, frames, framesPerOctave);
+    }
+
+    /**
+     * Returns the view of the specified frame
+     *
+     * @param k The number of the frame, from 0
+     * @return The fractal of the frame, whose file name is the file name of
+     * the first view followed by the number of the frame
+     */
+    public Fractal getFrame(int k){
+	BigDecimal step = new BigDecimal(steps[k]);
+	BigDecimal xMin = step.multiply(BigDecimal.valueOf(columns[k]));
+	BigDecimal yMax = step.multiply(BigDecimal.valueOf(-rows[k]));
+	return start.toBuilder()
+	    .discreteStep(steps[k])
+	    .xMin(xMin)
+	    .xMax(xMin.doubleValue() + steps[k] * (start.getWidth() - 1))
+	    .yMin(yMax.doubleValue() - steps[k] * (start.getHeight() - 1))
+	    .yMax(yMax)
+	    .fileName(start.getFileName() + String.format("-%04d", k))
+	    .build();
+    }
+
+    /**
+     * Computes every frame and saves it in /tmp/, as the PNG image named
+     * after the file name of its view
+     */
+    public void render(){
+	long begin = System.currentTimeMillis();
+	computed.set(0);
+	reused.set(0);
+	// only the frames of the last octave are kept : the frame one octave
+	// before is forgotten once its pixels are copied
+	AtomicReferenceArray<CompletableFuture<int[][]>> matrices =
+	    new AtomicReferenceArray<>(frames);
+	List<CompletableFuture<Void>> saved = new ArrayList<>();
+	for(int k = 0; k < frames; k++){
+	    final int frame = k;
+	    CompletableFuture<int[][]> previous = k < framesPerOctave
+		? CompletableFuture.completedFuture(null)
+		: matrices.get(k - framesPerOctave);
+	    CompletableFuture<int[][]> matrix = previous.thenApplyAsync
+		(source -> {
+		    int[][] result = computeFrame(frame, source);
+		    if(frame >= framesPerOctave)
+			matrices.set(frame - framesPerOctave, null);
+		    return result;
+		}, DivergenceIndexMatrixCalculator.getPool());
+	    matrices.set(k, matrix);
+	    saved.add(matrix.thenAcceptAsync
+		      (m -> saveFrame(frame, m),
+		       DivergenceIndexMatrixCalculator.getPool()));
+	}
+	CompletableFuture.allOf(saved.toArray(new CompletableFuture<?>[0])).join();
+	elapsedMillis = System.currentTimeMillis() - begin;
+    }
+
+    // computes the divergence indices of the frame k, copying the pixels
+    // it shares with the indices source of the frame one octave before
+    private int[][] computeFrame(int k, int[][] source){
+	Fractal frame = getFrame(k);
+	Precision precision = frame.getPrecision();
+	if(precision.isExtended()){
+	    // orbits beyond doubles are not computed on the lattice
+	    computed.addAndGet((long) frame.getWidth() * frame.getHeight());
+	    return frame.getDivergenceIndexMatrix();
+	}
+	int p = k - framesPerOctave;
+	if(source != null && getFrame(p).getPrecision() != precision)
+	    source = null;
+	int[][] results = new int[frame.getWidth()][frame.getHeight()];
+	new FrameCalculator(0, results.length, results, frame, precision, k,
+			    source).invoke();
+	return results;
+    }
+
+    // saves the image of the frame k
+    private void saveFrame(int k, int[][] matrix){
+	Fractal frame = getFrame(k);
+	try {
+	    ImageIO.write(FractalImage.of(frame).createImage(matrix), "PNG",
+			  new File("/tmp/" + frame.getFileName() + ".png"));
+	} catch(Exception e){
+	    e.printStackTrace();
+	    System.out.println("ERROR SAVING PNG");
+	}
+    }
+
+    /**
+     * Returns the number of frames per halving of the step
+     *
+     * @return The number of frames per octave
+     */
+    public int getFramesPerOctave(){
+	return framesPerOctave;
+    }
+
+    /**
+     * Returns the magnification of the last frame
+     *
+     * @return The ratio of the steps of the first and of the last frame
+     */
+    public double getDepth(){
+	return steps[0] / steps[frames - 1];
+    }
+
+    /**
+     * Returns the number of pixels copied from the frame one octave before
+     * by the last rendering
+     *
+     * @return The number of reused pixels
+     */
+    public long getReusedPixels(){
+	return reused.get();
+    }
+
+    /**
+     * Returns the number of pixels computed by the last rendering
+     *
+     * @return The number of computed pixels
+     */
+    public long getComputedPixels(){
+	return computed.get();
+    }
+
+    @Override
+    public String toString(){
+	long total = computed.get() + reused.get();
+	return frames + " frames, " + framesPerOctave + " per octave, depth "
+	    + String.format("%.4g", getDepth()) + ", rendered in "
+	    + elapsedMillis + " ms, " + reused.get() + " of " + total
+	    + " pixels reused ("
+	    + String.format("%.1f", 100.0 * reused.get() / Math.max(1, total))
+	    + "%)";
+    }
+
+    // computes the columns from index from to index to of a frame
+    private class FrameCalculator extends RecursiveAction {
+	int from, to; // boundaries
+	int[][] results; // resulting array of divergence indices
+	Fractal frame; // the view of the frame
+	Precision precision; // precision of the orbits
+	int k; // the number of the frame
+	int[][] source; // indices of the frame one octave before, or null
+
+	FrameCalculator(int from, int to, int[][] results, Fractal frame,
+			Precision precision, int k, int[][] source){
+	    this.from = from;
+	    this.to = to;
+	    this.results = results;
+	    this.frame = frame;
+	    this.precision = precision;
+	    this.k = k;
+	    this.source = source;
+	}
+
+	@Override
+	protected void compute(){
+	    if(to - from <= Math.max(1, results.length / 8)){
+		computeDirectly();
+		return;
+	    }
+	    int middle = (from + to) / 2;
+	    invokeAll(new FrameCalculator(from, middle, results, frame,
+					  precision, k, source),
+		      new FrameCalculator(middle, to, results, frame,
+					  precision, k, source));
+	}
+
+	// computes or copies the pixels of the columns from index from to
+	// index to
+	private void computeDirectly(){
+	    double step = steps[k];
+	    int p = k - framesPerOctave;
+	    long count = 0;
+	    for(int i = from; i < to; i++){
+		long u = columns[k] + i;
+		// the column of the frame one octave before, or -1
+		long si = source != null && (u & 1) == 0
+		    ? u / 2 - columns[p] : -1;
+		boolean shared = si >= 0 && si < source.length;
+		for(int j = 0; j < results[i].length; j++){
+		    long v = rows[k] + j;
+		    if(shared && (v & 1) == 0){
+			long sj = v / 2 - rows[p];
+			if(sj >= 0 && sj < source[(int) si].length){
+			    results[i][j] = source[(int) si][(int) sj];
+			    continue;
+			}
+		    }
+		    // the same coordinates as in the frame one octave before,
+		    // since halving the step is exact
+		    double re = u * step;
+		    double im = -v * step;
+		    results[i][j] = precision == Precision.FLOAT
+			? frame.computeDivergence((float) re, (float) im)
+			: frame.computeDivergence(Complex.of(re, im));
+		    count++;
+		}
+	    }
+	    computed.addAndGet(count);
+	    reused.addAndGet((long) (to - from) * results[from].length - count);
+	}
+    }
+}
@@ -0,0 +1,22 @@
+package fractales.model;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class FormulaTest {
+
+    @Test
+    void rejectsTheDistanceOfAFormula(){
+	Formula formula = Formula.of("z * z * z + c");
+	Julia julia = new Julia.Builder()
+	    .complexConstant(Complex.of(-0.8, 0.156)).formula(formula)
+	    .imageWidth(11).imageHeight(11).build();
+	Mandelbrot mandelbrot = new Mandelbrot.Builder().formula(formula)
+	    .imageWidth(11).imageHeight(11).build();
+	assertThrows(IllegalArgumentException.class,
+		     () -> julia.computeDistance(Complex.of(0.5, 0.5)));
+	assertThrows(IllegalArgumentException.class,
+		     () -> mandelbrot.computeDistance(Complex.of(0.5, 0.5)));
+    }
+}
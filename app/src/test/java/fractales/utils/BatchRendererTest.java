@@ -0,0 +1,54 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import fractales.model.*;
+import org.junit.jupiter.api.Test;
+
+class BatchRendererTest {
+
+    // saves the descriptor of a small Mandelbrot view named name in dir
+    private static Path descriptor(Path dir, String file, String name)
+	throws IOException {
+	Mandelbrot fractal = new Mandelbrot.Builder()
+	    .xMin(-2).xMax(1).yMin(-1).yMax(1).discreteStep(0.1)
+	    .imageWidth(31).imageHeight(21).maxIteration(50)
+	    .fileName(name).build();
+	Path path = dir.resolve(file);
+	FractalFile.save(fractal, null, path);
+	return path;
+    }
+
+    @Test
+    void failsOnlyTheJobWhoseImageCannotBeSaved() throws IOException {
+	Path dir = Files.createTempDirectory("batch");
+	String name = "batch-test-" + System.nanoTime();
+	List<Path> descriptors =
+	    List.of(descriptor(dir, "a.frac", "missing-dir-" + name + "/a"),
+		    descriptor(dir, "b.frac", name));
+	BatchRenderer.Report report =
+	    new BatchRenderer(1, 1L << 26).render(descriptors);
+	assertEquals(1, report.getFailures());
+	assertFalse(report.getJobs().get(0).isSuccess());
+	assertTrue(report.getJobs().get(1).isSuccess());
+	assertTrue(Files.exists(Path.of("/tmp/" + name + ".png")));
+    }
+
+    @Test
+    void rejectsTheDescriptorsOfTheSameImages() throws IOException {
+	Path dir = Files.createTempDirectory("batch");
+	String name = "batch-test-" + System.nanoTime();
+	List<Path> descriptors = List.of(descriptor(dir, "a.frac", name),
+					 descriptor(dir, "b.frac", name));
+	BatchRenderer.Report report =
+	    new BatchRenderer(1, 1L << 26).render(descriptors);
+	assertTrue(report.getJobs().get(0).isSuccess());
+	assertFalse(report.getJobs().get(1).isSuccess());
+    }
+}
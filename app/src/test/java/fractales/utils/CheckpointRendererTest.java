@@ -0,0 +1,88 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import fractales.model.*;
+import org.junit.jupiter.api.Test;
+
+class CheckpointRendererTest {
+
+    // renders fractal tile by tile and compares it with a render of the
+    // whole view
+    private static void assertSameAsWholeView(Fractal fractal)
+	throws IOException {
+	int[][] tiles = CheckpointRenderer.of(fractal).render(0);
+	int[][] whole = fractal.getDivergenceIndexMatrix();
+	for(int i = 0; i < whole.length; i++)
+	    assertArrayEquals(whole[i], tiles[i]);
+    }
+
+    // renders fractal tile by tile with the engine of the specified name
+    private static void assertSameAsEngine(Fractal fractal, String engine)
+	throws IOException {
+	System.setProperty(RenderEngines.PROPERTY, engine);
+	try {
+	    assertSameAsWholeView(fractal);
+	} finally {
+	    System.clearProperty(RenderEngines.PROPERTY);
+	}
+    }
+
+    // a view of the Mandelbrot set off the lattice of the tile cache
+    private static Mandelbrot mandelbrot(){
+	return new Mandelbrot.Builder()
+	    .xMin(-2.1).xMax(0.9).yMin(-1.3).yMax(1.3)
+	    .discreteStep(0.0037).imageWidth(811).imageHeight(703)
+	    .fileName("checkpoint-test-" + System.nanoTime()).build();
+    }
+
+    @Test
+    void mirrorsTheRowsAsARenderOfTheWholeView() throws IOException {
+	assertSameAsWholeView(mandelbrot());
+    }
+
+    @Test
+    void mirrorsThePixelsAsARenderOfTheWholeView() throws IOException {
+	assertSameAsWholeView(new Julia.Builder()
+			      .complexConstant(Complex.of(-0.8, 0.156))
+			      .xMin(-1.5).xMax(1.3).yMin(-1.1).yMax(1.2)
+			      .discreteStep(0.0093).imageWidth(302)
+			      .imageHeight(248).maxIteration(500)
+			      .fileName("checkpoint-test-" + System.nanoTime())
+			      .build());
+    }
+
+    @Test
+    void computesTheTilesWithTheForcedEngine() throws IOException {
+	for(RenderEngine engine : RenderEngines.getEngines())
+	    if(engine.supports(mandelbrot()))
+		assertSameAsEngine(mandelbrot(), engine.getName());
+    }
+
+    @Test
+    void assemblesTheTilesOfTheCache() throws IOException {
+	Mandelbrot fractal = new Mandelbrot.Builder()
+	    .xMin(-2).xMax(1).yMin(-1).yMax(1).discreteStep(0.01)
+	    .imageWidth(301).imageHeight(201)
+	    .fileName("checkpoint-test-" + System.nanoTime()).build();
+	assertTrue(TileCache.isCacheable(fractal));
+	assertSameAsWholeView(fractal);
+    }
+
+    @Test
+    void rejectsTheBuddhabrot(){
+	Buddhabrot fractal = new Buddhabrot.Builder()
+	    .xMin(-2).xMax(1).yMin(-1).yMax(1).discreteStep(0.1)
+	    .imageWidth(31).imageHeight(21).build();
+	assertThrows(IllegalArgumentException.class,
+		     () -> CheckpointRenderer.of(fractal));
+	assertThrows(IllegalArgumentException.class,
+		     () -> DeadlineRenderer.render(fractal, 100));
+	assertThrows(IllegalArgumentException.class,
+		     () -> FractalImage.of(fractal)
+		     .antiAliasing(3, FractalImage.DEFAULT_THRESHOLD));
+    }
+}
@@ -0,0 +1,87 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import fractales.model.*;
+import org.junit.jupiter.api.Test;
+
+class DiskCacheTest {
+
+    // a small view of the Mandelbrot set
+    private static Mandelbrot fractal(){
+	return new Mandelbrot.Builder()
+	    .xMin(-2).xMax(1).yMin(-1).yMax(1).discreteStep(0.1)
+	    .imageWidth(31).imageHeight(21).maxIteration(50).build();
+    }
+
+    @Test
+    void loadsTheStoredIndices() throws IOException {
+	Path directory = Files.createTempDirectory("cache");
+	DiskCache cache = new DiskCache(directory, 1L << 20);
+	Mandelbrot fractal = fractal();
+	int[][] matrix = cache.getDivergenceIndexMatrix(fractal);
+	int[][] loaded = cache.load(fractal);
+	assertNotNull(loaded);
+	for(int i = 0; i < matrix.length; i++)
+	    assertArrayEquals(matrix[i], loaded[i]);
+    }
+
+    @Test
+    void keepsNothingWithoutCapacity() throws IOException {
+	Path directory = Files.createTempDirectory("cache");
+	Mandelbrot fractal = fractal();
+	new DiskCache(directory, 1L << 20).getDivergenceIndexMatrix(fractal);
+	DiskCache cache = new DiskCache(directory, 0);
+	assertNull(cache.load(fractal));
+	cache.getDivergenceIndexMatrix(fractal);
+	assertNull(cache.load(fractal));
+    }
+
+    @Test
+    void evictsWhileThreadsStoreAtOnce() throws Exception {
+	Path directory = Files.createTempDirectory("cache");
+	// 4 bytes per index and a header of 12 bytes
+	long size = 12 + 4L * 31 * 21;
+	DiskCache cache = new DiskCache(directory, 2 * size);
+	int[][] matrix = new int[31][21];
+	ExecutorService executor = Executors.newFixedThreadPool(8);
+	// store prints its errors instead of throwing them
+	PrintStream out = System.out;
+	ByteArrayOutputStream printed = new ByteArrayOutputStream();
+	System.setOut(new PrintStream(printed, true));
+	try {
+	    List<Future<?>> stores = new ArrayList<>();
+	    for(int k = 0; k < 64; k++){
+		Mandelbrot fractal = fractal().toBuilder()
+		    .maxIteration(50 + k).build();
+		stores.add(executor.submit(() -> cache.store(fractal, matrix)));
+	    }
+	    for(Future<?> store : stores)
+		store.get();
+	} finally {
+	    System.setOut(out);
+	    executor.shutdown();
+	}
+	assertFalse(printed.toString().contains("ERROR"), printed.toString());
+	try(Stream<Path> files = Files.list(directory)){
+	    long total = files.filter(p -> p.toString().endsWith(".div"))
+		.mapToLong(p -> p.toFile().length()).sum();
+	    assertTrue(total <= 2 * size, total + " bytes cached");
+	}
+    }
+}
@@ -0,0 +1,67 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import fractales.model.*;
+import fractales.model.Fractal.Precision;
+import org.junit.jupiter.api.Test;
+
+class DivergenceIndexMatrixCalculatorTest {
+
+    // counts the pixels that differ between a and b
+    private static int countDifferences(int[][] a, int[][] b){
+	int count = 0;
+	for(int i = 0; i < a.length; i++)
+	    for(int j = 0; j < a[i].length; j++)
+		if(a[i][j] != b[i][j])
+		    count++;
+	return count;
+    }
+
+    @Test
+    void mirrorsNothingWhenTheAxisIsFarFromTheView(){
+	// 2 * yMax / step is 2^32 + 20, which an int cast wraps to 20
+	double yMax = 0.1318259042053119;
+	double step = 2 * yMax / (4294967296.0 + 20);
+	double xMin = -0.7436438870371587 - 50 * step;
+	Mandelbrot fractal = new Mandelbrot.Builder()
+	    .xMin(xMin).xMax(xMin + 100 * step)
+	    .yMin(yMax - 120 * step).yMax(yMax)
+	    .discreteStep(step).imageWidth(100).imageHeight(120)
+	    .maxIteration(2000).build();
+	int[][] mirrored =
+	    DivergenceIndexMatrixCalculator.computeMatrix(fractal,
+							  Precision.DOUBLE);
+	int[][] computed =
+	    DivergenceIndexMatrixCalculator.computeRegion(fractal,
+							  Precision.DOUBLE,
+							  0, 0, 100, 120);
+	assertEquals(0, countDifferences(mirrored, computed));
+    }
+
+    @Test
+    void computesEveryPixelWhenTheAxisIsFarFromTheView(){
+	double yMax = 0.1318259042053119;
+	double step = 2 * yMax / (4294967296.0 + 20);
+	Mandelbrot fractal = new Mandelbrot.Builder()
+	    .xMin(-0.7436438870371587).xMax(-0.7436438870371587 + 100 * step)
+	    .yMin(yMax - 120 * step).yMax(yMax)
+	    .discreteStep(step).imageWidth(100).imageHeight(120).build();
+	assertEquals(1.0,
+		     DivergenceIndexMatrixCalculator.getComputedShare(fractal));
+    }
+
+    @Test
+    void mirrorsTheRowsAroundTheRealAxis(){
+	Mandelbrot fractal = new Mandelbrot.Builder()
+	    .xMin(-2).xMax(1).yMin(-1).yMax(1)
+	    .discreteStep(0.01).imageWidth(301).imageHeight(201)
+	    .maxIteration(100).build();
+	int[][] matrix =
+	    DivergenceIndexMatrixCalculator.computeMatrix(fractal,
+							  Precision.DOUBLE);
+	for(int i = 0; i < 301; i++)
+	    for(int j = 0; j < 100; j++)
+		assertEquals(matrix[i][j], matrix[i][200 - j]);
+    }
+}
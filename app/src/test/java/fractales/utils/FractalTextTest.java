@@ -0,0 +1,24 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import fractales.model.*;
+import org.junit.jupiter.api.Test;
+
+class FractalTextTest {
+
+    @Test
+    void savesTheTextFileNextToTheImage() throws IOException {
+	String name = "text-test-" + System.nanoTime();
+	Julia julia = new Julia.Builder()
+	    .complexConstant(Complex.of(-0.8, 0.156))
+	    .formula(Formula.of("z * z * z + c"))
+	    .xMin(-1).xMax(1).yMin(-1).yMax(1).discreteStep(0.1)
+	    .imageWidth(21).imageHeight(21).fileName(name).build();
+	FractalImage.of(julia).saveFile(new int[21][21]);
+	Fractal read = FractalText.textToImage("/tmp/" + name + ".txt");
+	assertEquals(FractalText.of(julia).getDescriptor(),
+		     FractalText.of(read).getDescriptor());
+    }
+}
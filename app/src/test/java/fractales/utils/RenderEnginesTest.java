@@ -0,0 +1,34 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fractales.model.*;
+import org.junit.jupiter.api.Test;
+
+class RenderEnginesTest {
+
+    // a view inside the main cardioid, where subdivision is the cheapest
+    private static Mandelbrot interior(){
+	return new Mandelbrot.Builder()
+	    .xMin(-0.3).xMax(0.1).yMin(-0.2).yMax(0.2).discreteStep(0.001)
+	    .imageWidth(401).imageHeight(401).maxIteration(1000).build();
+    }
+
+    @Test
+    void selectsOnlyExactEngines(){
+	RenderEngine engine = RenderEngines.select(interior());
+	assertTrue(engine.isExact());
+    }
+
+    @Test
+    void usesSubdivisionWhenItIsForced(){
+	System.setProperty(RenderEngines.PROPERTY, "subdivision");
+	try {
+	    assertEquals("subdivision",
+			 RenderEngines.select(interior()).getName());
+	} finally {
+	    System.clearProperty(RenderEngines.PROPERTY);
+	}
+    }
+}
@@ -0,0 +1,52 @@
+package fractales.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fractales.model.*;
+import org.junit.jupiter.api.Test;
+
+class TileCacheTest {
+
+    // side in pixels of the tiles of the cache
+    private static final int TILE_SIZE = 63;
+
+    @Test
+    void copiesAMirrorTileEvictedByTheSameView(){
+	// the cache holds one tile : the tile (0, -1) of the first view
+	TileCache cache = new TileCache(TILE_SIZE * TILE_SIZE);
+	Mandelbrot first = new Mandelbrot.Builder()
+	    .xMin(0).xMax(0).yMin(0.5).yMax(0.5).discreteStep(0.01)
+	    .imageWidth(1).imageHeight(1).build();
+	assertTrue(TileCache.isCacheable(first));
+	cache.computeMatrix(first);
+
+	// the tile (-1, 1) of the second view is computed and cached first,
+	// which evicts (0, -1) before the tile (0, 1) is copied from it
+	Mandelbrot second = new Mandelbrot.Builder()
+	    .xMin(-0.5).xMax(0).yMin(-0.5).yMax(-0.5).discreteStep(0.01)
+	    .imageWidth(51).imageHeight(1).build();
+	assertTrue(TileCache.isCacheable(second));
+	int[][] matrix = cache.computeMatrix(second);
+
+	int[][] expected = new TileCache(1L << 20).computeMatrix(second);
+	for(int i = 0; i < expected.length; i++)
+	    assertArrayEquals(expected[i], matrix[i]);
+    }
+
+    @Test
+    void reusesTheTilesOfAPreviousView(){
+	TileCache cache = new TileCache(1L << 20);
+	Julia julia = new Julia.Builder()
+	    .complexConstant(Complex.of(-0.8, 0.156))
+	    .xMin(-1).xMax(1).yMin(-1).yMax(1).discreteStep(0.01)
+	    .imageWidth(201).imageHeight(201).build();
+	int[][] first = cache.computeMatrix(julia);
+	long misses = cache.getMisses();
+	int[][] second = cache.computeMatrix(julia);
+	assertEquals(misses, cache.getMisses());
+	for(int i = 0; i < first.length; i++)
+	    assertArrayEquals(first[i], second[i]);
+    }
+}